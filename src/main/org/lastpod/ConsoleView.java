@@ -0,0 +1,266 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.PrintStream;
+
+import java.util.List;
+
+/**
+ * A <code>ModelView</code> for the command line.  The progress of a
+ * submission is written to a stream, either as plain text lines or as one
+ * JSON object per line, and the outcome is kept so the caller can choose an
+ * exit status.
+ * @author Chris Tilden
+ */
+public class ConsoleView implements ModelView {
+    /**
+     * The stream the progress is written to.
+     */
+    private PrintStream out;
+
+    /**
+     * <code>true</code> to write JSON objects instead of text.
+     */
+    private boolean json;
+
+    /**
+     * The number of chunks to be submitted.
+     */
+    private int numberOfChunks = 0;
+
+    /**
+     * <code>true</code> once the submission completed successfully.
+     */
+    private boolean completed = false;
+
+    /**
+     * The error that stopped the submission, or <code>null</code>.
+     */
+    private Exception error = null;
+
+    /**
+     * The last track list that was parsed, or <code>null</code> if none was.
+     */
+    private List trackList = null;
+
+    /**
+     * Constructs the view.
+     * @param out  The stream the progress is written to.
+     * @param json  <code>true</code> to write JSON objects instead of text.
+     */
+    public ConsoleView(PrintStream out, boolean json) {
+        this.out = out;
+        this.json = json;
+    }
+
+    /**
+     * Reports the number of tracks in a newly parsed track list.
+     * @param recentlyPlayed  The recently played tracks.
+     */
+    public void newTrackListAvailable(List recentlyPlayed) {
+        trackList = recentlyPlayed;
+
+        int active = 0;
+
+        for (int i = 0; i < recentlyPlayed.size(); i++) {
+            if (((TrackItem) recentlyPlayed.get(i)).isActive().booleanValue()) {
+                active++;
+            }
+        }
+
+        if (json) {
+            out.println("{\"event\":\"tracks\",\"total\":" + recentlyPlayed.size()
+                + ",\"active\":" + active + "}");
+        } else {
+            out.println(recentlyPlayed.size() + " recently played tracks, " + active
+                + " to submit");
+        }
+    }
+
+    /**
+     * Does nothing, the console only reports the complete track list.
+     */
+    public void parseStarted() {
+        /* Nothing to report. */
+    }
+
+    /**
+     * Does nothing, the console only reports the complete track list.
+     * @param tracks  The tracks parsed since the last batch.
+     */
+    public void tracksParsed(List tracks) {
+        /* Nothing to report. */
+    }
+
+    /**
+     * Reports a track that would be submitted.
+     * @param track  The track.
+     */
+    public void showTrack(TrackItem track) {
+        if (json) {
+            out.println("{\"event\":\"track\",\"artist\":" + quote(track.getArtist())
+                + ",\"album\":" + quote(track.getAlbum()) + ",\"track\":"
+                + quote(track.getTrack()) + ",\"length\":" + track.getLength()
+                + ",\"lastplayed\":" + track.getLastplayed() + "}");
+        } else {
+            out.println(track.getLastplayed() + "  " + track.getArtist() + " - "
+                + track.getTrack());
+        }
+    }
+
+    /**
+     * Reports a message.
+     * @param message  The message.
+     */
+    public void showMessage(String message) {
+        printStatus("message", message);
+    }
+
+    /**
+     * Reports the error that stopped the submission, and keeps it.
+     * @param error  The error.
+     */
+    public void showError(Exception error) {
+        this.error = error;
+        printStatus("error", error.getMessage());
+    }
+
+    /**
+     * Reports how many chunks have been committed.
+     * @param currentChunk  The progress value.
+     */
+    public void updateCurrentChunk(final int currentChunk) {
+        if (json) {
+            out.println("{\"event\":\"progress\",\"current\":" + currentChunk + ",\"total\":"
+                + numberOfChunks + "}");
+        } else {
+            out.println("Progress: " + currentChunk + "/" + numberOfChunks);
+        }
+    }
+
+    /**
+     * Sets the number of chunks to be submitted.
+     * @param numberOfChunks  The number of chunks to be submitted.
+     */
+    public void setNumberOfChunks(final int numberOfChunks) {
+        this.numberOfChunks = numberOfChunks;
+    }
+
+    /**
+     * Set to <code>true</code> if the submission was successful.
+     * @param completionStatus  <code>true</code> if the submission was
+     * successful.
+     */
+    public void setCompletionStatus(boolean completionStatus) {
+        completed = completionStatus;
+
+        if (json) {
+            out.println("{\"event\":\"complete\",\"success\":" + completionStatus + "}");
+        }
+    }
+
+    /**
+     * Reports the status of the submission.
+     * @param submitStatusMessage  The status message.
+     */
+    public void setSubmitStatusMessage(String submitStatusMessage) {
+        printStatus("status", submitStatusMessage);
+    }
+
+    /**
+     * Returns <code>true</code> once the submission completed successfully.
+     * @return  <code>true</code> if the submission completed.
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * Gets the error that stopped the submission.
+     * @return  The error, or <code>null</code> if there was none.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Gets the last track list that was parsed.
+     * @return  The track list, or <code>null</code> if none was parsed.
+     */
+    public List getTrackList() {
+        return trackList;
+    }
+
+    /**
+     * Writes a message, as text or as a JSON object with the given event.
+     * @param event  The kind of message.
+     * @param message  The message.
+     */
+    private void printStatus(String event, String message) {
+        if (json) {
+            out.println("{\"event\":\"" + event + "\",\"message\":" + quote(message) + "}");
+        } else if (event.equals("error")) {
+            out.println("Error: " + message);
+        } else {
+            out.println(message);
+        }
+    }
+
+    /**
+     * Quotes a string as a JSON string.
+     * @param value  The string, or <code>null</code>.
+     * @return  The quoted string, or <code>null</code>.
+     */
+    static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+
+        StringBuffer quoted = new StringBuffer(value.length() + 2);
+        quoted.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if ((c == '"') || (c == '\\')) {
+                quoted.append('\\').append(c);
+            } else if (c == '\n') {
+                quoted.append("\\n");
+            } else if (c == '\r') {
+                quoted.append("\\r");
+            } else if (c == '\t') {
+                quoted.append("\\t");
+            } else if ((c < 0x20) || (c > 0x7E)) {
+                String hex = Integer.toHexString(c);
+                quoted.append("\\u");
+
+                for (int j = hex.length(); j < 4; j++) {
+                    quoted.append('0');
+                }
+
+                quoted.append(hex);
+            } else {
+                quoted.append(c);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+}
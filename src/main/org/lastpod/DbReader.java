@@ -18,13 +18,12 @@
  */
 package org.lastpod;
 
+import org.lastpod.parser.ItunesDbParser;
+import org.lastpod.parser.PlayCountsParser;
+import org.lastpod.parser.PlayListener;
+import org.lastpod.parser.TrackCursor;
 import org.lastpod.parser.TrackItemParser;
 
-import java.io.IOException;
-import java.io.InputStream;
-
-import java.math.BigInteger;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -52,6 +51,12 @@ public class DbReader {
      */
     private List recentplays;
 
+    /**
+     * If <code>true</code> the Play Counts entries and the iTunesDB tracks
+     * are read in step, without building the full track list first.
+     */
+    private boolean streaming = false;
+
     /**
      * Default constructor should not be used.
      */
@@ -78,48 +83,52 @@ public class DbReader {
     }
 
     /**
-     * Attempts to open and parse the DB & Play Counts files, creating
-     * the appropriate data structures.
+     * Set to <code>true</code> to read the Play Counts entries and the
+     * iTunesDB tracks in step, without building the full track list first.
+     * This only applies to an <code>ItunesDbParser</code> paired with a
+     * <code>PlayCountsParser</code>; other parsers are unaffected.
+     * @param streaming  <code>true</code> to join the files in a single pass.
      */
-    public void parse() {
-        List trackList = itunesDbParser.parse();
-
-        playCountsParser.setTrackList(trackList);
-        recentplays = playCountsParser.parse();
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
     }
 
     /**
-     * This converts any size byte array to a BigInteger.
-     * @param num  Little-Endian byte array.
-     * @return A BigInt.
+     * Sets a listener that is told about each played track as soon as it is
+     * found.  This only applies to a <code>PlayCountsParser</code>; other
+     * parsers only report their tracks once parsing is complete.
+     * @param playListener  The listener, or <code>null</code> for none.
      */
-    public static BigInteger littleEndianToBigInt(byte[] num) {
-        byte temp;
-
-        int upperBound = num.length - 1;
-        int lowerBound = 0;
-
-        while (lowerBound < upperBound) {
-            temp = num[lowerBound];
-            num[lowerBound] = num[upperBound];
-            num[upperBound] = temp;
-            lowerBound++;
-            upperBound--;
+    public void setPlayListener(PlayListener playListener) {
+        if (playCountsParser instanceof PlayCountsParser) {
+            ((PlayCountsParser) playCountsParser).setPlayListener(playListener);
         }
-
-        return new BigInteger(1, num);
     }
 
     /**
-     * Guarantees that the specified number of bytes will be skipped.
-     * @param stream Input Stream.
-     * @param bytes Number of bytes to skip.
-     * @throws IOException  Thrown if errors occur.
+     * Attempts to open and parse the DB & Play Counts files, creating
+     * the appropriate data structures.
      */
-    public static void skipFully(InputStream stream, long bytes)
-            throws IOException {
-        for (long i = stream.skip(bytes); i < bytes; i += stream.skip(bytes - i)) {
-            /* The loop itself performs all the logic needed to skip. */
+    public void parse() {
+        if (streaming && (itunesDbParser instanceof ItunesDbParser)
+                && (playCountsParser instanceof PlayCountsParser)) {
+            TrackCursor trackCursor = ((ItunesDbParser) itunesDbParser).openTrackCursor();
+
+            if (trackCursor != null) {
+                ((PlayCountsParser) playCountsParser).setTrackCursor(trackCursor);
+                recentplays = playCountsParser.parse();
+
+                return;
+            }
+        }
+
+        List trackList = itunesDbParser.parse();
+
+        playCountsParser.setTrackList(trackList);
+        recentplays = playCountsParser.parse();
+
+        if (itunesDbParser instanceof ItunesDbParser) {
+            ((ItunesDbParser) itunesDbParser).saveToCache(trackList);
         }
     }
 }
@@ -0,0 +1,233 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parses the recently played tracks of several iPods at once, and merges
+ * them into one list ordered by the time they were played.  Each iPod is
+ * parsed on one of a fixed number of worker threads, so the time taken
+ * depends on how many iPods can be read at the same time rather than on
+ * how many there are.  An iPod that can not be parsed is logged and left
+ * out.
+ * @author Chris Tilden
+ */
+public class DeviceIngest {
+    /**
+     * Parses each iPod.
+     */
+    private DeviceParser parser;
+
+    /**
+     * The maximum number of iPods parsed at the same time.
+     */
+    private int maxThreads;
+
+    /**
+     * The paths of the iPods being parsed.
+     */
+    private String[] iTunesPaths;
+
+    /**
+     * The tracks parsed from each iPod, or <code>null</code> if it has not
+     * been parsed or failed.
+     */
+    private List[] results;
+
+    /**
+     * The error that stopped each iPod from being parsed, or
+     * <code>null</code>.
+     */
+    private Exception[] failures;
+
+    /**
+     * The index of the next iPod to parse.
+     */
+    private int nextDevice;
+
+    /**
+     * The logger.
+     */
+    private Logger logger = Logger.getLogger(getClass().getPackage().getName());
+
+    /**
+     * Constructs the ingest.
+     * @param parser  Parses each iPod.
+     * @param maxThreads  The maximum number of iPods parsed at the same time.
+     */
+    public DeviceIngest(DeviceParser parser, int maxThreads) {
+        this.parser = parser;
+        this.maxThreads = Math.max(1, maxThreads);
+    }
+
+    /**
+     * Parses the iPods, and merges their tracks.
+     * @param paths  The paths to the iPods' iTunes DBs.
+     * @return  The tracks of every iPod that was parsed, ordered by the time
+     * they were played.
+     * @throws Exception  Thrown if none of the iPods could be parsed.  This is
+     * the error of the first iPod.
+     */
+    public List ingest(String[] paths) throws Exception {
+        synchronized (this) {
+            iTunesPaths = paths;
+            results = new List[paths.length];
+            failures = new Exception[paths.length];
+            nextDevice = 0;
+        }
+
+        int threadCount = Math.min(maxThreads, paths.length);
+
+        if (threadCount <= 1) {
+            /* A single iPod is parsed without starting a thread. */
+            parseDevices();
+        } else {
+            Thread[] workers = new Thread[threadCount];
+
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] =
+                    new Thread("DeviceIngest-" + i) {
+                            public void run() {
+                                parseDevices();
+                            }
+                        };
+                workers[i].start();
+            }
+
+            try {
+                for (int i = 0; i < workers.length; i++) {
+                    workers[i].join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while parsing the iPods");
+            }
+        }
+
+        synchronized (this) {
+            List parsed = new ArrayList();
+
+            for (int i = 0; i < paths.length; i++) {
+                if (results[i] != null) {
+                    parsed.add(results[i]);
+                }
+            }
+
+            if (parsed.isEmpty() && (paths.length > 0)) {
+                throw failures[0];
+            }
+
+            return merge((List[]) parsed.toArray(new List[parsed.size()]));
+        }
+    }
+
+    /**
+     * Parses iPods until there are none left.  This runs on each worker.
+     */
+    private void parseDevices() {
+        int device;
+
+        while ((device = takeDevice()) != -1) {
+            String iTunesPath;
+
+            synchronized (this) {
+                iTunesPath = iTunesPaths[device];
+            }
+
+            List tracks = null;
+            Exception failure = null;
+            long start = System.currentTimeMillis();
+
+            try {
+                tracks = parser.parse(iTunesPath);
+            } catch (Exception e) {
+                failure = e;
+                logger.log(Level.WARNING, "Can't parse the iPod at " + iTunesPath + ": " + e);
+            }
+
+            if (tracks != null) {
+                logger.log(Level.INFO,
+                    tracks.size() + " tracks parsed from " + iTunesPath + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            }
+
+            synchronized (this) {
+                results[device] = tracks;
+                failures[device] = failure;
+            }
+        }
+    }
+
+    /**
+     * Takes the next iPod to parse.
+     * @return  The index of the iPod, or <code>-1</code> if there are none
+     * left.
+     */
+    private synchronized int takeDevice() {
+        return (nextDevice < iTunesPaths.length) ? nextDevice++ : -1;
+    }
+
+    /**
+     * Merges lists of tracks that are each ordered by the time they were
+     * played.  Tracks played at the same time keep the order of their lists.
+     * @param lists  The ordered lists.
+     * @return  One list holding every track, ordered by the time it was
+     * played.
+     */
+    static List merge(List[] lists) {
+        if (lists.length == 1) {
+            return lists[0];
+        }
+
+        int size = 0;
+
+        for (int i = 0; i < lists.length; i++) {
+            size += lists[i].size();
+        }
+
+        List merged = new ArrayList(size);
+        int[] positions = new int[lists.length];
+
+        while (merged.size() < size) {
+            int earliest = -1;
+            TrackItem earliestTrack = null;
+
+            for (int i = 0; i < lists.length; i++) {
+                if (positions[i] < lists[i].size()) {
+                    TrackItem track = (TrackItem) lists[i].get(positions[i]);
+
+                    if ((earliestTrack == null)
+                            || (track.getLastplayed() < earliestTrack.getLastplayed())) {
+                        earliest = i;
+                        earliestTrack = track;
+                    }
+                }
+            }
+
+            merged.add(earliestTrack);
+            positions[earliest]++;
+        }
+
+        return merged;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+
+/**
+ * Told by a <code>DeviceMonitor</code> when iPods are docked or their play
+ * counts change.
+ * @author Chris Tilden
+ */
+public interface DeviceListener {
+    /**
+     * Called from the monitor's thread when iPods have been docked, or their
+     * play counts have changed and have stopped changing.
+     * @param iTunesPaths  The paths to the iTunes DBs of the iPods that
+     * changed.
+     */
+    void devicesChanged(String[] iTunesPaths);
+}
@@ -0,0 +1,193 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.File;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the iPods' iTunes folders from a background thread, and tells a
+ * <code>DeviceListener</code> when an iPod is docked or its play counts
+ * change.  The folders are polled: each poll builds a fingerprint of an
+ * iPod's source files from their sizes and modification times.  A change is
+ * only reported once the fingerprint is the same on two polls in a row, so
+ * files that are still being written by a sync are not parsed.  iPods that
+ * are already docked when the monitor starts are reported on the first poll.
+ * The history of an iPod that is undocked or reported is read again the next
+ * time it is needed, so an iPod docked in its place uses its own history.
+ * @author Chris Tilden
+ */
+public class DeviceMonitor implements Runnable {
+    /**
+     * The file that shows an iPod is docked.
+     */
+    private static final String ITUNES_DB = "iTunesDB";
+
+    /**
+     * Gives the paths of the iPods to watch on each poll, so changes to the
+     * preferences are picked up.
+     */
+    private Model model;
+
+    /**
+     * The time between polls, in milliseconds.
+     */
+    private long intervalMillis;
+
+    /**
+     * Told about the iPods that changed.
+     */
+    private DeviceListener listener;
+
+    /**
+     * The fingerprint of each iPod on the last poll, keyed by path.
+     */
+    private Map polledFingerprints = new HashMap();
+
+    /**
+     * The fingerprint of each iPod when it was last reported, keyed by path.
+     */
+    private Map reportedFingerprints = new HashMap();
+
+    /**
+     * <code>true</code> until the first poll.
+     */
+    private boolean firstPoll = true;
+
+    /**
+     * <code>true</code> once the monitor has been asked to stop.
+     */
+    private boolean stopped = false;
+
+    /**
+     * The logger.
+     */
+    private Logger logger = Logger.getLogger(getClass().getPackage().getName());
+
+    /**
+     * Constructs the monitor.
+     * @param model  Gives the paths of the iPods to watch.
+     * @param intervalMillis  The time between polls, in milliseconds.
+     * @param listener  Told about the iPods that changed.
+     */
+    public DeviceMonitor(Model model, long intervalMillis, DeviceListener listener) {
+        this.model = model;
+        this.intervalMillis = intervalMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts polling on a daemon thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this, "DeviceMonitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Asks the monitor to stop after the current poll.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Polls the iPods until the monitor is stopped.
+     */
+    public void run() {
+        while (!isStopped()) {
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Error while checking the iPods: " + e);
+            }
+
+            synchronized (this) {
+                if (!stopped) {
+                    try {
+                        wait(intervalMillis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks each iPod once, and tells the listener about those that
+     * changed.
+     */
+    void poll() {
+        String[] iTunesPaths = model.getItunesPaths();
+        List changed = new ArrayList();
+
+        for (int i = 0; i < iTunesPaths.length; i++) {
+            String iTunesPath = iTunesPaths[i];
+            String fingerprint = null;
+
+            if (new File(iTunesPath, ITUNES_DB).exists()) {
+                fingerprint = ModelImpl.fingerprint(iTunesPath);
+            }
+
+            String polled = (String) polledFingerprints.put(iTunesPath, fingerprint);
+
+            if (fingerprint == null) {
+                /* Undocked.  The iPod is reported again when it returns. */
+                if (polled != null) {
+                    History.release(iTunesPath);
+                }
+
+                reportedFingerprints.remove(iTunesPath);
+            } else if ((firstPoll || fingerprint.equals(polled))
+                    && !fingerprint.equals(reportedFingerprints.get(iTunesPath))) {
+                /* The iPod may not be the one that was last docked here, so
+                 * its history is read again before it is parsed. */
+                History.release(iTunesPath);
+                reportedFingerprints.put(iTunesPath, fingerprint);
+                changed.add(iTunesPath);
+            }
+        }
+
+        firstPoll = false;
+
+        if (!changed.isEmpty()) {
+            logger.log(Level.INFO, "iPod changed: " + changed);
+            listener.devicesChanged((String[]) changed.toArray(new String[changed.size()]));
+        }
+    }
+
+    /**
+     * Returns <code>true</code> once the monitor has been asked to stop.
+     * @return  <code>true</code> if the monitor is stopped.
+     */
+    private synchronized boolean isStopped() {
+        return stopped;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.util.List;
+
+/**
+ * Parses the recently played tracks of one iPod for a
+ * <code>DeviceIngest</code>.
+ * @author Chris Tilden
+ */
+public interface DeviceParser {
+    /**
+     * Parses the recently played tracks of an iPod.  This is called from
+     * the ingest's worker threads, so several iPods may be parsed at the
+     * same time.
+     * @param iTunesPath  The path to the iPod's iTunes DB.
+     * @return  The recently played <code>TrackItem</code>s, ordered by the
+     * time they were played.
+     * @throws Exception  Thrown if the iPod could not be parsed.
+     */
+    List parse(String iTunesPath) throws Exception;
+}
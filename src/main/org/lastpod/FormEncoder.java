@@ -0,0 +1,355 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Builds a URL encoded form body straight into a growing byte buffer.  Values
+ * are encoded the way <code>URLEncoder</code> encodes them with UTF-8, in a
+ * single pass over their characters, and dates are formatted without a
+ * <code>SimpleDateFormat</code>.  An encoder is reset and reused for each
+ * body, so encoding a track does not allocate.  An encoder is not thread
+ * safe.
+ * @author Chris Tilden
+ */
+public class FormEncoder {
+    /**
+     * The hexadecimal digits used to escape bytes.
+     */
+    private static final byte[] HEX_DIGITS =
+        { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+    /**
+     * The number of seconds in a day.
+     */
+    private static final long SECONDS_PER_DAY = 86400;
+
+    /**
+     * The encoded body.
+     */
+    private byte[] buffer;
+
+    /**
+     * The number of bytes in the body.
+     */
+    private int length = 0;
+
+    /**
+     * The day of the last formatted date, counted from the epoch.
+     */
+    private long cachedDay = Long.MIN_VALUE;
+
+    /**
+     * The encoded date part ("yyyy-MM-dd+") of the last formatted date.
+     */
+    private byte[] cachedDate = new byte[11];
+
+    /**
+     * Constructs an encoder.
+     */
+    public FormEncoder() {
+        this(1024);
+    }
+
+    /**
+     * Constructs an encoder.
+     * @param capacity  The initial size of the buffer.
+     */
+    public FormEncoder(int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    /**
+     * Empties the body, keeping the buffer.
+     */
+    public void reset() {
+        length = 0;
+    }
+
+    /**
+     * Gets the number of bytes in the body.
+     * @return  The length of the body.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Copies the body into a new array.
+     * @return  The body.
+     */
+    public byte[] toByteArray() {
+        byte[] body = new byte[length];
+        System.arraycopy(buffer, 0, body, 0, length);
+
+        return body;
+    }
+
+    /**
+     * Writes the body to a stream.
+     * @param out  The stream to write to.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Returns the body as a string, for logging.
+     * @return  The body.
+     */
+    public String toString() {
+        char[] chars = new char[length];
+
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) buffer[i];
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Appends text that is already encoded, such as a query string.
+     * @param encoded  The encoded text.  Only its low bytes are written.
+     * @return  This encoder.
+     */
+    public FormEncoder appendEncoded(String encoded) {
+        int count = encoded.length();
+        ensureCapacity(count);
+
+        for (int i = 0; i < count; i++) {
+            buffer[length++] = (byte) encoded.charAt(i);
+        }
+
+        return this;
+    }
+
+    /**
+     * Starts an indexed parameter, such as <code>&amp;a[0]=</code>.
+     * @param name  The name of the parameter.
+     * @param index  The index of the parameter.
+     * @return  This encoder.
+     */
+    public FormEncoder startParameter(char name, int index) {
+        ensureCapacity(16);
+        buffer[length++] = '&';
+        buffer[length++] = (byte) name;
+        buffer[length++] = '[';
+        appendLong(index);
+        buffer[length++] = ']';
+        buffer[length++] = '=';
+
+        return this;
+    }
+
+    /**
+     * Appends a number.
+     * @param value  The number.
+     * @return  This encoder.
+     */
+    public FormEncoder appendLong(long value) {
+        ensureCapacity(20);
+
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return appendEncoded(Long.toString(value));
+            }
+
+            buffer[length++] = '-';
+            value = -value;
+        }
+
+        int start = length;
+
+        do {
+            buffer[length++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        /* The digits were written backwards. */
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends a value, encoded as UTF-8 the way <code>URLEncoder</code> does.
+     * Letters, digits and <code>.-*_</code> are kept, spaces become
+     * <code>+</code> and every other byte is escaped.  An unpaired surrogate
+     * is encoded as <code>?</code>.
+     * @param value  The value to encode.
+     * @return  This encoder.
+     */
+    public FormEncoder appendValue(String value) {
+        int count = value.length();
+
+        for (int i = 0; i < count; i++) {
+            char c = value.charAt(i);
+
+            if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+                    || ((c >= '0') && (c <= '9')) || (c == '.') || (c == '-') || (c == '*')
+                    || (c == '_')) {
+                ensureCapacity(1);
+                buffer[length++] = (byte) c;
+            } else if (c == ' ') {
+                ensureCapacity(1);
+                buffer[length++] = '+';
+            } else if (c < 0x80) {
+                escape(c);
+            } else if (c < 0x800) {
+                escape(0xC0 | (c >> 6));
+                escape(0x80 | (c & 0x3F));
+            } else if ((c >= 0xD800) && (c <= 0xDFFF)) {
+                char low = ((i + 1) < count) ? value.charAt(i + 1) : 0;
+
+                if ((c <= 0xDBFF) && (low >= 0xDC00) && (low <= 0xDFFF)) {
+                    int codePoint = 0x10000 + ((c - 0xD800) << 10) + (low - 0xDC00);
+                    escape(0xF0 | (codePoint >> 18));
+                    escape(0x80 | ((codePoint >> 12) & 0x3F));
+                    escape(0x80 | ((codePoint >> 6) & 0x3F));
+                    escape(0x80 | (codePoint & 0x3F));
+                    i++;
+                } else {
+                    escape('?');
+                }
+            } else {
+                escape(0xE0 | (c >> 12));
+                escape(0x80 | ((c >> 6) & 0x3F));
+                escape(0x80 | (c & 0x3F));
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Appends a UTC date as an encoded "yyyy-MM-dd HH:mm:ss".  The date part
+     * is cached, since the tracks of a submission were mostly played on the
+     * same few days.
+     * @param seconds  The date, in seconds since the epoch.
+     * @return  This encoder.
+     */
+    public FormEncoder appendDate(long seconds) {
+        long day = floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) (seconds - (day * SECONDS_PER_DAY));
+
+        if (day != cachedDay) {
+            formatDay(day);
+            cachedDay = day;
+        }
+
+        ensureCapacity(cachedDate.length + 14);
+        System.arraycopy(cachedDate, 0, buffer, length, cachedDate.length);
+        length += cachedDate.length;
+
+        appendTwoDigits(secondOfDay / 3600);
+        escape(':');
+        appendTwoDigits((secondOfDay / 60) % 60);
+        escape(':');
+        appendTwoDigits(secondOfDay % 60);
+
+        return this;
+    }
+
+    /**
+     * Formats the date part of a day into <code>cachedDate</code>.  The
+     * civil date is computed from the day number with the proleptic
+     * Gregorian calendar.
+     * @param day  The day, counted from the epoch.
+     */
+    private void formatDay(long day) {
+        long z = day + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - (era * 146097);
+        long yearOfEra =
+            (dayOfEra - (dayOfEra / 1460) + (dayOfEra / 36524) - (dayOfEra / 146096)) / 365;
+        long dayOfYear = dayOfEra - ((365 * yearOfEra) + (yearOfEra / 4) - (yearOfEra / 100));
+        long monthIndex = ((5 * dayOfYear) + 2) / 153;
+        int dayOfMonth = (int) (dayOfYear - (((153 * monthIndex) + 2) / 5) + 1);
+        int month = (int) ((monthIndex < 10) ? (monthIndex + 3) : (monthIndex - 9));
+        int year = (int) ((yearOfEra + (era * 400)) + ((month <= 2) ? 1 : 0));
+
+        int savedLength = length;
+        byte[] savedBuffer = buffer;
+        buffer = cachedDate;
+        length = 0;
+
+        appendTwoDigits(year / 100);
+        appendTwoDigits(year % 100);
+        buffer[length++] = '-';
+        appendTwoDigits(month);
+        buffer[length++] = '-';
+        appendTwoDigits(dayOfMonth);
+        buffer[length++] = '+';
+
+        buffer = savedBuffer;
+        length = savedLength;
+    }
+
+    /**
+     * Appends a number from 0 to 99 as two digits.
+     * @param value  The number.
+     */
+    private void appendTwoDigits(int value) {
+        ensureCapacity(2);
+        buffer[length++] = (byte) ('0' + (value / 10));
+        buffer[length++] = (byte) ('0' + (value % 10));
+    }
+
+    /**
+     * Appends an escaped byte, such as <code>%3A</code>.
+     * @param b  The byte to escape.
+     */
+    private void escape(int b) {
+        ensureCapacity(3);
+        buffer[length++] = '%';
+        buffer[length++] = HEX_DIGITS[(b >> 4) & 0x0F];
+        buffer[length++] = HEX_DIGITS[b & 0x0F];
+    }
+
+    /**
+     * Makes sure the buffer has room for more bytes, growing it if required.
+     * @param extra  The number of bytes that will be appended.
+     */
+    private void ensureCapacity(int extra) {
+        if ((length + extra) > buffer.length) {
+            byte[] newBuffer = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Divides, rounding towards negative infinity.
+     * @param dividend  The dividend.
+     * @param divisor  The divisor, which must be positive.
+     * @return  The quotient.
+     */
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+
+        return ((dividend % divisor) < 0) ? (quotient - 1) : quotient;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.prefs.Preferences;
+
+import javax.security.auth.login.FailedLoginException;
+
+/**
+ * Runs LastPod from the command line, without Swing.  The play counts are
+ * parsed, the tracks that are not in the history are kept, and those are
+ * submitted to Last.fm or written to the submission cache, using the same
+ * preferences as the GUI.  The exit status tells a script what happened.
+ * @author Chris Tilden
+ */
+public class HeadlessLastPod {
+    /**
+     * The tracks were submitted, or there were none to submit.
+     */
+    public static final int EXIT_SUCCESS = 0;
+
+    /**
+     * The play counts could not be parsed, or the submission failed.
+     */
+    public static final int EXIT_FAILURE = 1;
+
+    /**
+     * The command line was not understood.
+     */
+    public static final int EXIT_USAGE = 2;
+
+    /**
+     * The preferences have not been set up.
+     */
+    public static final int EXIT_NO_PREFERENCES = 3;
+
+    /**
+     * Last.fm rejected the user name or password.
+     */
+    public static final int EXIT_LOGIN_FAILED = 4;
+
+    /**
+     * Last.fm could not be reached, or a file could not be read or written.
+     */
+    public static final int EXIT_IO_ERROR = 5;
+
+    /**
+     * The command line help.
+     */
+    private static final String USAGE =
+        "Usage: java -cp lastPod.jar org.lastpod.HeadlessLastPod [options]\n"
+        + "  -i, --itunes PATH   an iPod's iTunes folder, instead of the preferences;\n"
+        + "                      repeat it to read several iPods at once\n"
+        + "  -o, --offline       write the tracks to the submission cache\n"
+        + "  -c, --drain-cache   submit the tracks in the submission cache\n"
+        + "  -n, --dry-run       list the tracks that would be submitted\n"
+        + "  -w, --watch         keep running, and submit whenever an iPod is docked\n"
+        + "                      or its play counts change\n"
+        + "      --interval SEC  how often --watch checks the iPods (default 5)\n"
+        + "  -j, --json          report progress as one JSON object per line\n"
+        + "  -q, --quiet         only log warnings and errors\n"
+        + "  -h, --help          show this help";
+
+    /**
+     * Runs LastPod from the command line and exits with its status.
+     * @param args  The command line arguments.
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs LastPod from the command line.
+     * @param args  The command line arguments.
+     * @param out  The stream the progress is written to.
+     * @param err  The stream usage errors are written to.
+     * @return  The exit status.
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        String iTunesPath = null;
+        boolean offline = false;
+        boolean drainCache = false;
+        boolean dryRun = false;
+        boolean json = false;
+        boolean quiet = false;
+        boolean watch = false;
+        int watchSeconds = 5;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+
+            if ((arg.equals("-i") || arg.equals("--itunes")) && ((i + 1) < args.length)) {
+                String path = args[++i];
+                iTunesPath = (iTunesPath == null) ? path : (iTunesPath + File.pathSeparator + path);
+            } else if (arg.equals("-o") || arg.equals("--offline")) {
+                offline = true;
+            } else if (arg.equals("-c") || arg.equals("--drain-cache")) {
+                drainCache = true;
+            } else if (arg.equals("-n") || arg.equals("--dry-run")) {
+                dryRun = true;
+            } else if (arg.equals("-j") || arg.equals("--json")) {
+                json = true;
+            } else if (arg.equals("-q") || arg.equals("--quiet")) {
+                quiet = true;
+            } else if (arg.equals("-w") || arg.equals("--watch")) {
+                watch = true;
+            } else if (arg.equals("--interval") && ((i + 1) < args.length)) {
+                try {
+                    watchSeconds = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    watchSeconds = 0;
+                }
+
+                if (watchSeconds <= 0) {
+                    err.println("Invalid interval: " + args[i]);
+
+                    return EXIT_USAGE;
+                }
+            } else if (arg.equals("-h") || arg.equals("--help")) {
+                out.println(USAGE);
+
+                return EXIT_SUCCESS;
+            } else {
+                err.println("Unknown option: " + arg);
+                err.println(USAGE);
+
+                return EXIT_USAGE;
+            }
+        }
+
+        if (drainCache && (offline || watch)) {
+            err.println("--drain-cache can not be used with --offline or --watch");
+
+            return EXIT_USAGE;
+        }
+
+        System.setProperty("java.awt.headless", "true");
+
+        if (quiet) {
+            Logger.getLogger(LastPod.class.getPackage().getName()).setLevel(Level.WARNING);
+        }
+
+        ConsoleView view = new ConsoleView(out, json);
+        ModelImpl model = new ModelImpl();
+        model.setItunesPath(iTunesPath);
+
+        if (drainCache) {
+            return submitted(model.submitCachedTracks(view), view);
+        }
+
+        Preferences fPrefs = Preferences.userRoot().node("ws/afterglo/audioPod");
+
+        if ((iTunesPath == null) && fPrefs.get("iTunes Path", "default").equals("default")) {
+            view.showMessage(LastPod.NO_PREFS_ERROR);
+
+            return EXIT_NO_PREFERENCES;
+        }
+
+        if (watch) {
+            watch(model, out, json, offline, dryRun, watchSeconds * 1000L);
+
+            return EXIT_SUCCESS;
+        }
+
+        return submitPlays(model, view, offline, dryRun);
+    }
+
+    /**
+     * Runs until the process is stopped, submitting the plays whenever an
+     * iPod is docked or its play counts change.
+     * @param model  The application's model.
+     * @param out  The stream the progress is written to.
+     * @param json  <code>true</code> to write JSON objects instead of text.
+     * @param offline  <code>true</code> to write the tracks to the
+     * submission cache.
+     * @param dryRun  <code>true</code> to only list the tracks.
+     * @param intervalMillis  The time between checks of the iPods.
+     */
+    private static void watch(final ModelImpl model, final PrintStream out, final boolean json,
+        final boolean offline, final boolean dryRun, long intervalMillis) {
+        final Logger logger = Logger.getLogger(LastPod.class.getPackage().getName());
+
+        DeviceMonitor monitor =
+            new DeviceMonitor(model, intervalMillis,
+                new DeviceListener() {
+                    public void devicesChanged(String[] iTunesPaths) {
+                        int status =
+                            submitPlays(model, new ConsoleView(out, json), offline, dryRun);
+
+                        if (status != EXIT_SUCCESS) {
+                            logger.log(Level.WARNING, "Submission ended with status " + status);
+                        }
+                    }
+                });
+
+        monitor.run();
+    }
+
+    /**
+     * Parses the play counts and submits the tracks that are not in the
+     * history.
+     * @param model  The application's model.
+     * @param view  The view the progress is reported to.
+     * @param offline  <code>true</code> to write the tracks to the
+     * submission cache.
+     * @param dryRun  <code>true</code> to only list the tracks.
+     * @return  The exit status.
+     */
+    private static int submitPlays(ModelImpl model, ConsoleView view, boolean offline,
+        boolean dryRun) {
+        model.setRecentlyPlayed(new ArrayList());
+        model.parsePlayCounts(view);
+
+        List trackList = view.getTrackList();
+
+        if (trackList == null) {
+            view.showError(new RuntimeException("The play counts could not be parsed"));
+
+            return EXIT_FAILURE;
+        }
+
+        int active = 0;
+
+        for (int i = 0; i < trackList.size(); i++) {
+            TrackItem track = (TrackItem) trackList.get(i);
+
+            if (track.isActive().booleanValue()) {
+                active++;
+
+                if (dryRun) {
+                    view.showTrack(track);
+                }
+            }
+        }
+
+        if (dryRun) {
+            return EXIT_SUCCESS;
+        }
+
+        if (active == 0) {
+            view.showMessage(LastPod.NO_TRACKS_ERROR);
+
+            return EXIT_SUCCESS;
+        }
+
+        return submitted(model.submitTracks(view, !offline), view);
+    }
+
+    /**
+     * Works out the exit status of a submission.
+     * @param status  The status returned by the model.
+     * @param view  The view the submission reported to.
+     * @return  The exit status.
+     */
+    private static int submitted(Object status, ConsoleView view) {
+        if (LastPod.NO_PREFS_ERROR.equals(status)) {
+            view.showMessage(LastPod.NO_PREFS_ERROR);
+
+            return EXIT_NO_PREFERENCES;
+        }
+
+        Exception error = view.getError();
+
+        if (error == null) {
+            return view.isCompleted() ? EXIT_SUCCESS : EXIT_FAILURE;
+        } else if (LastPod.NO_TRACKS_ERROR.equals(error.getMessage())) {
+            return EXIT_SUCCESS;
+        } else if (error instanceof FailedLoginException) {
+            return EXIT_LOGIN_FAILED;
+        } else if (error instanceof IOException) {
+            return EXIT_IO_ERROR;
+        }
+
+        return EXIT_FAILURE;
+    }
+}
@@ -19,19 +19,25 @@
 package org.lastpod;
 
 import org.lastpod.util.IoUtils;
+import org.lastpod.util.LongHashSet;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -39,80 +45,217 @@ import java.util.logging.Logger;
  * that are in LastPod that are also in the history file are unchecked by
  * default.  This prevents users from accidentally submiting tracks twice.
  *
+ * The history is stored in a binary index: a small header, the timestamps in
+ * sorted order, and a journal of timestamps appended since the index was last
+ * sorted.  The sorted part is read into an array with one read and searched
+ * with a binary search, so it does not have to be hashed.  The file is not
+ * kept open, so the iPod can be ejected.  Each call to <code>write</code>
+ * appends the new timestamps and syncs the file once.  The journal is merged into the sorted part when the history is
+ * opened and the journal has grown large.  A text history file from an older
+ * version is migrated to the index the first time it is opened.
+ *
  * @author morgan guerin: morgan_guerin@yahoo.fr
  * @author Chris Tilden
  */
 public class History {
+    /**
+     * The history returned when no iTunes path is given: the first one that
+     * was opened.
+     */
     private static History _instance = null;
+
+    /**
+     * The open histories, keyed by the absolute path of their iTunes
+     * directory.
+     */
+    private static Map instances = new HashMap();
+
+    /**
+     * The text history file used by older versions.
+     */
     private static final String URL = "history.txt";
+
+    /**
+     * The binary history index.
+     */
+    private static final String INDEX = "history.dat";
+
+    /**
+     * The suffix of the file a new index is written to before it replaces
+     * the history index.
+     */
+    private static final String COMPACT_SUFFIX = ".tmp";
+
+    /**
+     * The suffix the text history file is renamed with once it is migrated.
+     */
+    private static final String MIGRATED_SUFFIX = ".bak";
+
+    /**
+     * Identifies a history index ("LPHI").
+     */
+    private static final int MAGIC = 0x4C504849;
+
+    /**
+     * The version of the history index format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The length of the header: the magic number, the version, the number of
+     * sorted timestamps and a reserved field.
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * The length of a timestamp in the index.
+     */
+    private static final int ENTRY_LENGTH = 8;
+
+    /**
+     * The journal is merged into the sorted timestamps when the history is
+     * opened, once it holds more than this many timestamps.
+     */
+    private static final int COMPACTION_MINIMUM = 1000;
+
     private Logger logger = Logger.getLogger(this.getClass().getPackage().getName());
-    private File historyFile = null;
-    private Set histories = null;
-    private Set newHistories = null;
 
     /**
-     * Constructs this object with the history file.
-     * @param historyFile  This file will be used to read and write the history
-     * of tracks that have been submitted to Last.fm.
+     * The binary history index.
+     */
+    private File indexFile = null;
+
+    /**
+     * The text history file used by older versions.
      */
-    private History(File historyFile) {
-        this.historyFile = historyFile;
-        histories = new HashSet();
-        newHistories = new HashSet();
+    private File textFile = null;
+
+    /**
+     * The sorted timestamps, read from the history index.
+     */
+    private long[] sortedHistories = null;
+
+    /**
+     * The timestamps in the journal, and those added since the history was
+     * opened.
+     */
+    private LongHashSet histories = null;
+
+    /**
+     * The histories that have been added since the last write, and are not
+     * in the history index yet.
+     */
+    private long[] pendingHistories = new long[16];
+
+    /**
+     * The number of pending histories.
+     */
+    private int pendingCount = 0;
+
+    /**
+     * Constructs this object with the history directory.
+     * @param historyDirectory  The history of tracks that have been submitted
+     * to Last.fm is read from and written to this directory.
+     */
+    History(File historyDirectory) {
+        this.indexFile = new File(historyDirectory, INDEX);
+        this.textFile = new File(historyDirectory, URL);
+        histories = new LongHashSet();
     }
 
     /**
-     * Singleton that reads the history file and creates this
-     * <code>History</code> object.
+     * Gets the history of an iPod, reading the history file the first time
+     * it is requested.  Each iPod has its own <code>History</code> object.
+     * The history of an iPod that is not mounted is read, but not kept, so it
+     * is read again once the iPod is docked.
      * @param iTunesPath  The path to the iPod's iTunes DB.  LastPod's history
-     * data will be stored there.
-     * @return  This <code>History</code> object with a List of histories.
+     * data will be stored there.  If this is <code>null</code>, the first
+     * history that was opened is returned.
+     * @return  The <code>History</code> object of the iPod.
      */
-    public static History getInstance(String iTunesPath) {
-        if (_instance == null) {
-            if (iTunesPath == null) {
+    public static synchronized History getInstance(String iTunesPath) {
+        if (iTunesPath == null) {
+            if (_instance == null) {
                 throw new RuntimeException("iTunes path was not supplied.");
             }
 
-            if (!iTunesPath.endsWith(File.separator)) {
-                iTunesPath += File.separator;
+            return _instance;
+        }
+
+        File historyDirectory = new File(iTunesPath);
+        String key = historyDirectory.getAbsolutePath();
+        History history = (History) instances.get(key);
+
+        if (history == null) {
+            history = new History(historyDirectory);
+            history.read();
+
+            if (!historyDirectory.isDirectory()) {
+                return history;
+            }
+
+            instances.put(key, history);
+
+            if (_instance == null) {
+                _instance = history;
             }
+        }
 
-            _instance = new History(new File(iTunesPath + URL));
-            _instance.read();
+        return history;
+    }
+
+    /**
+     * Gets the history of an iPod if the iPod is mounted.  Unlike
+     * <code>getInstance</code>, this never reads the history of an iPod that
+     * is not there, and never falls back to another iPod's history.
+     * @param iTunesPath  The path to the iPod's iTunes DB, or
+     * <code>null</code>.
+     * @return  The <code>History</code> object of the iPod, or
+     * <code>null</code> if no path is given or the iPod is not mounted.
+     */
+    public static synchronized History getMountedInstance(String iTunesPath) {
+        if ((iTunesPath == null) || !new File(iTunesPath).isDirectory()) {
+            return null;
         }
 
-        return _instance;
+        return getInstance(iTunesPath);
+    }
+
+    /**
+     * Forgets the history of an iPod, so it is read again the next time it is
+     * requested.  This is called when an iPod is undocked or docked, because
+     * another iPod may be mounted at the same path.
+     * @param iTunesPath  The path to the iPod's iTunes DB.
+     */
+    public static synchronized void release(String iTunesPath) {
+        History history = (History) instances.remove(new File(iTunesPath).getAbsolutePath());
+
+        if ((history != null) && (history == _instance)) {
+            _instance = null;
+        }
     }
 
     /**
-     * Reads the history file (persistent storage) and loads it into a
-     * <code>List</code>.
+     * Opens the history index (persistent storage), migrating the text
+     * history file first if there is no index yet.
      */
-    private void read() {
-        FileInputStream in = null;
-        InputStreamReader inputStreamReader = null;
-        BufferedReader reader = null;
+    void read() {
+        recoverCompaction();
 
         try {
-            in = new FileInputStream(historyFile);
+            if (!indexFile.exists()) {
+                if (!textFile.exists()) {
+                    logger.warning("Can't find history file");
 
-            /* Here BufferedReader is added for fast reading. */
-            inputStreamReader = new InputStreamReader(in);
-            reader = new BufferedReader(inputStreamReader);
+                    return;
+                }
 
-            while (reader.ready()) {
-                histories.add(reader.readLine());
+                migrate();
             }
-        } catch (FileNotFoundException e) {
-            logger.warning("Can't find history file");
+
+            open();
         } catch (IOException e) {
             logger.warning("Can't read history file");
-        } finally {
-            /* Dispose of all the resources after using them. */
-            IoUtils.cleanup(reader, null);
-            IoUtils.cleanup(inputStreamReader, null);
-            IoUtils.cleanup(in, null);
         }
     }
 
@@ -122,35 +265,86 @@ public class History {
      * @param historyTime  The time the track was last played.
      */
     public void addhistory(long historyTime) {
-        histories.add(Long.toString(historyTime));
-        newHistories.add(Long.toString(historyTime));
+        if (isInHistory(historyTime)) {
+            return;
+        }
+
+        histories.add(historyTime);
+
+        if (pendingCount == pendingHistories.length) {
+            long[] newPendingHistories = new long[pendingCount * 2];
+            System.arraycopy(pendingHistories, 0, newPendingHistories, 0, pendingCount);
+            pendingHistories = newPendingHistories;
+        }
+
+        pendingHistories[pendingCount++] = historyTime;
     }
 
     /**
-     * Writes the history list to the history file for persistent storage.
+     * Appends the histories added since the last write to the history index,
+     * and syncs it.  If the append fails, the index is cut back to its old
+     * length, so the histories can be appended again by the next write
+     * without leaving a partial or duplicated entry behind.
+     * @return  <code>true</code> if the history file holds every history that
+     * was added.
      */
-    public void write() {
-        FileWriter out = null;
-        BufferedWriter bufferedWriter = null;
+    public boolean write() {
+        if (pendingCount == 0) {
+            return true;
+        }
 
-        try {
-            out = new FileWriter(historyFile);
-            bufferedWriter = new BufferedWriter(out);
+        ByteBuffer entries = ByteBuffer.allocate(pendingCount * ENTRY_LENGTH);
+        entries.asLongBuffer().put(pendingHistories, 0, pendingCount);
 
-            Iterator i = newHistories.iterator();
+        RandomAccessFile file = null;
+        long length = -1;
 
-            while (i.hasNext()) {
-                bufferedWriter.write((String) i.next() + "\n");
+        try {
+            if (!indexFile.exists()) {
+                writeIndex(indexFile, new long[0]);
             }
+
+            file = new RandomAccessFile(indexFile, "rw");
+            length = file.length();
+            file.seek(length);
+            file.write(entries.array());
+            file.getFD().sync();
+            pendingCount = 0;
+
+            return true;
         } catch (IOException e) {
             logger.warning("Error while writting in history file");
+
+            if (length != -1) {
+                try {
+                    file.setLength(length);
+                } catch (IOException truncateError) {
+                    logger.warning("Can't undo the partial write to the history file");
+                }
+            }
+
+            return false;
         } finally {
-            /* Dispose of the resource after using it. */
-            IoUtils.cleanup(null, bufferedWriter);
-            IoUtils.cleanup(null, out);
+            IoUtils.cleanup(file);
         }
     }
 
+    /**
+     * Returns <code>true</code> if the track is in the history file, and not
+     * only waiting to be written to it.
+     * @param historyTime  The time the track was last played.
+     * @return  <code>true</code> if the track is in the history file.
+     */
+    public boolean isRecorded(long historyTime) {
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingHistories[i] == historyTime) {
+                return false;
+            }
+        }
+
+        return isInHistory(historyTime);
+    }
+
     /**
      * Returns <code>true</code> if the track is present in the history list.
      * If it is this means the track has been submitted to Last.fm.
@@ -158,6 +352,223 @@ public class History {
      * @return  <code>true</code> if the track is present in the history list.
      */
     public boolean isInHistory(long historyTime) {
-        return histories.contains(Long.toString(historyTime));
+        if (histories.contains(historyTime)) {
+            return true;
+        }
+
+        return (sortedHistories != null)
+            && (Arrays.binarySearch(sortedHistories, historyTime) >= 0);
+    }
+
+    /**
+     * Reads the sorted timestamps of the history index and its journal.
+     * A journal entry that was only partly written is cut off.  If the
+     * journal is large it is merged into the sorted timestamps first.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void open() throws IOException {
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(indexFile, "rw");
+
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            channel.read(header, 0);
+            header.flip();
+
+            if ((header.remaining() < HEADER_LENGTH) || (header.getInt() != MAGIC)
+                    || (header.getInt() != VERSION)) {
+                throw new IOException("Unrecognised history file " + indexFile);
+            }
+
+            int sortedCount = header.getInt();
+            long sortedEnd = HEADER_LENGTH + ((long) sortedCount * ENTRY_LENGTH);
+            long journalLength = channel.size() - sortedEnd;
+
+            if ((sortedCount < 0) || (journalLength < 0)) {
+                throw new IOException("Truncated history file " + indexFile);
+            }
+
+            if ((journalLength % ENTRY_LENGTH) != 0) {
+                logger.warning("Ignoring incomplete history entry");
+                journalLength -= (journalLength % ENTRY_LENGTH);
+                channel.truncate(sortedEnd + journalLength);
+            }
+
+            int journalCount = (int) (journalLength / ENTRY_LENGTH);
+
+            if (journalCount > COMPACTION_MINIMUM) {
+                long[] historyTimes = new long[sortedCount + journalCount];
+                ByteBuffer entries = ByteBuffer.allocate(historyTimes.length * ENTRY_LENGTH);
+                channel.read(entries, HEADER_LENGTH);
+                entries.flip();
+                entries.asLongBuffer().get(historyTimes);
+                IoUtils.cleanup(file);
+                file = null;
+
+                compact(historyTimes);
+                open();
+
+                return;
+            }
+
+            ByteBuffer journal = ByteBuffer.allocate((int) journalLength);
+            channel.read(journal, sortedEnd);
+            journal.flip();
+
+            while (journal.remaining() >= ENTRY_LENGTH) {
+                histories.add(journal.getLong());
+            }
+
+            if (sortedCount > 0) {
+                ByteBuffer sorted = ByteBuffer.allocate(sortedCount * ENTRY_LENGTH);
+                channel.read(sorted, HEADER_LENGTH);
+                sorted.flip();
+                sortedHistories = new long[sortedCount];
+                sorted.asLongBuffer().get(sortedHistories);
+            }
+        } finally {
+            IoUtils.cleanup(file);
+        }
+    }
+
+    /**
+     * Converts the text history file into a history index, and renames the
+     * text file so this only happens once.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void migrate() throws IOException {
+        LongHashSet textHistories = new LongHashSet();
+        InputStream in = null;
+
+        try {
+            /* Here BufferedInputStream is added for fast reading. */
+            in = new BufferedInputStream(new FileInputStream(textFile));
+
+            long historyTime = 0;
+            int digits = 0;
+            boolean valid = true;
+            int c;
+
+            while ((c = in.read()) != -1) {
+                if ((c == '\n') || (c == '\r')) {
+                    if (!valid) {
+                        logger.warning("Skipping invalid history entry");
+                    } else if (digits > 0) {
+                        textHistories.add(historyTime);
+                    }
+
+                    historyTime = 0;
+                    digits = 0;
+                    valid = true;
+                } else if ((c >= '0') && (c <= '9')) {
+                    historyTime = (historyTime * 10) + (c - '0');
+                    digits++;
+                } else if ((c != ' ') && (c != '\t')) {
+                    valid = false;
+                }
+            }
+
+            if ((digits > 0) || !valid) {
+                logger.warning("Ignoring incomplete history entry");
+            }
+        } finally {
+            IoUtils.cleanup(in, null);
+        }
+
+        compact(textHistories.toArray());
+
+        if (!textFile.renameTo(new File(textFile.getPath() + MIGRATED_SUFFIX))) {
+            logger.warning("Can't rename migrated history file");
+        }
+
+        logger.info("Migrated " + textHistories.size() + " histories to " + indexFile);
+    }
+
+    /**
+     * Replaces the history index with one holding the given timestamps, in
+     * sorted order and without a journal.  The new index is written and
+     * synced before it is renamed over the old one.
+     * @param historyTimes  The timestamps.  The array is sorted in place and
+     * may contain duplicates.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void compact(long[] historyTimes) throws IOException {
+        Arrays.sort(historyTimes);
+
+        int uniqueCount = 0;
+
+        for (int i = 0; i < historyTimes.length; i++) {
+            if ((uniqueCount == 0) || (historyTimes[i] != historyTimes[uniqueCount - 1])) {
+                historyTimes[uniqueCount++] = historyTimes[i];
+            }
+        }
+
+        long[] uniqueTimes = new long[uniqueCount];
+        System.arraycopy(historyTimes, 0, uniqueTimes, 0, uniqueCount);
+
+        File compactFile = new File(indexFile.getPath() + COMPACT_SUFFIX);
+        writeIndex(compactFile, uniqueTimes);
+
+        /* Some platforms cannot rename over an existing file.  If the
+         * application stops after the delete, recoverCompaction finishes the
+         * rename on the next start. */
+        if (!compactFile.renameTo(indexFile)) {
+            indexFile.delete();
+
+            if (!compactFile.renameTo(indexFile)) {
+                throw new IOException("Cannot rename " + compactFile);
+            }
+        }
+    }
+
+    /**
+     * Writes a history index holding the given sorted timestamps, and syncs
+     * it.
+     * @param file  The file to write.
+     * @param sortedTimes  The timestamps, in ascending order.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void writeIndex(File file, long[] sortedTimes) throws IOException {
+        FileOutputStream fileOut = null;
+        DataOutputStream out = null;
+
+        try {
+            fileOut = new FileOutputStream(file);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sortedTimes.length);
+            out.writeInt(0);
+
+            for (int i = 0; i < sortedTimes.length; i++) {
+                out.writeLong(sortedTimes[i]);
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            IoUtils.cleanup(null, out);
+        }
+    }
+
+    /**
+     * Cleans up after a compaction that did not finish.  A compacted index is
+     * only used if the index it was meant to replace is gone, because it is
+     * only complete once the old index may be deleted.
+     */
+    private void recoverCompaction() {
+        File compactFile = new File(indexFile.getPath() + COMPACT_SUFFIX);
+
+        if (!compactFile.exists()) {
+            return;
+        }
+
+        if (indexFile.exists()) {
+            compactFile.delete();
+        } else if (!compactFile.renameTo(indexFile)) {
+            logger.warning("Can't recover history file");
+        }
     }
 }
@@ -0,0 +1,65 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a server answers a request with an HTTP status other than
+ * 200.  A server error (5xx) is usually temporary, so the request may be sent
+ * again; any other status means the request itself was refused.
+ * @author Chris Tilden
+ */
+public class HttpStatusException extends IOException {
+    /**
+     * Required for serializable classes.
+     */
+    public static final long serialVersionUID = 200710180001L;
+
+    /**
+     * The HTTP status code of the response.
+     */
+    private int responseCode;
+
+    /**
+     * Constructs the exception.
+     * @param responseCode  The HTTP status code of the response.
+     */
+    public HttpStatusException(int responseCode) {
+        super("Invalid HTTP return code " + responseCode);
+        this.responseCode = responseCode;
+    }
+
+    /**
+     * Gets the HTTP status code of the response.
+     * @return  The HTTP status code.
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * Returns <code>true</code> if the server failed (5xx), rather than
+     * refusing the request.
+     * @return  <code>true</code> for a server error.
+     */
+    public boolean isServerError() {
+        return (responseCode >= 500) && (responseCode < 600);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import org.lastpod.util.IoUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the HTTP requests of a <code>Scrobbler</code>.  Connections are kept
+ * alive and pooled per host by <code>HttpURLConnection</code>, so the
+ * handshake and every chunk after it reuse the same TCP connection to the
+ * submit host, and to the backup host.  A connection is only returned to the
+ * pool once its response has been read to the end and its stream closed.
+ *
+ * The number of requests and the time spent on them are counted, so the
+ * submission can report them.
+ * @author Chris Tilden
+ */
+public class HttpTransport {
+    /**
+     * The number of idle connections kept per host, unless the
+     * <code>http.maxConnections</code> system property was set.
+     */
+    private static final String MAX_IDLE_CONNECTIONS = "10";
+
+    static {
+        /* Enough idle connections for several chunks in flight to the submit
+         * host.  This must be set before the first connection is made. */
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", MAX_IDLE_CONNECTIONS);
+        }
+    }
+
+    /**
+     * The logger.
+     */
+    private Logger logger = Logger.getLogger(getClass().getPackage().getName());
+
+    /**
+     * The number of requests sent.
+     */
+    private int requestCount = 0;
+
+    /**
+     * The total time spent on requests, in milliseconds.
+     */
+    private long requestMillis = 0;
+
+    /**
+     * Sends a GET request.
+     * @param url  The URL to request.
+     * @return  The reply of the server.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public ProtocolResponse get(URL url) throws IOException {
+        return request(url, "GET", null, null);
+    }
+
+    /**
+     * Sends a form POST request.
+     * @param url  The URL to post to.
+     * @param queryString  The URL encoded form data.
+     * @return  The reply of the server.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public ProtocolResponse post(URL url, String queryString) throws IOException {
+        return post(url, queryString.getBytes("US-ASCII"));
+    }
+
+    /**
+     * Sends a form POST request.
+     * @param url  The URL to post to.
+     * @param body  The URL encoded form data.
+     * @return  The reply of the server.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public ProtocolResponse post(URL url, byte[] body) throws IOException {
+        return request(url, "POST", body, null);
+    }
+
+    /**
+     * Sends the form POST of a <code>PendingRequest</code>.  The request is
+     * given the connection so it can close it if it times out.
+     * @param url  The URL to post to.
+     * @param body  The URL encoded form data.
+     * @param pending  The request being sent.
+     * @return  The reply of the server.
+     * @throws IOException  Thrown if errors occur.
+     */
+    ProtocolResponse post(URL url, byte[] body, PendingRequest pending)
+            throws IOException {
+        return request(url, "POST", body, pending);
+    }
+
+    /**
+     * Gets the number of requests sent.
+     * @return  The number of requests sent.
+     */
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Gets the total time spent on requests.
+     * @return  The total time spent on requests, in milliseconds.
+     */
+    public synchronized long getRequestMillis() {
+        return requestMillis;
+    }
+
+    /**
+     * Sends a request and reads the whole response.
+     * @param url  The URL to request.
+     * @param method  The request method.
+     * @param body  The request body, or <code>null</code> if there is none.
+     * @param pending  The <code>PendingRequest</code> being sent, or
+     * <code>null</code>.
+     * @return  The reply of the server.
+     * @throws HttpStatusException  Thrown if the HTTP status is not 200.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private ProtocolResponse request(URL url, String method, byte[] body,
+        PendingRequest pending) throws IOException {
+        long start = System.currentTimeMillis();
+        HttpURLConnection c = (HttpURLConnection) url.openConnection();
+        c.setRequestMethod(method);
+
+        if (pending != null) {
+            pending.connected(c);
+        }
+
+        c.setDoInput(true);
+        c.setUseCaches(false);
+
+        if (body != null) {
+            c.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            c.setRequestProperty("Content-Length", Integer.toString(body.length));
+            c.setDoOutput(true);
+        }
+
+        c.connect();
+
+        OutputStream out = null;
+
+        try {
+            if (body != null) {
+                out = c.getOutputStream();
+                out.write(body);
+                out.flush();
+            }
+        } finally {
+            IoUtils.cleanup(null, out);
+        }
+
+        int responseCode = c.getResponseCode();
+
+        if (responseCode != 200) {
+            discard(c.getErrorStream());
+            throw new HttpStatusException(responseCode);
+        }
+
+        ProtocolResponse response = readResponse(c.getInputStream());
+
+        if (response.isTruncated()) {
+            logger.log(Level.WARNING, "Ignoring the rest of an oversized reply from " + url.getHost());
+            c.disconnect();
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+
+        synchronized (this) {
+            requestCount++;
+            requestMillis += elapsed;
+        }
+
+        logger.log(Level.FINE, method + " " + url.getHost() + " took " + elapsed + " ms");
+
+        return response;
+    }
+
+    /**
+     * Reads a reply to the end, or as far as <code>ProtocolResponse</code>
+     * allows, and closes it.
+     * @param in  The response stream.
+     * @return  The reply.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private ProtocolResponse readResponse(InputStream in) throws IOException {
+        try {
+            return ProtocolResponse.read(in);
+        } finally {
+            IoUtils.cleanup(in, null);
+        }
+    }
+
+    /**
+     * Reads an error response to the end and closes it, so the connection
+     * can still be reused.
+     * @param in  The error stream, which may be <code>null</code>.
+     */
+    private void discard(InputStream in) {
+        if (in == null) {
+            return;
+        }
+
+        byte[] buffer = new byte[512];
+
+        try {
+            while (in.read(buffer) != -1) {
+                /* Skip the error page. */
+            }
+        } catch (IOException e) {
+            /* The connection will not be reused. */
+        } finally {
+            IoUtils.cleanup(in, null);
+        }
+    }
+}
@@ -18,10 +18,13 @@
  */
 package org.lastpod;
 
+import org.lastpod.util.SwingWorker;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.prefs.Preferences;
 
 /**
  * The LastPod controller.
@@ -35,15 +38,22 @@ public class LastPod {
         + "Please click Preferences below to configure the location of "
         + "your iTunesDB (it's on your iPod's drive) and your AudioScrobbler "
         + "username and password.";
+
+    /**
+     * The message of the error thrown when there are no tracks to submit.
+     */
+    public final static String NO_TRACKS_ERROR = "No tracks to submit";
     private UI userInterface;
     private List recentplayed; //parsed using DbReader class
 
     /**
-     * Loads the recent played information from the iPod and constructs the
-     * GUI to display it.
+     * Constructs the GUI, and loads the recent played information from the
+     * iPod in the background.  Unless it is turned off in the preferences,
+     * the iPods are then watched, and parsed again whenever one is docked or
+     * its play counts change.
      * @param model  The application's model.
      */
-    protected void load(Model model) {
+    protected void load(final Model model) {
         recentplayed = new ArrayList();
 
         model.setRecentlyPlayed(recentplayed);
@@ -54,12 +64,58 @@ public class LastPod {
         logger.setLevel(Level.ALL);
         logger.addHandler(new LogHandler(userInterface));
 
-        model.parsePlayCounts(userInterface);
-
         userInterface.makeVisable();
+
+        Preferences fPrefs = Preferences.userRoot().node("ws/afterglo/audioPod");
+        boolean watchDevices = fPrefs.get("watchDevices", "1").equals("1");
+        final boolean queueOnDock = fPrefs.get("queueOnDock", "0").equals("1");
+        long watchInterval = 5000;
+
+        try {
+            watchInterval = Math.max(1, Integer.parseInt(fPrefs.get("watchIntervalSeconds", "5")))
+                * 1000L;
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "Invalid watchIntervalSeconds preference, using 5");
+        }
+
+        if (!watchDevices) {
+            new SwingWorker() {
+                    public Object construct() {
+                        model.parsePlayCounts(userInterface);
+
+                        return null;
+                    }
+                }.start();
+
+            return;
+        }
+
+        /* The monitor reports the iPods that are already docked on its first
+         * poll, so it also does the first parse. */
+        new DeviceMonitor(model, watchInterval,
+            new DeviceListener() {
+                public void devicesChanged(String[] iTunesPaths) {
+                    model.parsePlayCounts(userInterface);
+
+                    if (queueOnDock) {
+                        model.queueRecentlyPlayed();
+                    }
+                }
+            }).start();
     }
 
+    /**
+     * Starts the GUI, or runs from the command line if there are any
+     * arguments.
+     * @param args  The command line arguments.
+     */
     public static void main(String[] args) {
+        if (args.length > 0) {
+            HeadlessLastPod.main(args);
+
+            return;
+        }
+
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
                 public void run() {
                     /* Use this application model. */
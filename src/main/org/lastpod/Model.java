@@ -35,10 +35,16 @@ public interface Model {
 
     void unselectAll();
 
+    /**
+     * Gets the paths to the iTunes DBs of the iPods that are parsed.
+     * @return  The paths, which may be empty if none are set up.
+     */
+    String[] getItunesPaths();
+
     /**
      * Parses the play counts and track information from the iPod.
      */
-    void parsePlayCounts(UI userInterface);
+    void parsePlayCounts(ModelView userInterface);
 
     /**
      * Submits the tracks to Last.fm
@@ -47,5 +53,20 @@ public interface Model {
      *                  true - online, false - offline (to Last.fm client cache)
      * @return  A status message upon completion.
      */
-    Object submitTracks(UI userInterface, boolean online);
+    Object submitTracks(ModelView userInterface, boolean online);
+
+    /**
+     * Submits the tracks waiting in the Last.fm client's submission cache to
+     * Last.fm, removing them from the cache as they are acknowledged.
+     * @param userInterface  The application's user interface.
+     * @return  A status message upon completion.
+     */
+    Object submitCachedTracks(ModelView userInterface);
+
+    /**
+     * Writes the recently played tracks that are selected to the outbox, so
+     * they are kept even if the iPod is synced before they are submitted.
+     * @return  The number of tracks that were added to the outbox.
+     */
+    int queueRecentlyPlayed();
 }
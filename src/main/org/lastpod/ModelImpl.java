@@ -18,29 +18,92 @@
  */
 package org.lastpod;
 
+import org.lastpod.chunk.AdaptiveBatchingPolicy;
+import org.lastpod.chunk.BatchingPolicy;
+import org.lastpod.chunk.FixedSizeBatchingPolicy;
+import org.lastpod.chunk.RetryPolicy;
+
 import org.lastpod.parser.ItunesDbParser;
 import org.lastpod.parser.ItunesStatsParser;
 import org.lastpod.parser.PlayCountsParser;
+import org.lastpod.parser.PlayListener;
+import org.lastpod.parser.TrackCatalogCache;
 import org.lastpod.parser.TrackItemParser;
 
 import org.lastpod.util.MiscUtilities;
 
+import java.io.File;
+
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
+import java.util.StringTokenizer;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
-import javax.swing.JOptionPane;
-
 public class ModelImpl implements Model {
+    /**
+     * The files in the iTunes directory that the recently played list is
+     * parsed from.
+     */
+    private static final String[] SOURCE_FILES =
+        new String[] { "iTunesDB", "iTunesSD", "Play Counts", "iTunesStats" };
+
+    /**
+     * The number of tracks shown at a time while the play counts are parsed.
+     */
+    private static final int PARSE_BATCH_SIZE = 200;
+
+    /**
+     * The longest time, in milliseconds, that a parsed track waits before it
+     * is shown.
+     */
+    private static final long PARSE_BATCH_DELAY = 100;
+
     private List recentlyPlayed = null;
 
+    /**
+     * The fingerprint of the source files the recently played list was parsed
+     * from, or <code>null</code> if the list must be parsed again.
+     */
+    private String parsedFingerprint = null;
+
+    /**
+     * The path to the iPod's iTunes DB, or <code>null</code> to use the
+     * "iTunes Path" preference.
+     */
+    private String iTunesPath = null;
+
+    /**
+     * The application's preferences.
+     */
+    private Preferences prefs;
+
     /**
      * Default constructor.
      */
     public ModelImpl() {
-        /* Default constructor. */
+        this(Preferences.userRoot().node("ws/afterglo/audioPod"));
+    }
+
+    /**
+     * Constructs the model with the given preferences instead of the
+     * application's.
+     * @param prefs  The preferences.
+     */
+    ModelImpl(Preferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /**
+     * Sets the path to the iPod's iTunes DB, instead of the one in the
+     * preferences.
+     * @param iTunesPath  The path to the iPod's iTunes DB, or
+     * <code>null</code> to use the preferences.
+     */
+    public void setItunesPath(String iTunesPath) {
+        this.iTunesPath = iTunesPath;
+        this.parsedFingerprint = null;
     }
 
     public List getRecentlyPlayed() {
@@ -49,6 +112,7 @@ public class ModelImpl implements Model {
 
     public void setRecentlyPlayed(List recentlyPlayed) {
         this.recentlyPlayed = recentlyPlayed;
+        this.parsedFingerprint = null;
     }
 
     /**
@@ -57,6 +121,7 @@ public class ModelImpl implements Model {
      */
     public void clearRecentlyPlayed() {
         recentlyPlayed = new ArrayList();
+        parsedFingerprint = null;
     }
 
     public void selectAll() {
@@ -77,16 +142,18 @@ public class ModelImpl implements Model {
     /**
      * Parses the play counts and track information from the iPod.
      */
-    public void parsePlayCounts(UI userInterface) {
+    public synchronized void parsePlayCounts(ModelView userInterface) {
         Logger logger = Logger.getLogger(LastPod.class.getPackage().getName());
-        Preferences fPrefs = Preferences.userRoot().node("ws/afterglo/audioPod");
-        String iTunesPath = fPrefs.get("iTunes Path", "default");
+        Preferences fPrefs = prefs;
+        String iTunesPath = getItunesPath(fPrefs);
         String parseVariousArtistsStr = fPrefs.get("parseVariousArtists", "1");
         String parseMultiPlayTracksStr = fPrefs.get("parseMultiPlayTracks", "1");
-        boolean parseVariousArtists = parseVariousArtistsStr.equals("1") ? true : false;
+        final boolean parseVariousArtists = parseVariousArtistsStr.equals("1") ? true : false;
         String variousArtistsString = fPrefs.get("variousArtistsString", "Various Artists");
-        String[] splitVariousArtistStrings = splitVariousArtistsString(variousArtistsString);
-        boolean parseMultiPlayTracks = parseMultiPlayTracksStr.equals("1") ? true : false;
+        final String[] splitVariousArtistStrings = splitVariousArtistsString(variousArtistsString);
+        final boolean parseMultiPlayTracks = parseMultiPlayTracksStr.equals("1") ? true : false;
+        String cacheTrackListStr = fPrefs.get("cacheTrackList", "1");
+        final boolean cacheTrackList = cacheTrackListStr.equals("1") ? true : false;
 
         if (iTunesPath.equals("default")) {
             logger.log(Level.INFO, LastPod.NO_PREFS_ERROR);
@@ -94,6 +161,81 @@ public class ModelImpl implements Model {
             return;
         }
 
+        /* The tracks are shown in batches as they are found, and replaced by
+         * the sorted list once every iPod has been parsed. */
+        final TrackBatcher batcher =
+            new TrackBatcher(userInterface, PARSE_BATCH_SIZE, PARSE_BATCH_DELAY);
+        userInterface.parseStarted();
+
+        /* Several iPods may be given, and each is parsed on its own worker. */
+        DeviceParser deviceParser =
+            new DeviceParser() {
+                public List parse(final String devicePath) {
+                    PlayListener playListener =
+                        new PlayListener() {
+                            public void trackPlayed(TrackItem track) {
+                                track.setItunesPath(devicePath);
+                                batcher.trackPlayed(track);
+                            }
+                        };
+
+                    return parseDevice(devicePath, parseVariousArtists,
+                        splitVariousArtistStrings, parseMultiPlayTracks, cacheTrackList,
+                        playListener);
+                }
+            };
+
+        String[] iTunesPaths = splitItunesPaths(iTunesPath);
+        int ingestThreads =
+            getIntPreference(fPrefs, "ingestThreads", Runtime.getRuntime().availableProcessors());
+
+        parsedFingerprint = fingerprint(iTunesPaths);
+
+        try {
+            recentlyPlayed = new DeviceIngest(deviceParser, ingestThreads).ingest(iTunesPaths);
+            batcher.flush();
+            userInterface.newTrackListAvailable(recentlyPlayed);
+        } catch (Exception e) {
+            parsedFingerprint = null;
+
+            /* Show the tracks that would be submitted, not the partial list. */
+            batcher.flush();
+
+            if (recentlyPlayed != null) {
+                userInterface.newTrackListAvailable(recentlyPlayed);
+            }
+
+            StackTraceElement[] trace = e.getStackTrace();
+
+            for (int i = 0; i < trace.length; i++) {
+                if (trace[i].getClassName().startsWith("org.lastpod")) {
+                    logger.log(Level.SEVERE, trace[i].toString());
+                }
+            }
+
+            logger.log(Level.SEVERE, e.toString());
+        }
+    }
+
+    /**
+     * Parses the play counts and track information from one iPod.  Each
+     * track is tagged with the iPod's path, so it is added to the right
+     * history once it is submitted.
+     * @param iTunesPath  The path to the iPod's iTunes DB.
+     * @param parseVariousArtists  <code>true</code> to parse "Various
+     * Artists" tracks.
+     * @param splitVariousArtistStrings  The "Various Artists" strings.
+     * @param parseMultiPlayTracks  <code>true</code> to submit each play of a
+     * track that was played several times.
+     * @param cacheTrackList  <code>true</code> to cache the track list.
+     * @param playListener  Is told about each track as soon as it is found,
+     * or <code>null</code>.
+     * @return  The recently played tracks, ordered by the time they were
+     * played.
+     */
+    private static List parseDevice(String iTunesPath, boolean parseVariousArtists,
+        String[] splitVariousArtistStrings, boolean parseMultiPlayTracks, boolean cacheTrackList,
+        PlayListener playListener) {
         /* Initialize the history file. */
         History.getInstance(iTunesPath);
 
@@ -102,6 +244,10 @@ public class ModelImpl implements Model {
         ItunesDbParser itunesDbParser =
             new ItunesDbParser(iTunesPath, parseVariousArtists, splitVariousArtistStrings, isShuffle);
 
+        if (cacheTrackList) {
+            itunesDbParser.setCatalogCache(new TrackCatalogCache(iTunesPath));
+        }
+
         TrackItemParser playCountsParser = null;
 
         /* If the iPod is a Shuffle, use the iPod shuffle parser. Otherwise
@@ -113,22 +259,17 @@ public class ModelImpl implements Model {
         }
 
         DbReader reader = new DbReader(itunesDbParser, playCountsParser);
+        reader.setStreaming(!isShuffle && !cacheTrackList);
+        reader.setPlayListener(playListener);
+        reader.parse();
 
-        try {
-            reader.parse();
-            recentlyPlayed = reader.getRecentplays();
-            userInterface.newTrackListAvailable(recentlyPlayed);
-        } catch (Exception e) {
-            StackTraceElement[] trace = e.getStackTrace();
-
-            for (int i = 0; i < trace.length; i++) {
-                if (trace[i].getClassName().startsWith("org.lastpod")) {
-                    logger.log(Level.SEVERE, trace[i].toString());
-                }
-            }
+        List recentPlays = reader.getRecentplays();
 
-            logger.log(Level.SEVERE, e.toString());
+        for (int i = 0; i < recentPlays.size(); i++) {
+            ((TrackItem) recentPlays.get(i)).setItunesPath(iTunesPath);
         }
+
+        return recentPlays;
     }
 
     /**
@@ -138,9 +279,34 @@ public class ModelImpl implements Model {
      *                  true - online, false - offline (to Last.fm client cache)
      * @return  A status message upon completion.
      */
-    public Object submitTracks(UI userInterface, boolean online) {
+    public Object submitTracks(ModelView userInterface, boolean online) {
+        return submit(userInterface, online, false);
+    }
+
+    /**
+     * Submits the tracks waiting in the Last.fm client's submission cache to
+     * Last.fm, removing them from the cache as they are acknowledged.
+     * @param userInterface  The application's user interface.
+     * @return  A status message upon completion.
+     */
+    public Object submitCachedTracks(ModelView userInterface) {
+        return submit(userInterface, true, true);
+    }
+
+    /**
+     * Submits the tracks to Last.fm, or to the Last.fm client's submission
+     * cache.
+     * @param userInterface  The application's user interface.
+     * @param online  <code>true</code> to submit to Last.fm,
+     * <code>false</code> to write to the submission cache.
+     * @param fromCache  <code>true</code> to submit the tracks in the
+     * submission cache instead of the recently played tracks.
+     * @return  A status message upon completion.
+     */
+    private synchronized Object submit(ModelView userInterface, boolean online,
+        boolean fromCache) {
         Logger logger = Logger.getLogger(LastPod.class.getPackage().getName());
-        Preferences fPrefs = Preferences.userRoot().node("ws/afterglo/audioPod");
+        Preferences fPrefs = prefs;
         String username = fPrefs.get("Username", "default");
         String password = fPrefs.get("Password", "default");
         String encryptedPassword = fPrefs.get("encryptedPassword", "default");
@@ -153,7 +319,7 @@ public class ModelImpl implements Model {
             String message =
                 "Your password was stored unencrypted on your system."
                 + " This version of LastPod has encrypted this password for future usage.";
-            JOptionPane.showMessageDialog(userInterface.getFrame(), message);
+            userInterface.showMessage(message);
 
             logger.log(Level.WARNING, message);
         }
@@ -170,14 +336,67 @@ public class ModelImpl implements Model {
 
         String submitCachePath = fPrefs.get("submitCachePath", "");
 
+        String useOutboxStr = fPrefs.get("useOutbox", "1");
+        boolean useOutbox = useOutboxStr.equals("1") ? true : false;
+
+        int maxInFlightChunks = getIntPreference(fPrefs, "maxInFlightChunks", 1);
+        int submitTimeout = getIntPreference(fPrefs, "submitTimeout", 60);
+        int backupTimeout = getIntPreference(fPrefs, "backupTimeout", 10);
+        int batchSize = Math.max(1, getIntPreference(fPrefs, "batchSize", 10));
+        int batchByteBudget = getIntPreference(fPrefs, "batchByteBudget", 0);
+        BatchingPolicy batchingPolicy = new FixedSizeBatchingPolicy(batchSize);
+
+        /* The adaptive policy starts at the fixed chunk size, and may grow up
+         * to the most tracks the protocol accepts in one submission. */
+        if (fPrefs.get("batchingPolicy", "fixed").equals("adaptive")) {
+            int batchTargetMillis = getIntPreference(fPrefs, "batchTargetMillis", 2000);
+            int batchMaxSize = Math.max(batchSize, getIntPreference(fPrefs, "batchMaxSize", 50));
+            batchingPolicy =
+                new AdaptiveBatchingPolicy(batchSize, 1, batchMaxSize, batchTargetMillis);
+        }
+
+        int retryAttempts = Math.max(1, getIntPreference(fPrefs, "retryAttempts", 4));
+        int retryDelayMillis = getIntPreference(fPrefs, "retryDelayMillis", 2000);
+        int retryMaxDelayMillis = getIntPreference(fPrefs, "retryMaxDelayMillis", 60000);
+        int sessionLifetimeMinutes = getIntPreference(fPrefs, "sessionLifetimeMinutes", 60);
+
         try {
             Scrobbler scrobbler =
                 new Scrobbler(username, encryptedPassword, backupUrl, submitCachePath);
 
+            scrobbler.setChunkProgress(userInterface);
+
+            if (sessionLifetimeMinutes > 0) {
+                scrobbler.setSessionStore(new SessionStore(fPrefs),
+                    sessionLifetimeMinutes * 60000L);
+            }
+
+            if (useOutbox && !fromCache) {
+                scrobbler.setOutbox(new Outbox(getOutboxFile(fPrefs)));
+            }
+
+            scrobbler.setMaxInFlightChunks(maxInFlightChunks);
+            scrobbler.setSubmitTimeout(submitTimeout);
+            scrobbler.setBackupTimeout(backupTimeout);
+            scrobbler.setBatchingPolicy(batchingPolicy);
+            scrobbler.setRetryPolicy(new RetryPolicy(retryAttempts, retryDelayMillis,
+                    retryMaxDelayMillis));
+
+            if (batchByteBudget > 0) {
+                scrobbler.setBatchByteBudget(batchByteBudget);
+            }
+
+            if (fromCache) {
+                /* The cached tracks are already in the history.  They are
+                 * read from the cache before the handshake. */
+                scrobbler.submitCachedTracks();
+
+                return "Success";
+            }
+
             List activeRecentPlayed = onlyActiveTrackItems(recentlyPlayed);
             List inactiveRecentPlayed = onlyInactiveTrackItems(recentlyPlayed);
 
-            scrobbler.setChunkProgress(userInterface);
             scrobbler.setTracksToSubmit(activeRecentPlayed);
             scrobbler.addInactiveToHistories(inactiveRecentPlayed);
 
@@ -189,9 +408,7 @@ public class ModelImpl implements Model {
             }
 
             /* Refresh track list. */
-            recentlyPlayed = new ArrayList();
-            parsePlayCounts(userInterface);
-            userInterface.newTrackListAvailable(recentlyPlayed);
+            refreshTrackList(userInterface);
         } catch (Exception e) {
             StackTraceElement[] trace = e.getStackTrace();
 
@@ -202,12 +419,93 @@ public class ModelImpl implements Model {
             }
 
             logger.log(Level.SEVERE, e.toString());
-            JOptionPane.showMessageDialog(null, e.getMessage(), "Error!", JOptionPane.ERROR_MESSAGE);
+            userInterface.showError(e);
         }
 
         return "Success";
     }
 
+    /**
+     * Refreshes the recently played list after a submission.  If the source
+     * files have not changed since they were parsed, the existing
+     * <code>TrackItem</code>s are kept and only their active flags are
+     * updated from the history.  Otherwise the play counts are parsed again.
+     * @param userInterface  The application's user interface.
+     */
+    private void refreshTrackList(ModelView userInterface) {
+        Preferences fPrefs = prefs;
+        String[] iTunesPaths = splitItunesPaths(getItunesPath(fPrefs));
+
+        if ((recentlyPlayed != null) && (parsedFingerprint != null)
+                && parsedFingerprint.equals(fingerprint(iTunesPaths))) {
+            for (int i = 0; i < recentlyPlayed.size(); i++) {
+                TrackItem trackItem = (TrackItem) recentlyPlayed.get(i);
+                History history = History.getInstance(trackItem.getItunesPath());
+                boolean submitted = history.isInHistory(trackItem.getLastplayed());
+                trackItem.setActive(Boolean.valueOf(!submitted));
+            }
+        } else {
+            recentlyPlayed = new ArrayList();
+            parsePlayCounts(userInterface);
+        }
+
+        userInterface.newTrackListAvailable(recentlyPlayed);
+    }
+
+    /**
+     * Builds a fingerprint of the source files of several iPods.
+     * @param iTunesPaths  The paths to the iPods' iTunes DBs.
+     * @return  The fingerprint of the source files.
+     */
+    static String fingerprint(String[] iTunesPaths) {
+        StringBuffer fingerprint = new StringBuffer();
+
+        for (int i = 0; i < iTunesPaths.length; i++) {
+            fingerprint.append(fingerprint(iTunesPaths[i])).append('|');
+        }
+
+        return fingerprint.toString();
+    }
+
+    /**
+     * Splits the "iTunes Path" preference, which may hold the paths of
+     * several iPods separated by the platform's path separator.
+     * @param iTunesPath  The preference.
+     * @return  The paths of the iPods.
+     */
+    static String[] splitItunesPaths(String iTunesPath) {
+        StringTokenizer paths = new StringTokenizer(iTunesPath, File.pathSeparator);
+        List iTunesPaths = new ArrayList();
+
+        while (paths.hasMoreTokens()) {
+            String path = paths.nextToken().trim();
+
+            if (path.length() > 0) {
+                iTunesPaths.add(path);
+            }
+        }
+
+        return (String[]) iTunesPaths.toArray(new String[iTunesPaths.size()]);
+    }
+
+    /**
+     * Builds a fingerprint of the source files in the iTunes directory from
+     * their sizes and modification times.
+     * @param iTunesPath  The path to the iPod's iTunes DB.
+     * @return  The fingerprint of the source files.
+     */
+    static String fingerprint(String iTunesPath) {
+        StringBuffer fingerprint = new StringBuffer(iTunesPath);
+
+        for (int i = 0; i < SOURCE_FILES.length; i++) {
+            File sourceFile = new File(iTunesPath, SOURCE_FILES[i]);
+            fingerprint.append(';').append(sourceFile.length());
+            fingerprint.append(':').append(sourceFile.lastModified());
+        }
+
+        return fingerprint.toString();
+    }
+
     private List onlyActiveTrackItems(List recentPlayed) {
         return filterTrackItems(recentPlayed, true);
     }
@@ -234,6 +532,78 @@ public class ModelImpl implements Model {
         return filteredRecentPlayed;
     }
 
+    /**
+     * Gets the paths to the iTunes DBs of the iPods that are parsed.
+     * @return  The paths, which may be empty if none are set up.
+     */
+    public String[] getItunesPaths() {
+        Preferences fPrefs = prefs;
+        String path = getItunesPath(fPrefs);
+
+        return path.equals("default") ? new String[0] : splitItunesPaths(path);
+    }
+
+    /**
+     * Writes the recently played tracks that are selected to the outbox, so
+     * they are kept even if the iPod is synced before they are submitted.
+     * Nothing is written if the outbox is turned off.
+     * @return  The number of tracks that were added to the outbox.
+     */
+    public synchronized int queueRecentlyPlayed() {
+        Preferences fPrefs = prefs;
+
+        if (!fPrefs.get("useOutbox", "1").equals("1") || (recentlyPlayed == null)) {
+            return 0;
+        }
+
+        return new Outbox(getOutboxFile(fPrefs)).enqueue(onlyActiveTrackItems(recentlyPlayed));
+    }
+
+    /**
+     * Gets the path to the iPod's iTunes DB.
+     * @param fPrefs  The preferences.
+     * @return  The path, or "default" if it has not been set.
+     */
+    private String getItunesPath(Preferences fPrefs) {
+        return (iTunesPath != null) ? iTunesPath : fPrefs.get("iTunes Path", "default");
+    }
+
+    /**
+     * Gets the outbox file.  It is kept on the computer rather than the iPod,
+     * so pending tracks can be submitted without the iPod.
+     * @param fPrefs  The preferences.
+     * @return  The outbox file.
+     */
+    static File getOutboxFile(Preferences fPrefs) {
+        String defaultDirectory =
+            new File(System.getProperty("user.home"), ".lastpod").getPath();
+        String outboxDirectory = fPrefs.get("outboxDirectory", defaultDirectory);
+
+        return new File(outboxDirectory, Outbox.OUTBOX);
+    }
+
+    /**
+     * Reads a numeric preference.
+     * @param fPrefs  The preferences.
+     * @param key  The preference key.
+     * @param defaultValue  The value used if the preference is missing or is
+     * not a number.
+     * @return  The value of the preference.
+     */
+    private static int getIntPreference(Preferences fPrefs, String key, int defaultValue) {
+        String value = fPrefs.get(key, Integer.toString(defaultValue));
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Logger logger = Logger.getLogger(LastPod.class.getPackage().getName());
+            logger.log(Level.WARNING,
+                "Invalid " + key + " preference \"" + value + "\", using " + defaultValue);
+
+            return defaultValue;
+        }
+    }
+
     /**
      * Splits a ; seperated String of various artist strings.
      * @param variousArtistsString  The String to split
@@ -0,0 +1,64 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.util.List;
+
+/**
+ * The parts of a user interface that the model reports to: the track list,
+ * the progress of a submission and any messages for the user.  The Swing
+ * <code>UI</code> and the command line's <code>ConsoleView</code> both
+ * implement it.
+ * @author Chris Tilden
+ */
+public interface ModelView extends ChunkProgress {
+    /**
+     * Called when a new recently played track list has been parsed.
+     * @param recentlyPlayed  The recently played tracks.
+     */
+    void newTrackListAvailable(List recentlyPlayed);
+
+    /**
+     * Called when the recently played tracks are about to be parsed again.
+     * The tracks already shown are replaced by those passed to
+     * <code>tracksParsed</code>.
+     */
+    void parseStarted();
+
+    /**
+     * Called with a batch of tracks as they are parsed, before the complete
+     * list is passed to <code>newTrackListAvailable</code>.  The tracks are
+     * not in any particular order.
+     * @param tracks  The tracks parsed since the last batch.  The view may
+     * keep the list.
+     */
+    void tracksParsed(List tracks);
+
+    /**
+     * Shows a message to the user.
+     * @param message  The message.
+     */
+    void showMessage(String message);
+
+    /**
+     * Shows an error that stopped a submission.
+     * @param error  The error.
+     */
+    void showError(Exception error);
+}
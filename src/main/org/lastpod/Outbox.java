@@ -0,0 +1,561 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import org.lastpod.util.IoUtils;
+import org.lastpod.util.LongHashSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A write-ahead queue of the tracks that are waiting to be submitted.  The
+ * tracks are written to the outbox before they are submitted, and are
+ * acknowledged as their chunks are committed, so a submission that was
+ * interrupted resumes where it stopped without the iPod being read again.
+ * <p>
+ * The outbox file starts with a header holding the number of acknowledged
+ * tracks, followed by one length prefixed record per track.  The last byte
+ * of a record is set once the track has been submitted.  New tracks are
+ * appended, and the file is emptied once every track is acknowledged.
+ * <p>
+ * A committed chunk is marked as submitted here, then written to its iPod's
+ * history, and only acknowledged once the history file holds it.  If the
+ * history can not be written, for example because the iPod is not docked,
+ * the tracks stay pending but are not submitted again.  The
+ * <code>Scrobbler</code> writes them to the history and acknowledges them
+ * once the iPod is back.
+ * @author Chris Tilden
+ */
+public class Outbox {
+    /**
+     * The name of the outbox file.
+     */
+    public static final String OUTBOX = "outbox.dat";
+
+    /**
+     * Identifies an outbox file ("LPOB").
+     */
+    private static final int MAGIC = 0x4C504F42;
+
+    /**
+     * The version of the outbox file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The length of the header.
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * The location of the acknowledged count in the header.
+     */
+    private static final int ACKNOWLEDGED_OFFSET = 8;
+
+    private Logger logger = Logger.getLogger(this.getClass().getPackage().getName());
+
+    /**
+     * The outbox file.
+     */
+    private File outboxFile;
+
+    /**
+     * The tracks that have not been acknowledged yet, in the order they were
+     * added.
+     */
+    private List pending = new ArrayList();
+
+    /**
+     * The location in the outbox file of the submitted flag of each pending
+     * track, as <code>Long</code>s.  Records written before the flag was
+     * added have none, and their location is -1.
+     */
+    private List flagOffsets = new ArrayList();
+
+    /**
+     * Whether each pending track has been submitted, as <code>Boolean</code>s.
+     */
+    private List submittedFlags = new ArrayList();
+
+    /**
+     * The number of records in the outbox file that have been acknowledged.
+     */
+    private int acknowledged = 0;
+
+    /**
+     * Constructs the outbox and reads the tracks that are still pending.
+     * @param outboxFile  The outbox file.  It is created when tracks are
+     * first added.
+     */
+    public Outbox(File outboxFile) {
+        this.outboxFile = outboxFile;
+
+        try {
+            read();
+        } catch (IOException e) {
+            logger.warning("Can't read outbox file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds tracks to the end of the outbox, and syncs the outbox file.
+     * Tracks that are already pending, by the time they were played, are
+     * skipped.
+     * @param tracks  The <code>TrackItem</code>s to add.
+     * @return  The number of tracks that were added.
+     */
+    public synchronized int enqueue(List tracks) {
+        LongHashSet pendingTimes = new LongHashSet(pending.size());
+
+        for (int i = 0; i < pending.size(); i++) {
+            pendingTimes.add(((TrackItem) pending.get(i)).getLastplayed());
+        }
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        List added = new ArrayList();
+        List addedFlags = new ArrayList();
+        long recordsOffset;
+
+        try {
+            for (int i = 0; i < tracks.size(); i++) {
+                TrackItem track = (TrackItem) tracks.get(i);
+
+                if (pendingTimes.add(track.getLastplayed())) {
+                    writeRecord(records, track);
+                    added.add(copyOf(track));
+                    addedFlags.add(new Long(records.size() - 1));
+                }
+            }
+
+            if (added.isEmpty()) {
+                return 0;
+            }
+
+            recordsOffset = append(records.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Error while writing the outbox: " + e.getMessage());
+        }
+
+        pending.addAll(added);
+
+        for (int i = 0; i < addedFlags.size(); i++) {
+            flagOffsets.add(new Long(recordsOffset + ((Long) addedFlags.get(i)).longValue()));
+            submittedFlags.add(Boolean.FALSE);
+        }
+
+        return added.size();
+    }
+
+    /**
+     * Gets the tracks that have not been acknowledged yet.
+     * @return  A copy of the list of pending <code>TrackItem</code>s.
+     */
+    public synchronized List getPending() {
+        return new ArrayList(pending);
+    }
+
+    /**
+     * Gets the tracks that have not been acknowledged or submitted yet.
+     * @return  A list of the pending <code>TrackItem</code>s that still have
+     * to be submitted.
+     */
+    public synchronized List getUnsubmitted() {
+        return getPending(false);
+    }
+
+    /**
+     * Gets the tracks that have been submitted, but not acknowledged yet.
+     * @return  A list of the submitted pending <code>TrackItem</code>s.
+     */
+    public synchronized List getSubmitted() {
+        return getPending(true);
+    }
+
+    /**
+     * Returns <code>true</code> if a pending track has been submitted.
+     * @param track  The track.
+     * @return  <code>true</code> if the track has been submitted.
+     */
+    public synchronized boolean isSubmitted(TrackItem track) {
+        int index = indexOf(track.getLastplayed());
+
+        return (index != -1) && isSubmitted(index);
+    }
+
+    /**
+     * Marks pending tracks as submitted, so they are not submitted again
+     * even if they can not be acknowledged yet.  The flags are synced before
+     * this returns.
+     * @param tracks  The <code>TrackItem</code>s that were submitted.
+     */
+    public synchronized void markSubmitted(List tracks) {
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(outboxFile, "rw");
+
+            for (int i = 0; i < tracks.size(); i++) {
+                int index = indexOf(((TrackItem) tracks.get(i)).getLastplayed());
+
+                if ((index == -1) || isSubmitted(index)) {
+                    continue;
+                }
+
+                submittedFlags.set(index, Boolean.TRUE);
+
+                long flagOffset = ((Long) flagOffsets.get(index)).longValue();
+
+                if (flagOffset == -1) {
+                    logger.warning("Can't mark an old outbox entry as submitted");
+
+                    continue;
+                }
+
+                file.seek(flagOffset);
+                file.writeBoolean(true);
+            }
+
+            file.getFD().sync();
+        } catch (IOException e) {
+            logger.warning("Error while writing the outbox: " + e.getMessage());
+        } finally {
+            IoUtils.cleanup(file);
+        }
+    }
+
+    /**
+     * Gets the number of tracks that have not been acknowledged yet.
+     * @return  The number of pending tracks.
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Acknowledges the oldest pending tracks, once they have been submitted.
+     * The acknowledged count is synced before this returns.
+     * @param count  The number of tracks to acknowledge.
+     */
+    public synchronized void acknowledge(int count) {
+        if ((count < 0) || (count > pending.size())) {
+            throw new IllegalArgumentException("Can't acknowledge " + count + " of "
+                + pending.size() + " pending tracks");
+        }
+
+        if (count == 0) {
+            return;
+        }
+
+        pending.subList(0, count).clear();
+        flagOffsets.subList(0, count).clear();
+        submittedFlags.subList(0, count).clear();
+        acknowledged += count;
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(outboxFile, "rw");
+
+            FileChannel channel = file.getChannel();
+
+            /* The records are cut off before the count is reset, so an
+             * interruption can not bring acknowledged tracks back.
+             */
+            if (pending.isEmpty()) {
+                channel.truncate(HEADER_LENGTH);
+                acknowledged = 0;
+            }
+
+            ByteBuffer acknowledgedCount = ByteBuffer.allocate(4);
+            acknowledgedCount.putInt(acknowledged);
+            acknowledgedCount.flip();
+            channel.write(acknowledgedCount, ACKNOWLEDGED_OFFSET);
+            channel.force(false);
+        } catch (IOException e) {
+            logger.warning("Error while writing the outbox: " + e.getMessage());
+        } finally {
+            IoUtils.cleanup(file);
+        }
+    }
+
+    /**
+     * Reads the pending tracks from the outbox file.  A record that was only
+     * partly written is cut off.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void read() throws IOException {
+        if (!outboxFile.exists()) {
+            return;
+        }
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(outboxFile, "rw");
+
+            byte[] contents = new byte[(int) file.length()];
+            file.readFully(contents);
+
+            ByteBuffer buffer = ByteBuffer.wrap(contents);
+
+            if ((buffer.remaining() < HEADER_LENGTH) || (buffer.getInt() != MAGIC)
+                    || (buffer.getInt() != VERSION)) {
+                throw new IOException("Unrecognised outbox file " + outboxFile);
+            }
+
+            int acknowledgedCount = buffer.getInt();
+            buffer.position(HEADER_LENGTH);
+
+            int records = 0;
+
+            while (buffer.remaining() >= 4) {
+                int recordStart = buffer.position();
+                int recordLength = buffer.getInt();
+
+                if ((recordLength < 0) || (recordLength > buffer.remaining())) {
+                    buffer.position(recordStart);
+
+                    break;
+                }
+
+                if (records >= acknowledgedCount) {
+                    DataInputStream in =
+                        new DataInputStream(new ByteArrayInputStream(contents, buffer.position(),
+                                recordLength));
+                    TrackItem track = readRecord(in);
+                    long flagOffset = -1;
+                    boolean submitted = false;
+
+                    /* Records written before the submitted flag was added
+                     * end here. */
+                    if (in.available() > 0) {
+                        flagOffset = (buffer.position() + recordLength) - 1;
+                        submitted = in.readBoolean();
+                    }
+
+                    pending.add(track);
+                    flagOffsets.add(new Long(flagOffset));
+                    submittedFlags.add(Boolean.valueOf(submitted));
+                }
+
+                buffer.position(buffer.position() + recordLength);
+                records++;
+            }
+
+            if (buffer.hasRemaining()) {
+                logger.warning("Ignoring incomplete outbox entry");
+                file.getChannel().truncate(buffer.position());
+            }
+
+            acknowledged = Math.min(acknowledgedCount, records);
+        } finally {
+            IoUtils.cleanup(file);
+        }
+    }
+
+    /**
+     * Gets the pending tracks that have, or have not, been submitted.
+     * @param submitted  <code>true</code> to get the submitted tracks.
+     * @return  A list of the pending <code>TrackItem</code>s.
+     */
+    private List getPending(boolean submitted) {
+        List tracks = new ArrayList();
+
+        for (int i = 0; i < pending.size(); i++) {
+            if (isSubmitted(i) == submitted) {
+                tracks.add(pending.get(i));
+            }
+        }
+
+        return tracks;
+    }
+
+    /**
+     * Returns <code>true</code> if the pending track at an index has been
+     * submitted.
+     * @param index  The index of the track.
+     * @return  <code>true</code> if the track has been submitted.
+     */
+    private boolean isSubmitted(int index) {
+        return ((Boolean) submittedFlags.get(index)).booleanValue();
+    }
+
+    /**
+     * Finds a pending track by the time it was played.
+     * @param lastPlayed  The time the track was played.
+     * @return  The index of the track, or -1 if it is not pending.
+     */
+    private int indexOf(long lastPlayed) {
+        for (int i = 0; i < pending.size(); i++) {
+            if (((TrackItem) pending.get(i)).getLastplayed() == lastPlayed) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Appends records to the outbox file, creating it if required, and syncs
+     * it.
+     * @param records  The records to append.
+     * @return  The location of the records in the outbox file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private long append(byte[] records) throws IOException {
+        FileOutputStream out = null;
+
+        try {
+            boolean exists = outboxFile.exists();
+            long recordsOffset = exists ? outboxFile.length() : HEADER_LENGTH;
+
+            if (!exists && (outboxFile.getParentFile() != null)) {
+                outboxFile.getParentFile().mkdirs();
+            }
+
+            out = new FileOutputStream(outboxFile, true);
+
+            if (!exists) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                out.write(header.array());
+            }
+
+            out.write(records);
+            out.getFD().sync();
+
+            return recordsOffset;
+        } finally {
+            IoUtils.cleanup(null, out);
+        }
+    }
+
+    /**
+     * Writes a track as a length prefixed record.
+     * @param records  The stream the record is written to.
+     * @param track  The track to write.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private static void writeRecord(ByteArrayOutputStream records, TrackItem track)
+            throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeLong(track.getTrackid());
+        out.writeLong(track.getLength());
+        out.writeLong(track.getPlaycount());
+        out.writeLong(track.getLastplayed());
+        writeString(out, track.getArtist());
+        writeString(out, track.getAlbum());
+        writeString(out, track.getTrack());
+        writeString(out, track.getLocation());
+        writeString(out, track.getItunesPath());
+        out.writeBoolean(false);
+
+        new DataOutputStream(records).writeInt(record.size());
+        record.writeTo(records);
+    }
+
+    /**
+     * Reads a track from a record, up to its submitted flag.
+     * @param in  The record.
+     * @return  The track.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private static TrackItem readRecord(DataInputStream in)
+            throws IOException {
+        TrackItem track = new TrackItem();
+        track.setTrackid(in.readLong());
+        track.setLength(in.readLong());
+        track.setPlaycount(in.readLong());
+        track.setLastplayed(in.readLong());
+        track.setArtist(readString(in));
+        track.setAlbum(readString(in));
+        track.setTrack(readString(in));
+        track.setLocation(readString(in));
+
+        /* Records written before the iPod's path was kept end here. */
+        if (in.available() > 0) {
+            track.setItunesPath(readString(in));
+        }
+
+        return track;
+    }
+
+    /**
+     * Writes a string that may be <code>null</code>.
+     * @param out  The stream to write to.
+     * @param value  The string to write.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a string written by <code>writeString</code>.
+     * @param in  The stream to read from.
+     * @return  The string, or <code>null</code>.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private static String readString(DataInputStream in)
+            throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Copies a track as it will be submitted, with any "Various Artists"
+     * parsing already applied.
+     * @param track  The track to copy.
+     * @return  The copy.
+     */
+    private static TrackItem copyOf(TrackItem track) {
+        TrackItem copy = new TrackItem();
+        copy.setTrackid(track.getTrackid());
+        copy.setLength(track.getLength());
+        copy.setPlaycount(track.getPlaycount());
+        copy.setLastplayed(track.getLastplayed());
+        copy.setArtist(track.getArtist());
+        copy.setAlbum(track.getAlbum());
+        copy.setTrack(track.getTrack());
+        copy.setLocation(track.getLocation());
+        copy.setItunesPath(track.getItunesPath());
+
+        return copy;
+    }
+}
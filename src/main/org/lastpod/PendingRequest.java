@@ -0,0 +1,210 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * A form POST that runs on its own thread, so it can be waited for with a
+ * timeout, and so several requests can be in progress at once.  A request
+ * that times out is abandoned: its connection is closed, so it can no longer
+ * reach the server and its thread finishes straight away, and its outcome is
+ * ignored.
+ * @author Chris Tilden
+ */
+public class PendingRequest implements Runnable {
+    /**
+     * The transport that sends the request.
+     */
+    private HttpTransport transport;
+
+    /**
+     * The URL to post to.
+     */
+    private URL url;
+
+    /**
+     * The URL encoded form data.
+     */
+    private byte[] body;
+
+    /**
+     * The time the request was started.
+     */
+    private long startTime;
+
+    /**
+     * The connection of the request, once it has been opened.
+     */
+    private HttpURLConnection connection = null;
+
+    /**
+     * <code>true</code> once the request has timed out.
+     */
+    private boolean abandoned = false;
+
+    /**
+     * <code>true</code> once the request has finished.
+     */
+    private boolean done = false;
+
+    /**
+     * The reply of the server.
+     */
+    private ProtocolResponse response;
+
+    /**
+     * The exception the request failed with, if any.
+     */
+    private Exception failure;
+
+    /**
+     * Constructs the request.
+     * @param transport  The transport that sends the request.
+     * @param url  The URL to post to.
+     * @param body  The URL encoded form data.
+     */
+    private PendingRequest(HttpTransport transport, URL url, byte[] body) {
+        this.transport = transport;
+        this.url = url;
+        this.body = body;
+    }
+
+    /**
+     * Starts a form POST on its own thread.
+     * @param transport  The transport that sends the request.
+     * @param url  The URL to post to.
+     * @param queryString  The URL encoded form data.
+     * @return  The request that was started.
+     */
+    public static PendingRequest post(HttpTransport transport, URL url, String queryString) {
+        try {
+            return post(transport, url, queryString.getBytes("US-ASCII"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a form POST on its own thread.
+     * @param transport  The transport that sends the request.
+     * @param url  The URL to post to.
+     * @param body  The URL encoded form data.  The array is not copied, so it
+     * may be shared by several requests but must not be changed.
+     * @return  The request that was started.
+     */
+    public static PendingRequest post(HttpTransport transport, URL url, byte[] body) {
+        PendingRequest request = new PendingRequest(transport, url, body);
+        request.startTime = System.currentTimeMillis();
+
+        Thread thread = new Thread(request, "PendingRequest " + url.getHost());
+        thread.setDaemon(true);
+        thread.start();
+
+        return request;
+    }
+
+    /**
+     * Sends the request.
+     */
+    public void run() {
+        ProtocolResponse result = null;
+        Exception error = null;
+
+        try {
+            result = transport.post(url, body, this);
+        } catch (Exception e) {
+            error = e;
+        }
+
+        synchronized (this) {
+            response = result;
+            failure = error;
+            done = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Called by the transport once the connection is opened.  If the request
+     * has already timed out, the connection is closed straight away.
+     * @param connection  The connection of the request.
+     */
+    synchronized void connected(HttpURLConnection connection) {
+        this.connection = connection;
+
+        if (abandoned) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Waits for the response until the given time after the request was
+     * started.
+     * @param timeoutMillis  The time allowed for the request, counted from
+     * when it was started.
+     * @return  The reply of the server.
+     * @throws IOException  Thrown if the request failed or timed out.
+     */
+    public synchronized ProtocolResponse await(long timeoutMillis)
+            throws IOException {
+        long deadline = startTime + timeoutMillis;
+        long remaining;
+
+        while (!done && ((remaining = deadline - System.currentTimeMillis()) > 0)) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted waiting for " + url.getHost());
+            }
+        }
+
+        if (!done) {
+            /* Closing the connection stops the request from reaching the
+             * server later, when the chunk may already have been sent again.
+             */
+            abandoned = true;
+
+            if (connection != null) {
+                connection.disconnect();
+            }
+
+            throw new InterruptedIOException("Timed out waiting for " + url.getHost());
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+
+        if (failure != null) {
+            throw new RuntimeException(failure.getMessage());
+        }
+
+        return response;
+    }
+}
@@ -147,7 +147,8 @@ public class PreferencesEditor {
         TitledBorder b1 = BorderFactory.createTitledBorder("iPod:");
         p1.setBorder(b1);
         p1.setToolTipText(
-            "<html>Path of the iTunesDB:<br>Located on your iPod, e.g. <b>M</b>:\\iPod_Control\\iTunes,<br>where M is the drive letter of your iPod.");
+            "<html>Path of the iTunesDB:<br>Located on your iPod, e.g. <b>M</b>:\\iPod_Control\\iTunes,<br>where M is the drive letter of your iPod.<br>Several iPods can be given, separated by <b>"
+            + File.pathSeparator + "</b>");
 
         JLabel dblabel = new JLabel("Location of iTunesDB:");
         p1.add(dblabel);
@@ -0,0 +1,241 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A reply from the AudioScrobbler server, read line by line straight from
+ * the response stream.  The protocol's replies are a handful of short ASCII
+ * lines, so only the first few lines are kept, each cut to a maximum length.
+ * Whatever follows is read and thrown away, so the connection can be reused,
+ * up to a limit after which reading stops.  A server sending a large or
+ * garbage body therefore can not make the client hold it in memory.
+ * @author Chris Tilden
+ */
+public class ProtocolResponse {
+    /**
+     * The number of lines kept.
+     */
+    static final int MAX_LINES = 8;
+
+    /**
+     * The number of characters kept of each line.
+     */
+    static final int MAX_LINE_LENGTH = 1024;
+
+    /**
+     * The number of bytes that are read and thrown away after the kept lines
+     * before reading stops.
+     */
+    static final int MAX_DISCARDED_BYTES = 65536;
+
+    /**
+     * The prefix of the line holding the number of seconds to wait.
+     */
+    private static final String INTERVAL = "INTERVAL ";
+
+    /**
+     * The lines of the reply, without their line terminators.
+     */
+    private String[] lines;
+
+    /**
+     * <code>true</code> if the reply was longer than what was read.
+     */
+    private boolean truncated;
+
+    /**
+     * Constructs a reply.
+     * @param lines  The lines of the reply.
+     * @param truncated  <code>true</code> if the reply was longer than what
+     * was read.
+     */
+    ProtocolResponse(String[] lines, boolean truncated) {
+        this.lines = lines;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Reads a reply from a stream.  The stream is not closed.
+     * @param in  The response stream.
+     * @return  The reply.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public static ProtocolResponse read(InputStream in) throws IOException {
+        String[] lines = new String[MAX_LINES];
+        int lineCount = 0;
+        char[] line = new char[MAX_LINE_LENGTH];
+        int lineLength = 0;
+        boolean lineStarted = false;
+        long discarded = 0;
+        byte[] buffer = new byte[512];
+        int count;
+
+        while ((count = in.read(buffer)) != -1) {
+            if (lineCount == MAX_LINES) {
+                discarded += count;
+
+                if (discarded > MAX_DISCARDED_BYTES) {
+                    return new ProtocolResponse(lines, true);
+                }
+
+                continue;
+            }
+
+            for (int i = 0; (i < count) && (lineCount < MAX_LINES); i++) {
+                char c = (char) (buffer[i] & 0xFF);
+
+                if (c == '\n') {
+                    lines[lineCount++] = trimLine(line, lineLength);
+                    lineLength = 0;
+                    lineStarted = false;
+                } else {
+                    lineStarted = true;
+
+                    if (lineLength < MAX_LINE_LENGTH) {
+                        line[lineLength++] = c;
+                    }
+                }
+            }
+        }
+
+        if (lineStarted && (lineCount < MAX_LINES)) {
+            lines[lineCount++] = trimLine(line, lineLength);
+        }
+
+        String[] readLines = new String[lineCount];
+        System.arraycopy(lines, 0, readLines, 0, lineCount);
+
+        return new ProtocolResponse(readLines, false);
+    }
+
+    /**
+     * Gets the status line, the first line of the reply.
+     * @return  The status line, or an empty string if the reply is empty.
+     */
+    public String getStatus() {
+        return (lines.length > 0) ? lines[0] : "";
+    }
+
+    /**
+     * Returns <code>true</code> if the status line starts with the given
+     * keyword, such as <code>OK</code> or <code>FAILED</code>.
+     * @param keyword  The keyword.
+     * @return  <code>true</code> if the reply has the given status.
+     */
+    public boolean hasStatus(String keyword) {
+        return getStatus().startsWith(keyword);
+    }
+
+    /**
+     * Gets the text following the keyword of the status line, such as the
+     * reason of a <code>FAILED</code> reply.
+     * @return  The status message, or an empty string if there is none.
+     */
+    public String getStatusMessage() {
+        String status = getStatus();
+        int space = status.indexOf(' ');
+
+        return (space == -1) ? "" : status.substring(space + 1);
+    }
+
+    /**
+     * Gets a line of the reply.
+     * @param index  The index of the line, the status line being 0.
+     * @return  The line, or <code>null</code> if the reply has no such line.
+     */
+    public String getLine(int index) {
+        return (index < lines.length) ? lines[index] : null;
+    }
+
+    /**
+     * Gets the number of lines that were read.
+     * @return  The number of lines.
+     */
+    public int getLineCount() {
+        return lines.length;
+    }
+
+    /**
+     * Returns <code>true</code> if the reply is empty.
+     * @return  <code>true</code> if the reply has no lines.
+     */
+    public boolean isEmpty() {
+        return lines.length == 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the reply was longer than what was read,
+     * in which case its connection should not be reused.
+     * @return  <code>true</code> if the reply was truncated.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Gets the number of seconds the server asks to wait between
+     * submissions, from its <code>INTERVAL</code> line.
+     * @return  The number of seconds, or <code>-1</code> if the reply has no
+     * valid <code>INTERVAL</code> line.
+     */
+    public int getInterval() {
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].startsWith(INTERVAL)) {
+                try {
+                    return Integer.parseInt(lines[i].substring(INTERVAL.length()).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the lines of the reply, each terminated by a new line.
+     * @return  The reply.
+     */
+    public String toString() {
+        StringBuffer content = new StringBuffer();
+
+        for (int i = 0; i < lines.length; i++) {
+            content.append(lines[i]).append('\n');
+        }
+
+        return content.toString();
+    }
+
+    /**
+     * Makes a line, dropping a trailing carriage return.
+     * @param line  The characters of the line.
+     * @param length  The number of characters.
+     * @return  The line.
+     */
+    private static String trimLine(char[] line, int length) {
+        if ((length > 0) && (line[length - 1] == '\r')) {
+            length--;
+        }
+
+        return new String(line, 0, length);
+    }
+}
@@ -22,6 +22,7 @@ import java.awt.GridLayout;
 
 import java.text.DateFormat;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -68,6 +69,24 @@ public class RecentPanel extends JPanel {
         model.fireTableDataChanged();
     }
 
+    /**
+     * Empties the table, ready for the tracks of a new parse.
+     */
+    public void clear() {
+        model.setRecentlyPlayed(new ArrayList());
+        model.fireTableDataChanged();
+    }
+
+    /**
+     * Adds tracks to the end of the table, as they are parsed.  The table
+     * must have been emptied with <code>clear</code> first, so that the list
+     * given to <code>newTrackListAvailable</code> is not changed.
+     * @param tracks  The tracks to add.
+     */
+    public void addTracks(List tracks) {
+        model.addTracks(tracks);
+    }
+
     private class RecentModel extends AbstractTableModel {
         /**
          * Required for serializable classes.
@@ -81,12 +100,44 @@ public class RecentPanel extends JPanel {
         private String[] columnData =
             new String[] { "#", "Submit", "Artist", "Album", "Track", "Length", "Play Time" };
 
+        /**
+         * The display values of each row that has been painted, indexed by
+         * row and then by column.  A row is <code>null</code> until it is
+         * first painted.  The "Submit" column is not cached, as it is edited.
+         */
+        private Object[][] rowCache = new Object[0][];
+
+        /**
+         * Formats the play times.
+         */
+        private DateFormat dateFormat =
+            DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
+
         /**
          * Sets the list of recenlty played tracks.
          * @param recentlyPlayed  The list of recently played tracks.
          */
         public void setRecentlyPlayed(List recentlyPlayed) {
             this.recentlyPlayed = recentlyPlayed;
+            this.rowCache = new Object[(recentlyPlayed != null) ? recentlyPlayed.size() : 0][];
+        }
+
+        /**
+         * Adds tracks to the end of the list of recently played tracks.
+         * @param tracks  The tracks to add.
+         */
+        public void addTracks(List tracks) {
+            if ((recentlyPlayed == null) || tracks.isEmpty()) {
+                return;
+            }
+
+            int firstRow = recentlyPlayed.size();
+            recentlyPlayed.addAll(tracks);
+
+            Object[][] newRowCache = new Object[recentlyPlayed.size()][];
+            System.arraycopy(rowCache, 0, newRowCache, 0, Math.min(firstRow, rowCache.length));
+            rowCache = newRowCache;
+            fireTableRowsInserted(firstRow, recentlyPlayed.size() - 1);
         }
 
         public int getColumnCount() {
@@ -111,42 +162,52 @@ public class RecentPanel extends JPanel {
         }
 
         public Object getValueAt(int row, int col) {
-            TrackItem track;
-
-            if (recentlyPlayed != null) {
-                track = (TrackItem) recentlyPlayed.get(row);
-            } else {
+            if (recentlyPlayed == null) {
                 return new Object();
             }
 
-            switch (col) {
-            case 0:
-                return new Integer(row + 1);
-
-            case 1:
-                return track.isActive();
-
-            case 2:
-                return track.getArtist();
+            if (col == 1) {
+                return ((TrackItem) recentlyPlayed.get(row)).isActive();
+            }
 
-            case 3:
-                return track.getAlbum();
+            if ((col < 0) || (col >= columnData.length)) {
+                return new Object(); //if not found, return empty object
+            }
 
-            case 4:
-                return track.getTrack();
+            return getRow(row)[col];
+        }
 
-            case 5:
-                return this.convertMS(track.getLength());
+        /**
+         * Gets the display values of a row, formatting them the first time
+         * the row is painted.
+         * @param row  The row.
+         * @return  The display values of the row, indexed by column.
+         */
+        private Object[] getRow(int row) {
+            if (row >= rowCache.length) {
+                /* The list was changed without telling the model. */
+                Object[][] newRowCache = new Object[recentlyPlayed.size()][];
+                System.arraycopy(rowCache, 0, newRowCache, 0, rowCache.length);
+                rowCache = newRowCache;
+            }
 
-            case 6:
+            Object[] values = rowCache[row];
 
+            if (values == null) {
+                TrackItem track = (TrackItem) recentlyPlayed.get(row);
                 Date date = new Date(track.getLastplayed() * 1000);
 
-                return DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM)
-                                 .format(date);
+                values = new Object[columnData.length];
+                values[0] = new Integer(row + 1);
+                values[2] = track.getArtist();
+                values[3] = track.getAlbum();
+                values[4] = track.getTrack();
+                values[5] = this.convertMS(track.getLength());
+                values[6] = dateFormat.format(date);
+                rowCache[row] = values;
             }
 
-            return new Object(); //if not found, return empty object
+            return values;
         }
 
         public void setValueAt(Object value, int row, int col) {
@@ -18,31 +18,23 @@
  */
 package org.lastpod;
 
+import org.lastpod.chunk.BatchingPolicy;
+import org.lastpod.chunk.ByteBudgetBatchingPolicy;
 import org.lastpod.chunk.Chunk;
+import org.lastpod.chunk.ChunkHandler;
+import org.lastpod.chunk.ChunkPipeline;
 import org.lastpod.chunk.ChunkUtil;
+import org.lastpod.chunk.FixedSizeBatchingPolicy;
+import org.lastpod.chunk.ItemSizer;
+import org.lastpod.chunk.RetryPolicy;
+import org.lastpod.chunk.RetryableException;
 
-import org.lastpod.util.IoUtils;
 import org.lastpod.util.MiscUtilities;
-import org.lastpod.util.XmlUtils;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-
-import org.xml.sax.SAXException;
-
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 
-import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
@@ -51,11 +43,8 @@ import java.net.URLEncoder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-import java.text.SimpleDateFormat;
-
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.TimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -63,12 +52,6 @@ import java.util.regex.Pattern;
 
 import javax.security.auth.login.FailedLoginException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-
 /**
  * @author muti
  * @version $Id$
@@ -85,27 +68,81 @@ public class Scrobbler {
     private static final int MIN_TRACK_SECONDS = 30;
 
     /**
-     * Last.fm client cache version.
-     */
-    private static final String CACHE_VERSION = "1.2";
-
-    /**
-     * Last.fm client product name.
+     * Matches the submit URL returned by the handshake.
      */
-    private static final String PRODUCT_NAME = "Audioscrobbler";
+    private static final Pattern SUBMIT_URL_PATTERN = Pattern.compile("http://(.*):(\\d+)(.*)");
     private String username;
     private String encryptedPassword;
     private String backupUrl;
-    private String challenge;
-    private String submitHost;
-    private Integer submitPort;
-    private String submitUrl;
     private String submitCachePath;
 
     /**
-     * Stores the chunks of tracks to be submitted.
+     * The current session, or <code>null</code> before the handshake.
+     */
+    private Session session;
+
+    /**
+     * Keeps the session for later submissions, or <code>null</code> if each
+     * submission handshakes.
+     */
+    private SessionStore sessionStore = null;
+
+    /**
+     * The number of milliseconds a new session may be reused for.
+     */
+    private long sessionLifetime = 0;
+
+    /**
+     * The user name and challenge response part of the submission query
+     * string, for the current session.
+     */
+    private String sessionQueryString;
+
+    /**
+     * Held while the session is renewed, so chunks that are rejected at the
+     * same time only renew it once.
+     */
+    private Object sessionLock = new Object();
+
+    /**
+     * Stores the tracks to be submitted.
      */
-    private List trackChunks;
+    private List tracksToSubmit;
+
+    /**
+     * Decides how many tracks are submitted in each chunk.
+     */
+    private BatchingPolicy batchingPolicy = new FixedSizeBatchingPolicy(MAX_TRACKS_PER_CHUNK);
+
+    /**
+     * The number of tracks whose chunks have been committed.  The progress
+     * is counted in tracks, because the number of chunks depends on the
+     * batching policy.
+     */
+    private int committedTracks = 0;
+
+    /**
+     * The submission cache whose items are being submitted, or
+     * <code>null</code> if the tracks come from the iPod.
+     */
+    private SubmissionCache drainedCache = null;
+
+    /**
+     * The location just after each item of the drained submission cache.
+     */
+    private long[] cachedItemEnds;
+
+    /**
+     * The location in the drained submission cache up to which the items
+     * have been acknowledged.
+     */
+    private long drainedOffset;
+
+    /**
+     * Holds the tracks until they are submitted, or <code>null</code> if the
+     * tracks are submitted straight from the track list.
+     */
+    private Outbox outbox = null;
 
     /**
      * Displays the submission progress as this class updates it.
@@ -117,6 +154,48 @@ public class Scrobbler {
      * asks to do so.
      */
     private int interval = 0;
+
+    /**
+     * The maximum number of chunks that are submitted at the same time.
+     */
+    private int maxInFlightChunks = 1;
+
+    /**
+     * The number of seconds to wait for a response from the submit server.
+     */
+    private int submitTimeout = 60;
+
+    /**
+     * The number of seconds to wait for a response from the backup server,
+     * counted from when the submission to it was started.
+     */
+    private int backupTimeout = 10;
+
+    /**
+     * Decides how often, and after how long, a chunk that failed is
+     * submitted again.
+     */
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+
+    /**
+     * Sends the requests, reusing connections to the same host.
+     */
+    private HttpTransport transport = new HttpTransport();
+
+    /**
+     * The submissions to the backup URL that have not been waited for yet.
+     */
+    private List pendingBackups = new ArrayList();
+
+    /**
+     * The encoder each thread builds its submission bodies with.
+     */
+    private ThreadLocal bodyEncoder =
+        new ThreadLocal() {
+            protected Object initialValue() {
+                return new FormEncoder();
+            }
+        };
     private Logger logger;
 
     public Scrobbler(String username, String encryptedPassword, String backupUrl,
@@ -137,124 +216,408 @@ public class Scrobbler {
         this.chunkProgress = chunkProgress;
     }
 
+    /**
+     * Sets the outbox that the tracks are written to before they are
+     * submitted.  Tracks left in the outbox by a submission that was
+     * interrupted are submitted first.
+     * @param outbox  The outbox.
+     */
+    public void setOutbox(Outbox outbox) {
+        this.outbox = outbox;
+    }
+
+    /**
+     * Sets the store that keeps the session between submissions.  A stored
+     * session is reused until it expires, or until the server rejects it.
+     * @param sessionStore  The session store.
+     * @param sessionLifetime  The number of milliseconds a new session may
+     * be reused for.
+     */
+    public void setSessionStore(SessionStore sessionStore, long sessionLifetime) {
+        this.sessionStore = sessionStore;
+        this.sessionLifetime = sessionLifetime;
+    }
+
+    /**
+     * Sets the maximum number of chunks that are submitted at the same time.
+     * @param maxInFlightChunks  The maximum number of chunks in flight.
+     */
+    public void setMaxInFlightChunks(int maxInFlightChunks) {
+        this.maxInFlightChunks = maxInFlightChunks;
+    }
+
+    /**
+     * Sets the number of seconds to wait for a response from the submit
+     * server.
+     * @param submitTimeout  The number of seconds to wait.
+     */
+    public void setSubmitTimeout(int submitTimeout) {
+        this.submitTimeout = submitTimeout;
+    }
+
+    /**
+     * Sets the number of seconds to wait for a response from the backup
+     * server.  A backup server that does not answer in time is ignored.
+     * @param backupTimeout  The number of seconds to wait.
+     */
+    public void setBackupTimeout(int backupTimeout) {
+        this.backupTimeout = backupTimeout;
+    }
+
+    /**
+     * Sets the policy that decides how often, and after how long, a chunk
+     * that failed is submitted again.  Timeouts, connection errors and
+     * FAILED responses are retried.  A BADAUTH response is retried after a
+     * new handshake.
+     * @param retryPolicy  The retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Gets the number of seconds to pause between submissions.
+     * @return  The number of seconds to pause between submissions.
+     */
+    private synchronized int getInterval() {
+        return interval;
+    }
+
+    /**
+     * Sets the number of seconds to pause between submissions, as asked by
+     * the server.
+     * @param interval  The number of seconds to pause between submissions.
+     */
+    private synchronized void setInterval(int interval) {
+        this.interval = interval;
+    }
+
     /**
      * Sets the tracks that are submitted.
      * @param recentPlayed  A list of tracks to submit.
      */
     public void setTracksToSubmit(final List recentPlayed) {
-        if (recentPlayed.size() == 0) {
-            throw new RuntimeException("No tracks to submit");
+        List tracks = recentPlayed;
+
+        /* The tracks are queued behind any tracks that are still pending in
+         * the outbox, and are submitted from there.  Tracks that were
+         * submitted but could not be written to their history yet are not
+         * submitted again.
+         */
+        if (outbox != null) {
+            outbox.enqueue(recentPlayed);
+            recordHistories(outbox.getSubmitted());
+            acknowledgeSubmitted();
+            tracks = outbox.getUnsubmitted();
         }
 
-        /* Converts the recentPlayed List into a List of Chunk objects.  Each
-         * chunk stores at most 10 tracks.  Each chunk will be submitted to
-         * Last.fm individually, per their guidelines.
+        if (tracks.size() == 0) {
+            throw new RuntimeException(LastPod.NO_TRACKS_ERROR);
+        }
+
+        /* The tracks are split into chunks by the batching policy as they
+         * are submitted.  By default each chunk stores at most 10 tracks.
+         * Each chunk will be submitted to Last.fm individually, per their
+         * guidelines.
          */
-        trackChunks = ChunkUtil.createChunks(recentPlayed, MAX_TRACKS_PER_CHUNK);
+        tracksToSubmit = tracks;
+        committedTracks = 0;
 
         /* Add 1 because the handshake will also be included in the progress. */
-        chunkProgress.setNumberOfChunks(trackChunks.size() + 1);
+        chunkProgress.setNumberOfChunks(tracksToSubmit.size() + 1);
+    }
+
+    /**
+     * Acknowledges the oldest tracks in the outbox once their iPod's history
+     * file holds them.  A chunk's history is written before the chunk is
+     * acknowledged, so a run that stopped between the two leaves its tracks
+     * at the front of the outbox, and they must not be submitted again.  The
+     * check stops at a track whose iPod is not mounted, or whose history
+     * could not be written.  A submitted track that has no iPod path has no
+     * history to wait for, and is acknowledged.
+     */
+    private void acknowledgeSubmitted() {
+        List pending = outbox.getPending();
+        int submitted = 0;
+
+        while (submitted < pending.size()) {
+            TrackItem track = (TrackItem) pending.get(submitted);
+            History history = History.getMountedInstance(track.getItunesPath());
+            boolean recorded;
+
+            if (history != null) {
+                recorded = history.isRecorded(track.getLastplayed());
+            } else {
+                recorded = (track.getItunesPath() == null) && outbox.isSubmitted(track);
+            }
+
+            if (!recorded) {
+                break;
+            }
+
+            submitted++;
+        }
+
+        if (submitted > 0) {
+            logger.log(Level.FINE, "Acknowledging " + submitted + " tracks in the outbox");
+            outbox.acknowledge(submitted);
+        }
+    }
+
+    /**
+     * Writes submitted tracks from the outbox to the histories of their
+     * iPods.  Tracks whose iPod is not mounted are left for a later run.
+     * @param submittedTracks  The submitted tracks.
+     */
+    private void recordHistories(List submittedTracks) {
+        List histories = new ArrayList();
+
+        for (int i = 0; i < submittedTracks.size(); i++) {
+            TrackItem track = (TrackItem) submittedTracks.get(i);
+            History history = History.getMountedInstance(track.getItunesPath());
+
+            if (history == null) {
+                continue;
+            }
+
+            history.addhistory(track.getLastplayed());
+
+            if (!histories.contains(history)) {
+                histories.add(history);
+            }
+        }
+
+        for (int i = 0; i < histories.size(); i++) {
+            if (!((History) histories.get(i)).write()) {
+                logger.log(Level.WARNING,
+                    "Submitted tracks are kept in the outbox until their history can be written");
+            }
+        }
+    }
+
+    /**
+     * Sets the policy that decides how many tracks are submitted in each
+     * chunk.
+     * @param batchingPolicy  The batching policy.
+     */
+    public void setBatchingPolicy(BatchingPolicy batchingPolicy) {
+        this.batchingPolicy = batchingPolicy;
+    }
+
+    /**
+     * Limits each chunk so that its tracks add at most the given number of
+     * bytes to the body of the submission.  This applies on top of the
+     * batching policy.
+     * @param byteBudget  The maximum number of bytes of track data in a
+     * chunk.
+     */
+    public void setBatchByteBudget(int byteBudget) {
+        ItemSizer trackSizer =
+            new ItemSizer() {
+                public int sizeOf(Object item, int position) {
+                    FormEncoder encoder = (FormEncoder) bodyEncoder.get();
+                    encoder.reset();
+                    encodeTrack(encoder, (TrackItem) item, position);
+
+                    return encoder.length();
+                }
+            };
+
+        batchingPolicy = new ByteBudgetBatchingPolicy(batchingPolicy, byteBudget, trackSizer);
+    }
+
+    /**
+     * Records that a chunk was committed, and updates the progress.
+     * @param chunk  The committed chunk.
+     */
+    private void chunkCommitted(Chunk chunk) {
+        committedTracks += chunk.getChunkSize();
+
+        /* Add 1 because the handshake is also part of the progress. */
+        chunkProgress.updateCurrentChunk(committedTracks + 1);
     }
 
     public void handshake()
             throws UnsupportedEncodingException, MalformedURLException, IOException,
                 FailedLoginException {
-        if (trackChunks.size() == 0) {
-            throw new RuntimeException("No tracks to submit");
+        if ((tracksToSubmit == null) || (tracksToSubmit.size() == 0)) {
+            throw new RuntimeException(LastPod.NO_TRACKS_ERROR);
+        }
+
+        Session storedSession = (sessionStore != null) ? sessionStore.load(username) : null;
+
+        if (storedSession != null) {
+            setSession(storedSession);
+
+            /* Displays some progress update, as if the handshake was done. */
+            chunkProgress.updateCurrentChunk(1);
+
+            String statusMessage = "Reusing the previous session";
+            chunkProgress.setSubmitStatusMessage(statusMessage);
+            logger.log(Level.INFO, statusMessage);
+
+            return;
         }
 
         String statusMessage = "Beginning Handshake";
         chunkProgress.setSubmitStatusMessage(statusMessage);
         logger.log(Level.INFO, statusMessage);
 
+        requestSession();
+
+        /* Displays some progress update once the handshake is completed. */
+        chunkProgress.updateCurrentChunk(1);
+
+        statusMessage = "Handshake completed";
+        chunkProgress.setSubmitStatusMessage(statusMessage);
+        logger.log(Level.INFO, statusMessage);
+    }
+
+    /**
+     * Handshakes with the AudioScrobbler server, and stores the challenge
+     * and the submit URL of the new session.  The session is also kept in
+     * the session store, if there is one.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     * @throws MalformedURLException  Thrown if errors occur.
+     * @throws IOException  Thrown if errors occur.
+     * @throws FailedLoginException  Thrown if the user name is invalid.
+     */
+    private void requestSession()
+            throws UnsupportedEncodingException, MalformedURLException, IOException,
+                FailedLoginException {
         String args = "?hs=true&p=1.1&c=apd&v=0.1&u=" + URLEncoder.encode(username, "UTF-8");
         URL url = new URL("http://post.audioscrobbler.com/" + args);
 
-        statusMessage = "Handshaking to URL: " + url.toString();
+        String statusMessage = "Handshaking to URL: " + url.toString();
         chunkProgress.setSubmitStatusMessage(statusMessage);
         logger.log(Level.FINE, statusMessage);
 
-        HttpURLConnection c = (HttpURLConnection) url.openConnection();
-
-        c.setDoInput(true);
-        c.setRequestMethod("GET");
-        c.setUseCaches(false);
-        c.setRequestProperty("Connection", "close");
-        c.connect();
+        ProtocolResponse response = transport.get(url);
 
-        if (c.getResponseCode() != 200) {
-            throw new RuntimeException("Invalid HTTP return code");
-        }
-
-        BufferedReader breader = new BufferedReader(new InputStreamReader(c.getInputStream()));
-
-        String content = null;
-        String buffer = null;
-
-        while ((buffer = breader.readLine()) != null) {
-            if (content != null) {
-                content += (buffer + "\n");
-            } else {
-                content = buffer + "\n";
-            }
-        }
-
-        logger.log(Level.FINE, "Received from server:\n" + content);
+        logger.log(Level.FINE, "Received from server:\n" + response);
 
-        if ((content == null) || (content.length() == 0)) {
+        if (response.isEmpty()) {
             statusMessage = "Invalid response received from AudioScrobbler";
             chunkProgress.setSubmitStatusMessage(statusMessage);
             throw new RuntimeException(statusMessage);
         }
 
-        String[] lines = content.split("\n");
-
-        if ((lines[0].length() >= 6) && lines[0].substring(0, 6).equals("FAILED")) {
-            statusMessage = lines[0].substring(7);
+        if (response.hasStatus("FAILED")) {
+            statusMessage = response.getStatusMessage();
             chunkProgress.setSubmitStatusMessage(statusMessage);
             throw new RuntimeException(statusMessage);
         }
 
-        if ((lines[0].length() >= 7) && lines[0].substring(0, 7).equals("BADUSER")) {
+        if (response.hasStatus("BADUSER")) {
             statusMessage = "Invalid Username";
             chunkProgress.setSubmitStatusMessage(statusMessage);
             throw new FailedLoginException(statusMessage);
         }
 
-        if ((lines[0].length() >= 6) && lines[0].substring(0, 6).equals("UPDATE")) {
-            statusMessage = "Update your client:" + lines[0].substring(7);
+        if (response.hasStatus("UPDATE")) {
+            statusMessage = "Update your client:" + response.getStatusMessage();
             chunkProgress.setSubmitStatusMessage(statusMessage);
             throw new RuntimeException(statusMessage);
         }
 
         /* Sets the interval, if it is present in the response. */
-        if ((lines.length >= 4) && (lines[3].length() >= 10)) {
-            String wait = lines[3].substring(9);
-            interval = Integer.parseInt(wait);
-        }
-
-        Pattern p = Pattern.compile("http://(.*):(\\d+)(.*)");
-        Matcher m = p.matcher(lines[2]);
-
-        if (m.matches()) {
-            submitHost = m.group(1);
-            submitPort = new Integer(m.group(2));
-            submitUrl = m.group(3);
-            logger.log(Level.FINE, "Set submithost to: " + submitHost);
-            logger.log(Level.FINE, "Set submitport to: " + submitPort);
-            logger.log(Level.FINE, "Set submiturl to: " + submitUrl);
-        } else {
+        if (response.getInterval() >= 0) {
+            setInterval(response.getInterval());
+        }
+
+        String challengeLine = response.getLine(1);
+        String submitUrlLine = response.getLine(2);
+
+        if ((challengeLine == null) || (submitUrlLine == null)) {
+            statusMessage = "Invalid response received from AudioScrobbler";
+            chunkProgress.setSubmitStatusMessage(statusMessage);
+            throw new RuntimeException(statusMessage);
+        }
+
+        Matcher m = SUBMIT_URL_PATTERN.matcher(submitUrlLine);
+
+        if (!m.matches()) {
             throw new RuntimeException("Invalid POST URL returned, unable to continue");
         }
 
-        challenge = lines[1];
+        logger.log(Level.FINE, "Set submithost to: " + m.group(1));
+        logger.log(Level.FINE, "Set submitport to: " + m.group(2));
+        logger.log(Level.FINE, "Set submiturl to: " + m.group(3));
 
-        /* Displays some progress update once the handshake is completed. */
-        chunkProgress.updateCurrentChunk(1);
+        Session newSession =
+            new Session(username, challengeLine, submitUrlLine,
+                System.currentTimeMillis() + sessionLifetime);
+        setSession(newSession);
 
-        statusMessage = "Handshake completed";
-        chunkProgress.setSubmitStatusMessage(statusMessage);
-        logger.log(Level.INFO, statusMessage);
+        if (sessionStore != null) {
+            sessionStore.save(newSession);
+        }
+    }
+
+    /**
+     * Makes a session the current session.
+     * @param newSession  The session.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     */
+    private void setSession(Session newSession)
+            throws UnsupportedEncodingException {
+        String queryString = buildSessionQueryString(newSession.getChallenge());
+
+        synchronized (this) {
+            session = newSession;
+            sessionQueryString = queryString;
+        }
+    }
+
+    /**
+     * Handshakes again after the server rejected a session, unless another
+     * chunk already did so.
+     * @param rejectedSession  The session query string that was rejected.
+     * @throws IOException  Thrown if errors occur.
+     * @throws FailedLoginException  Thrown if the user name is invalid.
+     */
+    private void renewSession(String rejectedSession)
+            throws IOException, FailedLoginException {
+        synchronized (sessionLock) {
+            synchronized (this) {
+                if (!rejectedSession.equals(sessionQueryString)) {
+                    return;
+                }
+            }
+
+            logger.log(Level.INFO, "Session was rejected, handshaking again");
+
+            if (sessionStore != null) {
+                sessionStore.clear();
+            }
+
+            requestSession();
+        }
+    }
+
+    /**
+     * Builds the user name and challenge response part of the submission
+     * query string.
+     * @param sessionChallenge  The challenge sent by the server.
+     * @return  The session query string.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     */
+    private String buildSessionQueryString(String sessionChallenge)
+            throws UnsupportedEncodingException {
+        MessageDigest md;
+
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+
+        String md5pass = encryptedPassword + sessionChallenge;
+        String md5chal = MiscUtilities.hexEncode(md.digest(md5pass.getBytes()));
+        String urlEncodedUsername = URLEncoder.encode(username, "UTF-8");
+        String urlEncodedChallange = URLEncoder.encode(md5chal, "UTF-8");
+
+        return "u=" + urlEncodedUsername + "&" + "s=" + urlEncodedChallange;
     }
 
     public void submitTracks()
@@ -264,180 +627,342 @@ public class Scrobbler {
         chunkProgress.setSubmitStatusMessage(statusMessage);
         logger.log(Level.INFO, statusMessage);
 
-        if (trackChunks.size() == 0) {
-            statusMessage = "No tracks to submit";
+        if (tracksToSubmit.size() == 0) {
+            statusMessage = LastPod.NO_TRACKS_ERROR;
             chunkProgress.setSubmitStatusMessage(statusMessage);
             throw new RuntimeException(statusMessage);
         }
 
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        String md5pass = encryptedPassword + challenge;
-        String md5chal = MiscUtilities.hexEncode(md.digest(md5pass.getBytes()));
-        String urlEncodedUsername = URLEncoder.encode(username, "UTF-8");
-        String urlEncodedChallange = URLEncoder.encode(md5chal, "UTF-8");
+        final ChunkPipeline pipeline =
+            new ChunkPipeline(tracksToSubmit, batchingPolicy, maxInFlightChunks);
+        pipeline.setInterval(getInterval());
+        pipeline.setRetryPolicy(retryPolicy);
+
+        ChunkHandler handler =
+            new ChunkHandler() {
+                public void submit(Chunk chunk)
+                        throws Exception {
+                    try {
+                        submitChunk(chunk);
+                    } finally {
+                        /* The server may ask for an interval in a failed
+                         * response too. */
+                        pipeline.setInterval(getInterval());
+                    }
+                }
 
-        Chunk chunk = null;
+                public void commit(Chunk chunk) {
+                    if (drainedCache != null) {
+                        removeFromCache(chunk);
+                        chunkCommitted(chunk);
 
-        for (int i = 0; i < trackChunks.size(); i++) {
-            pauseIfRequired();
+                        return;
+                    }
 
-            chunk = (Chunk) trackChunks.get(i);
+                    /* The chunk is successfully written to last.fm. Makes
+                     * sure the tracks are marked as inactive.  Writes the
+                     * history file.  This is done after each chunk because if
+                     * the next chunk fails the history file should reflect
+                     * where the failure occurred.
+                     */
+                    for (int j = 0; j < chunk.getChunkSize(); j++) {
+                        TrackItem track = (TrackItem) chunk.getContent().get(j);
+                        track.setActive(Boolean.FALSE);
+                    }
 
-            String queryString = "u=" + urlEncodedUsername + "&" + "s=" + urlEncodedChallange;
+                    commitHistories(chunk.getContent());
 
-            int tracknum = 0;
+                    chunkCommitted(chunk);
+                }
+            };
 
-            for (int j = 0; j < chunk.getChunkSize(); j++) {
-                TrackItem track = (TrackItem) chunk.getContent().get(j);
+        try {
+            pipeline.run(handler);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (FailedLoginException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage());
+        } finally {
+            awaitBackups();
+        }
 
-                /* Per Last.fm guidelines; do not submit tracks that are less
-                 * than 30 characters in length.
-                 */
-                if (track.getLength() < MIN_TRACK_SECONDS) {
-                    continue;
-                }
+        chunkProgress.setSubmitStatusMessage("Done. You may now sync your iPod.");
+        logger.log(Level.INFO, "Tracks submitted");
+        logger.log(Level.INFO,
+            transport.getRequestCount() + " requests took " + transport.getRequestMillis()
+            + " ms");
+        logger.log(Level.INFO,
+            "You may now sync your iPod with your music management software "
+            + "or delete 'Play Counts' from the iTunes folder!");
 
-                queryString += buildTrackQueryString(track, tracknum);
+        chunkProgress.setCompletionStatus(true);
+    }
 
-                tracknum++;
-            }
+    /**
+     * Submits the tracks of a chunk to Last.fm, and to the backup URL if one
+     * is specified.  This may be called for several chunks at the same time.
+     * @param chunk  The chunk to submit.
+     * @throws RetryableException  Thrown if the chunk may be submitted again.
+     * @throws IOException  Thrown if errors occur.
+     * @throws FailedLoginException  Thrown if the user name or password is
+     * invalid.
+     */
+    private void submitChunk(Chunk chunk)
+            throws RetryableException, IOException, FailedLoginException {
+        String usedSession;
+        String urlString;
+
+        synchronized (this) {
+            usedSession = sessionQueryString;
+            urlString = session.getSubmitUrl();
+        }
 
-            String content = null;
+        FormEncoder encoder = (FormEncoder) bodyEncoder.get();
+        encoder.reset();
+        encoder.appendEncoded(usedSession);
 
-            /* If a backup URL is specified then two submits will take place.  A
-             * backup URL can be used to send your information to another server.
+        int tracknum = 0;
+
+        for (int j = 0; j < chunk.getChunkSize(); j++) {
+            TrackItem track = (TrackItem) chunk.getContent().get(j);
+
+            /* Per Last.fm guidelines; do not submit tracks that are less
+             * than 30 characters in length.
              */
-            if ((backupUrl != null) && !backupUrl.equals("")) {
-                content = fetchContent(backupUrl, queryString);
-                logger.log(Level.FINE, "Received from server:\n" + content);
+            if (track.getLength() < MIN_TRACK_SECONDS) {
+                continue;
             }
 
-            String urlString = "http://" + submitHost + ":" + submitPort + submitUrl;
-            content = fetchContent(urlString, queryString);
+            encodeTrack(encoder, track, tracknum);
 
-            String[] lines = content.split("\n");
+            tracknum++;
+        }
 
-            /* Sets the interval, if it is present in the response. */
-            if ((lines.length >= 2) && (lines[1].length() >= 10)) {
-                String wait = lines[1].substring(9);
-                interval = Integer.parseInt(wait);
+        /* If a backup URL is specified then two submits will take place.  A
+         * backup URL can be used to send your information to another server.
+         * Both are sent at the same time, and the backups are only waited
+         * for once every chunk is done, so a slow backup server does not
+         * delay the submission.
+         */
+        byte[] body = encoder.toByteArray();
+
+        if ((backupUrl != null) && !backupUrl.equals("")) {
+            logger.log(Level.FINE, "Submitting tracks to URL: " + backupUrl);
+
+            PendingRequest backup = PendingRequest.post(transport, new URL(backupUrl), body);
+
+            synchronized (pendingBackups) {
+                pendingBackups.add(backup);
             }
+        }
 
-            if ((lines[0].length() >= 6) && lines[0].substring(0, 6).equals("FAILED")) {
-                throw new RuntimeException(lines[0].substring(7));
+        ProtocolResponse response;
+
+        try {
+            response = fetchContent(urlString, body);
+        } catch (HttpStatusException e) {
+            /* A server error may go away, a refused request will not. */
+            if (!e.isServerError()) {
+                throw new RuntimeException(e.getMessage());
             }
 
-            if ((lines[0].length() >= 7) && lines[0].substring(0, 7).equals("BADAUTH")) {
-                throw new FailedLoginException("Invalid username/password");
+            throw retryable(chunk, e);
+        } catch (IOException e) {
+            throw retryable(chunk, e);
+        }
+
+        /* Sets the interval, if it is present in the response. */
+        if (response.getInterval() >= 0) {
+            setInterval(response.getInterval());
+        }
+
+        if (response.hasStatus("FAILED")) {
+            throw retryable(chunk, new RuntimeException(response.getStatusMessage()));
+        }
+
+        /* The session may have expired, so the chunk is retried with a new
+         * session.  If the password is wrong the retries fail the same way.
+         */
+        boolean badAuth = response.hasStatus("BADAUTH");
+        boolean badSession = response.hasStatus("BADSESSION");
+
+        if (badAuth || badSession) {
+            try {
+                renewSession(usedSession);
+            } catch (IOException e) {
+                throw retryable(chunk, e);
             }
 
-            if ((lines[0].length() >= 2) && !lines[0].substring(0, 2).equals("OK")) {
-                throw new RuntimeException("Unknown error submitting tracks");
+            if (badSession) {
+                throw retryable(chunk, new RuntimeException("Session was rejected"));
             }
 
-            /* The chunk is successfully written to last.fm. Makes sure the
-             * tracks are marked as inactive.  Writes the history file.
-             * This is done after each chunk because if the next chunk fails
-             * the history file should reflect where the failure occurred.
-             */
-            for (int j = 0; j < chunk.getChunkSize(); j++) {
-                TrackItem track = (TrackItem) chunk.getContent().get(j);
-                track.setActive(Boolean.FALSE);
+            throw retryable(chunk, new FailedLoginException("Invalid username/password"));
+        }
+
+        if (!response.hasStatus("OK")) {
+            throw new RuntimeException("Unknown error submitting tracks");
+        }
+    }
+
+    /**
+     * Submits the tracks waiting in the Last.fm client's submission cache,
+     * such as those written by <code>submitTracksToCache</code>.  The items
+     * are streamed from the cache and submitted like tracks from the iPod,
+     * but are not added to the history, which already has them.  Each item
+     * is removed from the cache once its chunk is acknowledged, so a drain
+     * that fails can be started again where it stopped.  The cache is read
+     * before the handshake, which this method does, so an empty cache never
+     * contacts the server.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     * @throws NoSuchAlgorithmException  Thrown if errors occur.
+     * @throws MalformedURLException  Thrown if errors occur.
+     * @throws IOException  Thrown if errors occur.
+     * @throws FailedLoginException  Thrown if the user name or password is
+     * invalid.
+     */
+    public void submitCachedTracks()
+            throws UnsupportedEncodingException, NoSuchAlgorithmException, MalformedURLException,
+                IOException, FailedLoginException {
+        if (submitCachePath.length() == 0) {
+            throw new RuntimeException("No submission cache is set in the preferences");
+        }
+
+        SubmissionCache cache = new SubmissionCache(new File(submitCachePath));
+
+        if (!cache.getFile().exists()) {
+            throw new RuntimeException(LastPod.NO_TRACKS_ERROR);
+        }
+
+        List cachedTracks = new ArrayList();
+        long[] itemEnds = new long[64];
+        long itemsStart;
+        SubmissionCacheReader reader = new SubmissionCacheReader(cache.getFile());
+
+        try {
+            itemsStart = reader.getOffset();
+
+            TrackItem track;
+
+            while ((track = reader.next()) != null) {
+                if (cachedTracks.size() == itemEnds.length) {
+                    long[] grown = new long[itemEnds.length * 2];
+                    System.arraycopy(itemEnds, 0, grown, 0, itemEnds.length);
+                    itemEnds = grown;
+                }
+
+                itemEnds[cachedTracks.size()] = reader.getOffset();
+                cachedTracks.add(track);
             }
+        } finally {
+            reader.close();
+        }
+
+        if (cachedTracks.size() == 0) {
+            throw new RuntimeException(LastPod.NO_TRACKS_ERROR);
+        }
 
-            addHistories(chunk.getContent());
+        logger.log(Level.INFO, cachedTracks.size() + " tracks in the submission cache");
 
-            /* Add 2 to progress.  1 because chunk progress starts at 1, whereas
-             * this for-loop is zero indexed.  1 because the handshake is also
-             * part of the progress.
+        tracksToSubmit = cachedTracks;
+        committedTracks = 0;
+
+        /* Add 1 because the handshake will also be included in the progress. */
+        chunkProgress.setNumberOfChunks(tracksToSubmit.size() + 1);
+
+        drainedCache = cache;
+        cachedItemEnds = itemEnds;
+        drainedOffset = itemsStart;
+
+        try {
+            handshake();
+            submitTracks();
+        } finally {
+            drainedCache = null;
+
+            /* The acknowledged items were only blanked, so they are cut out
+             * of the cache in one pass now.  A cache that is left blanked is
+             * still valid.
              */
-            chunkProgress.updateCurrentChunk(i + 2);
+            try {
+                cache.compact(itemsStart, drainedOffset);
+            } catch (IOException e) {
+                logger.warning("Error while compacting the submission cache: " + e.getMessage());
+            }
         }
+    }
 
-        chunkProgress.setSubmitStatusMessage("Done. You may now sync your iPod.");
-        logger.log(Level.INFO, "Tracks submitted");
-        logger.log(Level.INFO,
-            "You may now sync your iPod with your music management software "
-            + "or delete 'Play Counts' from the iTunes folder!");
+    /**
+     * Removes the items of a committed chunk from the drained submission
+     * cache.  Chunks are committed in order, so the chunk's items follow
+     * those already removed.
+     * @param chunk  The committed chunk.
+     */
+    private void removeFromCache(Chunk chunk) {
+        long end = cachedItemEnds[(committedTracks + chunk.getChunkSize()) - 1];
 
-        chunkProgress.setCompletionStatus(true);
+        try {
+            drainedCache.remove(drainedOffset, end);
+        } catch (IOException e) {
+            /* Carrying on would submit the chunk again on the next drain. */
+            throw new RuntimeException("Error while removing tracks from the submission cache: "
+                + e.getMessage());
+        }
+
+        drainedOffset = end;
     }
 
-    public void submitTracksToCache()
-            throws UnsupportedEncodingException, NoSuchAlgorithmException, MalformedURLException,
-                IOException, FailedLoginException, ParserConfigurationException, SAXException,
-                TransformerConfigurationException, TransformerException, Exception {
+    /**
+     * Writes the tracks to the Last.fm client's submission cache, instead of
+     * submitting them.  Each chunk is appended to the cache and synced
+     * before it is committed.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void submitTracksToCache() throws IOException {
         String statusMessage = "Submitting tracks to cache...";
         chunkProgress.setSubmitStatusMessage(statusMessage);
         logger.log(Level.INFO, statusMessage);
 
-        if (trackChunks.size() == 0) {
-            statusMessage = "No tracks to submit";
+        if (tracksToSubmit.size() == 0) {
+            statusMessage = LastPod.NO_TRACKS_ERROR;
             chunkProgress.setSubmitStatusMessage(statusMessage);
             throw new RuntimeException(statusMessage);
         }
 
-        File cacheFile = new File(submitCachePath);
-
-        if (cacheFile.createNewFile()) {
-            FileOutputStream fos = new FileOutputStream(cacheFile);
-            String cacheString = "";
-            cacheString += "<?xml version=\"1.0\" encoding=\"utf-8\"?>\r\n";
-            cacheString += ("<submissions version=\"" + CACHE_VERSION + "\" product=\""
-            + PRODUCT_NAME + "\">\r\n");
-            cacheString += "</submissions>";
-            fos.write(cacheString.getBytes());
-            fos.close();
-        }
-
-        DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-        Document doc = docBuilder.parse(cacheFile);
-
-        NodeList submissions = doc.getElementsByTagName("submissions");
-
+        SubmissionCache cache = new SubmissionCache(new File(submitCachePath));
+        List trackChunks = ChunkUtil.createChunks(tracksToSubmit, batchingPolicy);
         Chunk chunk = null;
 
         for (int i = 0; i < trackChunks.size(); i++) {
             pauseIfRequired();
             chunk = (Chunk) trackChunks.get(i);
 
-            int tracknum = 0;
+            List cachedTracks = new ArrayList();
 
             for (int j = 0; j < chunk.getChunkSize(); j++) {
                 TrackItem track = (TrackItem) chunk.getContent().get(j);
 
-                if (track.getLength() < MIN_TRACK_SECONDS) {
-                    continue;
+                if (track.getLength() >= MIN_TRACK_SECONDS) {
+                    cachedTracks.add(track);
                 }
-
-                Element item = doc.createElement("item");
-                XmlUtils.addChild(doc, item, "artist", track.getArtist());
-                XmlUtils.addChild(doc, item, "album", track.getAlbum());
-                XmlUtils.addChild(doc, item, "track", track.getTrack());
-                XmlUtils.addChild(doc, item, "duration", Long.toString(track.getLength()));
-                XmlUtils.addChild(doc, item, "timestamp", Long.toString(track.getLastplayed()));
-                XmlUtils.addChild(doc, item, "playcount", "0");
-                XmlUtils.addChild(doc, item, "source", "1");
-                XmlUtils.addChild(doc, item, "userActionFlags", "8");
-                XmlUtils.addChild(doc, item, "playerId", "foo");
-                submissions.item(0).appendChild(item);
-
-                tracknum++;
             }
 
+            cache.append(cachedTracks);
+
             for (int j = 0; j < chunk.getChunkSize(); j++) {
                 TrackItem track = (TrackItem) chunk.getContent().get(j);
                 track.setActive(Boolean.FALSE);
             }
 
-            addHistories(chunk.getContent());
+            commitHistories(chunk.getContent());
 
-            chunkProgress.updateCurrentChunk(i + 2);
+            chunkCommitted(chunk);
         }
 
-        XmlUtils.xmlToFile(doc, submitCachePath);
-
         chunkProgress.setSubmitStatusMessage("Done. You may now sync your iPod.");
         logger.log(Level.INFO, "Tracks submitted");
         logger.log(Level.INFO,
@@ -455,9 +980,11 @@ public class Scrobbler {
      *
      */
     private void pauseIfRequired() {
-        if (interval != 0) {
+        int pause = getInterval();
+
+        if (pause != 0) {
             try {
-                Thread.sleep(interval * 1000);
+                Thread.sleep(pause * 1000);
             } catch (InterruptedException e) {
                 /* If interrupted it will simply submit early.  Therefore
                  * it will not fail if this occurs.
@@ -467,49 +994,61 @@ public class Scrobbler {
     }
 
     /**
-     * Builds the query string for the given <code>TrackItem</code> and track
-     * number.
-     * @param track  The track to build a query string of.
+     * Appends the parameters of the given <code>TrackItem</code> and track
+     * number to the body of a submission.
+     * @param encoder  The body of the submission.
+     * @param track  The track to encode.
      * @param trackNum  The number of the track in the submission.
-     * @return  The complete query string for the given track.
-     * @throws UnsupportedEncodingException  Thrown if errors occur.
      */
-    private String buildTrackQueryString(TrackItem track, int trackNum)
-            throws UnsupportedEncodingException {
-        StringBuffer trackQueryString = new StringBuffer();
-
-        //TODO: Is all this UTF-8 encoding needed?
-        String artistutf8 = new String(track.getArtist().getBytes("UTF-8"), "UTF-8");
-        String trackutf8 = new String(track.getTrack().getBytes("UTF-8"), "UTF-8");
-        String albumutf8 = new String(track.getAlbum().getBytes("UTF-8"), "UTF-8");
-        String trackString = Long.toString(track.getLength());
-        Date date = new Date(track.getLastplayed() * 1000);
-        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        format.setTimeZone(TimeZone.getTimeZone("GMT:00"));
+    static void encodeTrack(FormEncoder encoder, TrackItem track, int trackNum) {
+        encoder.startParameter('a', trackNum).appendValue(track.getArtist());
+        encoder.startParameter('t', trackNum).appendValue(track.getTrack());
+        encoder.startParameter('b', trackNum).appendValue(track.getAlbum());
+        encoder.startParameter('m', trackNum);
+        encoder.startParameter('l', trackNum).appendLong(track.getLength());
+        encoder.startParameter('i', trackNum).appendDate(track.getLastplayed());
+    }
 
-        String dateString = format.format(date);
+    /**
+     * Records that the tracks of a committed chunk were submitted.  With an
+     * outbox the tracks are marked as submitted there first, and are only
+     * acknowledged once their histories are written.
+     * @param tracks  The tracks of the chunk.
+     */
+    private void commitHistories(List tracks) {
+        if (outbox == null) {
+            addHistories(tracks);
 
-        trackQueryString.append("&a[" + trackNum + "]=" + URLEncoder.encode(artistutf8, "UTF-8"));
-        trackQueryString.append("&t[" + trackNum + "]=" + URLEncoder.encode(trackutf8, "UTF-8"));
-        trackQueryString.append("&b[" + trackNum + "]=" + URLEncoder.encode(albumutf8, "UTF-8"));
-        trackQueryString.append("&m[" + trackNum + "]=");
-        trackQueryString.append("&l[" + trackNum + "]=" + URLEncoder.encode(trackString, "UTF-8"));
-        trackQueryString.append("&i[" + trackNum + "]=" + URLEncoder.encode(dateString, "UTF-8"));
+            return;
+        }
 
-        return trackQueryString.toString();
+        outbox.markSubmitted(tracks);
+        recordHistories(tracks);
+        acknowledgeSubmitted();
     }
 
     /**
-     * Creates the histories and writes them to a file.
+     * Creates the histories and writes them to a file.  Each track is added
+     * to the history of the iPod it was played on, and each of those
+     * histories is written once.
      * @param activeRecentPlayed  The list of active recently played tracks.
      */
     public void addHistories(List activeRecentPlayed) {
+        List histories = new ArrayList();
+
         for (int i = 0; i < activeRecentPlayed.size(); i++) {
             TrackItem track = (TrackItem) activeRecentPlayed.get(i);
-            History.getInstance(null).addhistory(track.getLastplayed());
+            History history = History.getInstance(track.getItunesPath());
+            history.addhistory(track.getLastplayed());
+
+            if (!histories.contains(history)) {
+                histories.add(history);
+            }
         }
 
-        History.getInstance(null).write();
+        for (int i = 0; i < histories.size(); i++) {
+            ((History) histories.get(i)).write();
+        }
     }
 
     /**
@@ -521,85 +1060,83 @@ public class Scrobbler {
         for (int i = 0; i < inactiveRecentPlayed.size(); i++) {
             TrackItem track = (TrackItem) inactiveRecentPlayed.get(i);
 
-            if (History.getInstance(null).isInHistory(track.getLastplayed())) {
-                History.getInstance(null).addhistory(track.getLastplayed());
+            History history = History.getInstance(track.getItunesPath());
+
+            if (history.isInHistory(track.getLastplayed())) {
+                history.addhistory(track.getLastplayed());
             }
         }
     }
 
     /**
-     * Fetches the HTTP content given a URL String and a query String.
-     * @param urlString  The URL to fetch from.
-     * @param queryString  The query String to submit.
-     * @return  The content returned from the request.
-     * @throws MalformedURLException  Thrown if exceptions occur.
-     * @throws IOException  Thrown if exceptions occur.
-     * @throws ProtocolException  Thrown if exceptions occur.
+     * Logs a failed submission that may be retried.
+     * @param chunk  The chunk that failed.
+     * @param failure  The failure.
+     * @return  The exception that asks for the chunk to be retried.
      */
-    private String fetchContent(String urlString, String queryString)
-            throws MalformedURLException, IOException, ProtocolException {
-        String content = null;
-        URL url = new URL(urlString);
-        logger.log(Level.FINE, "Submitting tracks to URL: " + url.toString());
+    private RetryableException retryable(Chunk chunk, Exception failure) {
+        logger.log(Level.WARNING,
+            "Submission of chunk " + chunk.getChunkNumber() + " failed: " + failure.getMessage());
 
-        HttpURLConnection c = (HttpURLConnection) url.openConnection();
-        c.setRequestMethod("POST");
-        c.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-        c.setRequestProperty("Content-Length", new Integer(queryString.length()).toString());
-        c.setRequestProperty("Connection", "close");
-        c.setDoInput(true);
-        c.setDoOutput(true);
-        c.setUseCaches(false);
-        c.connect();
-
-        logger.log(Level.FINE, "POST query string:\n" + queryString);
+        return new RetryableException(failure);
+    }
 
-        OutputStream out = null;
-        OutputStreamWriter writer = null;
-        InputStream in = null;
-        Reader reader = null;
-        BufferedReader bufferedReader = null;
+    /**
+     * Waits for the submissions to the backup URL.  Each one is given the
+     * backup timeout from when it was started, so they are all finished or
+     * abandoned within the backup timeout of the last one.  The backup
+     * server's failures and timeouts are logged, but do not fail the
+     * submission.
+     */
+    private void awaitBackups() {
+        List backups;
 
-        try {
-            out = c.getOutputStream();
-            writer = new OutputStreamWriter(out);
-            writer.write(queryString);
-            writer.flush();
+        synchronized (pendingBackups) {
+            backups = new ArrayList(pendingBackups);
+            pendingBackups.clear();
+        }
 
-            IoUtils.cleanup(null, writer);
-            IoUtils.cleanup(null, out);
+        for (int i = 0; i < backups.size(); i++) {
+            PendingRequest backup = (PendingRequest) backups.get(i);
 
-            if (c.getResponseCode() != 200) {
-                throw new RuntimeException("Invalid HTTP return code");
+            try {
+                ProtocolResponse response = backup.await(backupTimeout * 1000L);
+                logger.log(Level.FINE, "Received from backup server:\n" + response);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Backup submission failed: " + e.getMessage());
             }
+        }
+    }
 
-            in = c.getInputStream();
-            reader = new InputStreamReader(in);
-            bufferedReader = new BufferedReader(reader);
-
-            String buffer = null;
+    /**
+     * Fetches the HTTP content given a URL String and a form body.
+     * @param urlString  The URL to fetch from.
+     * @param body  The URL encoded form body to submit.
+     * @return  The reply of the server.
+     * @throws MalformedURLException  Thrown if exceptions occur.
+     * @throws IOException  Thrown if exceptions occur.
+     * @throws ProtocolException  Thrown if exceptions occur.
+     */
+    private ProtocolResponse fetchContent(String urlString, byte[] body)
+            throws MalformedURLException, IOException, ProtocolException {
+        URL url = new URL(urlString);
+        logger.log(Level.FINE, "Submitting tracks to URL: " + url.toString());
 
-            while ((buffer = bufferedReader.readLine()) != null) {
-                if (content != null) {
-                    content += (buffer + "\n");
-                } else {
-                    content = buffer + "\n";
-                }
-            }
-        } finally {
-            IoUtils.cleanup(null, writer);
-            IoUtils.cleanup(null, out);
-            IoUtils.cleanup(bufferedReader, null);
-            IoUtils.cleanup(reader, null);
-            IoUtils.cleanup(in, null);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "POST query string:\n" + new String(body, "US-ASCII"));
         }
 
-        logger.log(Level.FINE, "Received from server:\n" + content);
+        ProtocolResponse response =
+            PendingRequest.post(transport, url, body).await(submitTimeout * 1000L);
+
+        logger.log(Level.FINE, "Received from server:\n" + response);
 
-        if ((content == null) || (content.length() == 0)) {
-            throw new RuntimeException("Invalid response received from AudioScrobbler");
+        /* An empty reply is usually a dropped connection, so it may be
+         * retried like one. */
+        if (response.isEmpty()) {
+            throw new IOException("Invalid response received from AudioScrobbler");
         }
 
-        return content;
+        return response;
     }
 }
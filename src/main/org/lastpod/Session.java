@@ -0,0 +1,107 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+/**
+ * A session with the AudioScrobbler server, as returned by a handshake: the
+ * challenge that the password is hashed with, and the URL submissions are
+ * posted to.  A session is reused until it expires or the server rejects
+ * it.
+ * @author Chris Tilden
+ */
+public class Session {
+    /**
+     * The user the session was opened for.
+     */
+    private String username;
+
+    /**
+     * The challenge sent by the server.
+     */
+    private String challenge;
+
+    /**
+     * The URL submissions are posted to.
+     */
+    private String submitUrl;
+
+    /**
+     * The time the session expires, in milliseconds since the epoch.
+     */
+    private long expires;
+
+    /**
+     * Constructs the session.
+     * @param username  The user the session was opened for.
+     * @param challenge  The challenge sent by the server.
+     * @param submitUrl  The URL submissions are posted to.
+     * @param expires  The time the session expires, in milliseconds since
+     * the epoch.
+     */
+    public Session(String username, String challenge, String submitUrl, long expires) {
+        this.username = username;
+        this.challenge = challenge;
+        this.submitUrl = submitUrl;
+        this.expires = expires;
+    }
+
+    /**
+     * Gets the user the session was opened for.
+     * @return  The user name.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Gets the challenge sent by the server.
+     * @return  The challenge.
+     */
+    public String getChallenge() {
+        return challenge;
+    }
+
+    /**
+     * Gets the URL submissions are posted to.
+     * @return  The submit URL.
+     */
+    public String getSubmitUrl() {
+        return submitUrl;
+    }
+
+    /**
+     * Gets the time the session expires.
+     * @return  The time the session expires, in milliseconds since the
+     * epoch.
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    /**
+     * Returns <code>true</code> if the session may still be used by the
+     * given user at the given time.
+     * @param user  The user name.
+     * @param now  The current time, in milliseconds since the epoch.
+     * @return  <code>true</code> if the session may be used.
+     */
+    public boolean isValidFor(String user, long now) {
+        return username.equals(user) && (now < expires);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.util.logging.Logger;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Keeps the last AudioScrobbler session in the preferences, so the next
+ * submission, even in a later run, can skip the handshake.
+ * @author Chris Tilden
+ */
+public class SessionStore {
+    /**
+     * The preference holding the session's user name.
+     */
+    private static final String USERNAME = "sessionUsername";
+
+    /**
+     * The preference holding the session's challenge.
+     */
+    private static final String CHALLENGE = "sessionChallenge";
+
+    /**
+     * The preference holding the session's submit URL.
+     */
+    private static final String SUBMIT_URL = "sessionSubmitUrl";
+
+    /**
+     * The preference holding the time the session expires.
+     */
+    private static final String EXPIRES = "sessionExpires";
+
+    private Logger logger = Logger.getLogger(this.getClass().getPackage().getName());
+
+    /**
+     * The preferences the session is stored in.
+     */
+    private Preferences prefs;
+
+    /**
+     * Constructs the store.
+     * @param prefs  The preferences the session is stored in.
+     */
+    public SessionStore(Preferences prefs) {
+        this.prefs = prefs;
+    }
+
+    /**
+     * Loads the stored session, if it may still be used by the given user.
+     * @param username  The user name.
+     * @return  The session, or <code>null</code> if there is no usable
+     * session.
+     */
+    public Session load(String username) {
+        String challenge = prefs.get(CHALLENGE, null);
+        String submitUrl = prefs.get(SUBMIT_URL, null);
+
+        if ((challenge == null) || (submitUrl == null)) {
+            return null;
+        }
+
+        Session session =
+            new Session(prefs.get(USERNAME, ""), challenge, submitUrl, prefs.getLong(EXPIRES, 0));
+
+        return session.isValidFor(username, System.currentTimeMillis()) ? session : null;
+    }
+
+    /**
+     * Stores a session, replacing the stored one.
+     * @param session  The session to store.
+     */
+    public void save(Session session) {
+        prefs.put(USERNAME, session.getUsername());
+        prefs.put(CHALLENGE, session.getChallenge());
+        prefs.put(SUBMIT_URL, session.getSubmitUrl());
+        prefs.putLong(EXPIRES, session.getExpires());
+        flush();
+    }
+
+    /**
+     * Removes the stored session.
+     */
+    public void clear() {
+        prefs.remove(USERNAME);
+        prefs.remove(CHALLENGE);
+        prefs.remove(SUBMIT_URL);
+        prefs.remove(EXPIRES);
+        flush();
+    }
+
+    /**
+     * Writes the preferences to their backing store.  A failure only costs a
+     * handshake on the next run, so it is logged.
+     */
+    private void flush() {
+        try {
+            prefs.flush();
+        } catch (BackingStoreException e) {
+            logger.warning("Can't store the session: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import org.lastpod.util.IoUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Last.fm client's submission cache, an XML file holding one
+ * <code>item</code> element per play inside a <code>submissions</code>
+ * element.  New items are written over the closing
+ * <code>&lt;/submissions&gt;</code> tag, followed by a new closing tag, so the
+ * existing content is never parsed or rewritten.  The items are read back
+ * with a <code>SubmissionCacheReader</code>.
+ * @author Chris Tilden
+ */
+public class SubmissionCache {
+    /**
+     * Last.fm client cache version.
+     */
+    private static final String CACHE_VERSION = "1.2";
+
+    /**
+     * Last.fm client product name.
+     */
+    private static final String PRODUCT_NAME = "Audioscrobbler";
+
+    /**
+     * The start of a new cache file.
+     */
+    private static final String HEADER =
+        "<?xml version=\"1.0\" encoding=\"utf-8\"?>\r\n" + "<submissions version=\""
+        + CACHE_VERSION + "\" product=\"" + PRODUCT_NAME + "\">\r\n";
+
+    /**
+     * The closing tag of the cache.
+     */
+    private static final String CLOSING_TAG = "</submissions>";
+
+    /**
+     * The closing tag of an item.
+     */
+    private static final String ITEM_CLOSING_TAG = "</item>";
+
+    /**
+     * The number of bytes at the end of the file searched for the closing
+     * tag.
+     */
+    private static final int TAIL_LENGTH = 8192;
+
+    /**
+     * Appended to the name of the cache file while it is being compacted.
+     */
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    /**
+     * The cache file.
+     */
+    private File cacheFile;
+
+    /**
+     * Constructs the cache.
+     * @param cacheFile  The cache file.  It is created when items are first
+     * added.
+     */
+    public SubmissionCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Gets the cache file.
+     * @return  The cache file.
+     */
+    public File getFile() {
+        return cacheFile;
+    }
+
+    /**
+     * Adds the tracks to the end of the cache, and syncs the file.
+     * @param tracks  The <code>TrackItem</code>s to add.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public synchronized void append(List tracks) throws IOException {
+        ByteArrayOutputStream items = new ByteArrayOutputStream();
+
+        for (int i = 0; i < tracks.size(); i++) {
+            writeItem(items, (TrackItem) tracks.get(i));
+        }
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(cacheFile, "rw");
+
+            String prefix = "";
+            long insertAt = 0;
+
+            if (file.length() == 0) {
+                prefix = HEADER;
+            } else {
+                String tail = readTail(file);
+                long tailStart = file.length() - tail.length();
+                int closingTag = tail.lastIndexOf(CLOSING_TAG);
+                int lastItem = tail.lastIndexOf(ITEM_CLOSING_TAG);
+                int emptyRoot = tail.lastIndexOf("/>");
+
+                if (closingTag != -1) {
+                    insertAt = tailStart + closingTag;
+                } else if (lastItem != -1) {
+                    /* The closing tag was lost, or an item was cut off. */
+                    insertAt = tailStart + lastItem + ITEM_CLOSING_TAG.length();
+                    prefix = "\r\n";
+                } else if ((emptyRoot != -1) && (tail.lastIndexOf("<submissions") != -1)
+                        && (tail.substring(emptyRoot + 2).trim().length() == 0)) {
+                    /* An empty cache written as <submissions ... />. */
+                    insertAt = tailStart + emptyRoot;
+                    prefix = ">\r\n";
+                } else {
+                    throw new IOException("Unrecognised submission cache " + cacheFile);
+                }
+            }
+
+            file.seek(insertAt);
+            file.write(prefix.getBytes("UTF-8"));
+            file.write(items.toByteArray());
+            file.write((CLOSING_TAG + "\r\n").getBytes("UTF-8"));
+            file.setLength(file.getFilePointer());
+            file.getFD().sync();
+        } finally {
+            IoUtils.cleanup(file);
+        }
+    }
+
+    /**
+     * Removes items from the cache by overwriting them with spaces, and syncs
+     * the file.  Whitespace between elements is allowed, so the file stays
+     * valid without moving the items that follow.  The range must hold
+     * whole items, as given by the offsets of a
+     * <code>SubmissionCacheReader</code>.
+     * @param start  The location of the first byte to remove.
+     * @param end  The location just after the last byte to remove.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public synchronized void remove(long start, long end)
+            throws IOException {
+        if (end <= start) {
+            return;
+        }
+
+        byte[] spaces = new byte[(int) Math.min(end - start, 8192)];
+        Arrays.fill(spaces, (byte) ' ');
+
+        RandomAccessFile file = null;
+
+        try {
+            file = new RandomAccessFile(cacheFile, "rw");
+            file.seek(start);
+
+            for (long position = start; position < end; position += spaces.length) {
+                file.write(spaces, 0, (int) Math.min(spaces.length, end - position));
+            }
+
+            file.getFD().sync();
+        } finally {
+            IoUtils.cleanup(file);
+        }
+    }
+
+    /**
+     * Cuts a range of bytes out of the cache, usually the items blanked by
+     * <code>remove</code>.  The rest of the cache is copied to a new file,
+     * which then replaces the cache.
+     * @param start  The location of the first byte to cut out.
+     * @param end  The location just after the last byte to cut out.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public synchronized void compact(long start, long end)
+            throws IOException {
+        if (end <= start) {
+            return;
+        }
+
+        File compactFile = new File(cacheFile.getPath() + COMPACT_SUFFIX);
+        RandomAccessFile in = null;
+        FileOutputStream out = null;
+
+        try {
+            in = new RandomAccessFile(cacheFile, "r");
+            out = new FileOutputStream(compactFile);
+
+            byte[] buffer = new byte[65536];
+            copy(in, 0, start, out, buffer);
+            copy(in, end, in.length(), out, buffer);
+            out.getFD().sync();
+        } finally {
+            IoUtils.cleanup(in);
+            IoUtils.cleanup(null, out);
+        }
+
+        /* Some platforms cannot rename over an existing file.  The blanked
+         * cache is still valid, so it is only lost if the application stops
+         * between the delete and the second rename. */
+        if (!compactFile.renameTo(cacheFile)) {
+            cacheFile.delete();
+
+            if (!compactFile.renameTo(cacheFile)) {
+                throw new IOException("Cannot rename " + compactFile);
+            }
+        }
+    }
+
+    /**
+     * Copies a range of a file to a stream.
+     * @param in  The file to copy from.
+     * @param start  The location of the first byte to copy.
+     * @param end  The location just after the last byte to copy.
+     * @param out  The stream to copy to.
+     * @param buffer  The buffer to copy through.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private static void copy(RandomAccessFile in, long start, long end, OutputStream out,
+        byte[] buffer) throws IOException {
+        in.seek(start);
+
+        for (long position = start; position < end;) {
+            int length = (int) Math.min(buffer.length, end - position);
+            in.readFully(buffer, 0, length);
+            out.write(buffer, 0, length);
+            position += length;
+        }
+    }
+
+    /**
+     * Reads the end of the file, one byte per character.
+     * @param file  The file.
+     * @return  The end of the file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private static String readTail(RandomAccessFile file) throws IOException {
+        int length = (int) Math.min(TAIL_LENGTH, file.length());
+        byte[] tail = new byte[length];
+        file.seek(file.length() - length);
+        file.readFully(tail);
+
+        return new String(tail, "ISO-8859-1");
+    }
+
+    /**
+     * Writes a track as an <code>item</code> element.
+     * @param out  The stream to write to.
+     * @param track  The track.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     */
+    private static void writeItem(ByteArrayOutputStream out, TrackItem track)
+            throws UnsupportedEncodingException {
+        StringBuffer item = new StringBuffer(512);
+        item.append("<item>");
+        appendElement(item, "artist", track.getArtist());
+        appendElement(item, "album", track.getAlbum());
+        appendElement(item, "track", track.getTrack());
+        appendElement(item, "duration", Long.toString(track.getLength()));
+        appendElement(item, "timestamp", Long.toString(track.getLastplayed()));
+        appendElement(item, "playcount", "0");
+        appendElement(item, "source", "1");
+        appendElement(item, "userActionFlags", "8");
+        appendElement(item, "playerId", "foo");
+        item.append("</item>\r\n");
+
+        byte[] bytes = item.toString().getBytes("UTF-8");
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Appends an element holding escaped text.  Characters that XML does not
+     * allow are left out.
+     * @param item  The item being written.
+     * @param name  The name of the element.
+     * @param value  The text of the element.
+     */
+    private static void appendElement(StringBuffer item, String name, String value) {
+        item.append('<').append(name).append('>');
+
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                switch (c) {
+                case '&':
+                    item.append("&amp;");
+
+                    break;
+
+                case '<':
+                    item.append("&lt;");
+
+                    break;
+
+                case '>':
+                    item.append("&gt;");
+
+                    break;
+
+                default:
+
+                    if ((c >= 0x20) || (c == '\t') || (c == '\n') || (c == '\r')) {
+                        item.append(c);
+                    }
+                }
+            }
+        }
+
+        item.append("</").append(name).append('>');
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the <code>item</code> elements of a submission cache one at a time,
+ * without loading the cache into memory.  Only the simple form of XML that
+ * submission caches use is understood: elements holding text, character
+ * and entity references, CDATA sections, comments and processing
+ * instructions.  An item that was cut off at the end of the file is
+ * ignored.
+ * @author Chris Tilden
+ */
+public class SubmissionCacheReader {
+    /**
+     * The cache being read.
+     */
+    private InputStream in;
+
+    /**
+     * The number of bytes read so far.
+     */
+    private long position = 0;
+
+    /**
+     * The location just after the last item that was returned, or after the
+     * start tag of the <code>submissions</code> element.
+     */
+    private long offset = 0;
+
+    /**
+     * Collects the bytes of a name or a text.
+     */
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * Opens a submission cache, and reads up to the start tag of the
+     * <code>submissions</code> element.
+     * @param cacheFile  The cache file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public SubmissionCacheReader(File cacheFile) throws IOException {
+        this.in = new BufferedInputStream(new FileInputStream(cacheFile), 65536);
+
+        try {
+            String name;
+
+            while (((name = readTag()) != null) && !name.startsWith("submissions")) {
+                /* Skips anything before the root element. */
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        offset = position;
+    }
+
+    /**
+     * Reads the next item.
+     * @return  The track of the next item, or <code>null</code> if there are
+     * no more complete items.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public TrackItem next() throws IOException {
+        String name;
+
+        while ((name = readTag()) != null) {
+            if (name.equals("item")) {
+                TrackItem track = readItem();
+
+                if (track != null) {
+                    offset = position;
+                }
+
+                return track;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the location just after the last item that was returned.  Before
+     * the first item is returned, this is the location just after the start
+     * tag of the <code>submissions</code> element.  The bytes between two
+     * offsets hold exactly the items returned in between.
+     * @return  The location, in bytes from the start of the file.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Closes the cache.
+     */
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            /* Nothing was written, so nothing can be lost. */
+        }
+    }
+
+    /**
+     * Reads the children of an item up to its closing tag.
+     * @return  The track, or <code>null</code> if the file ends first.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private TrackItem readItem() throws IOException {
+        TrackItem track = new TrackItem();
+        String name;
+
+        while ((name = readTag()) != null) {
+            if (name.equals("/item")) {
+                return track;
+            }
+
+            if (name.startsWith("/") || name.endsWith("/")) {
+                continue;
+            }
+
+            String value = readText();
+
+            if (value == null) {
+                return null;
+            }
+
+            try {
+                if (name.equals("artist")) {
+                    track.setArtist(value);
+                } else if (name.equals("album")) {
+                    track.setAlbum(value);
+                } else if (name.equals("track")) {
+                    track.setTrack(value);
+                } else if (name.equals("duration")) {
+                    track.setLength(Long.parseLong(value.trim()));
+                } else if (name.equals("timestamp")) {
+                    track.setLastplayed(Long.parseLong(value.trim()));
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid " + name + " in submission cache: " + value);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Skips to the next start or end tag, and reads its name.  Comments,
+     * processing instructions and declarations are skipped.  The name of an
+     * end tag starts with <code>/</code>, and the name of an empty element
+     * ends with it.
+     * @return  The name of the tag, or <code>null</code> at the end of the
+     * file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private String readTag() throws IOException {
+        int c;
+
+        while ((c = read()) != -1) {
+            if (c != '<') {
+                continue;
+            }
+
+            c = read();
+
+            if ((c == '?') || (c == '!')) {
+                if (!skipMarkup(c)) {
+                    return null;
+                }
+
+                continue;
+            }
+
+            buffer.reset();
+
+            while ((c != -1) && (c != '>') && !isWhitespace(c)) {
+                buffer.write(c);
+                c = read();
+            }
+
+            int last = c;
+
+            while ((c != -1) && (c != '>')) {
+                last = c;
+                c = read();
+            }
+
+            if (c == -1) {
+                return null;
+            }
+
+            String name = buffer.toString("UTF-8");
+
+            if ((last == '/') && !name.endsWith("/")) {
+                name += "/";
+            }
+
+            return name;
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the text of an element up to its end tag, which is consumed.
+     * @return  The text, or <code>null</code> if the file ends first.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private String readText() throws IOException {
+        buffer.reset();
+
+        int c;
+
+        while ((c = read()) != -1) {
+            if (c == '&') {
+                if (!readReference()) {
+                    return null;
+                }
+            } else if (c != '<') {
+                buffer.write(c);
+            } else if ((c = read()) == '!') {
+                if (!readCdata()) {
+                    return null;
+                }
+            } else {
+                while ((c != -1) && (c != '>')) {
+                    c = read();
+                }
+
+                return (c == -1) ? null : buffer.toString("UTF-8");
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads a character or entity reference, after its <code>&amp;</code>,
+     * into the buffer.
+     * @return  <code>false</code> if the file ends first.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private boolean readReference() throws IOException {
+        StringBuffer reference = new StringBuffer();
+        int c;
+
+        while (((c = read()) != -1) && (c != ';')) {
+            reference.append((char) c);
+        }
+
+        if (c == -1) {
+            return false;
+        }
+
+        String name = reference.toString();
+        int codePoint;
+
+        if (name.equals("amp")) {
+            codePoint = '&';
+        } else if (name.equals("lt")) {
+            codePoint = '<';
+        } else if (name.equals("gt")) {
+            codePoint = '>';
+        } else if (name.equals("quot")) {
+            codePoint = '"';
+        } else if (name.equals("apos")) {
+            codePoint = '\'';
+        } else {
+            try {
+                if (name.startsWith("#x")) {
+                    codePoint = Integer.parseInt(name.substring(2), 16);
+                } else if (name.startsWith("#")) {
+                    codePoint = Integer.parseInt(name.substring(1));
+                } else {
+                    throw new IOException("Unknown entity in submission cache: " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid character reference in submission cache: " + name);
+            }
+        }
+
+        writeUtf8(codePoint);
+
+        return true;
+    }
+
+    /**
+     * Reads a CDATA section, after its <code>&lt;!</code>, into the buffer.
+     * Any other markup is skipped.
+     * @return  <code>false</code> if the file ends first.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private boolean readCdata() throws IOException {
+        int c = read();
+
+        if (c != '[') {
+            return skipMarkup('!', c);
+        }
+
+        for (int i = 0; i < "CDATA[".length(); i++) {
+            if (read() == -1) {
+                return false;
+            }
+        }
+
+        int matched = 0;
+
+        while ((c = read()) != -1) {
+            if ((c == '>') && (matched >= 2)) {
+                return true;
+            }
+
+            if (c == ']') {
+                if (matched == 2) {
+                    buffer.write(']');
+                } else {
+                    matched++;
+                }
+            } else {
+                for (; matched > 0; matched--) {
+                    buffer.write(']');
+                }
+
+                buffer.write(c);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Skips a comment, processing instruction or declaration.
+     * @param kind  <code>?</code> or <code>!</code>.
+     * @return  <code>false</code> if the file ends first.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private boolean skipMarkup(int kind) throws IOException {
+        return skipMarkup(kind, read());
+    }
+
+    /**
+     * Skips a comment, processing instruction or declaration.
+     * @param kind  <code>?</code> or <code>!</code>.
+     * @param first  The character after <code>kind</code>.
+     * @return  <code>false</code> if the file ends first.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private boolean skipMarkup(int kind, int first) throws IOException {
+        int c = first;
+
+        if ((kind == '!') && (c == '-')) {
+            /* A comment ends at "-->". */
+            int dashes = 0;
+
+            while ((c = read()) != -1) {
+                if ((c == '>') && (dashes >= 2)) {
+                    return true;
+                }
+
+                dashes = (c == '-') ? (dashes + 1) : 0;
+            }
+
+            return false;
+        }
+
+        while ((c != -1) && (c != '>')) {
+            c = read();
+        }
+
+        return c != -1;
+    }
+
+    /**
+     * Writes a character to the buffer as UTF-8.
+     * @param codePoint  The character.
+     */
+    private void writeUtf8(int codePoint) {
+        if (codePoint < 0x80) {
+            buffer.write(codePoint);
+        } else if (codePoint < 0x800) {
+            buffer.write(0xC0 | (codePoint >> 6));
+            buffer.write(0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            buffer.write(0xE0 | (codePoint >> 12));
+            buffer.write(0x80 | ((codePoint >> 6) & 0x3F));
+            buffer.write(0x80 | (codePoint & 0x3F));
+        } else {
+            buffer.write(0xF0 | (codePoint >> 18));
+            buffer.write(0x80 | ((codePoint >> 12) & 0x3F));
+            buffer.write(0x80 | ((codePoint >> 6) & 0x3F));
+            buffer.write(0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    /**
+     * Reads a byte, counting the position.
+     * @return  The byte, or <code>-1</code> at the end of the file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private int read() throws IOException {
+        int c = in.read();
+
+        if (c != -1) {
+            position++;
+        }
+
+        return c;
+    }
+
+    /**
+     * Returns <code>true</code> for XML whitespace.
+     * @param c  The byte.
+     * @return  <code>true</code> if the byte is whitespace.
+     */
+    private static boolean isWhitespace(int c) {
+        return (c == ' ') || (c == '\t') || (c == '\r') || (c == '\n');
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import org.lastpod.parser.PlayListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the tracks found by the parsers into batches, and hands each
+ * batch to a <code>ModelView</code> so the track list can be shown while it
+ * is still being parsed.  A batch is handed over once it holds enough
+ * tracks, or once the previous batch was handed over long enough ago.
+ * Several parsers may add tracks at the same time.
+ * @author Chris Tilden
+ */
+public class TrackBatcher implements PlayListener {
+    /**
+     * The view the batches are handed to.
+     */
+    private ModelView view;
+
+    /**
+     * The number of tracks in a full batch.
+     */
+    private int batchSize;
+
+    /**
+     * The longest time, in milliseconds, that a track is held before it is
+     * handed over.
+     */
+    private long maxDelay;
+
+    /**
+     * The tracks that have not been handed over yet.
+     */
+    private List batch = new ArrayList();
+
+    /**
+     * The time the last batch was handed over.
+     */
+    private long lastFlush = System.currentTimeMillis();
+
+    /**
+     * Constructs the batcher.
+     * @param view  The view the batches are handed to.
+     * @param batchSize  The number of tracks in a full batch.
+     * @param maxDelay  The longest time, in milliseconds, that a track is
+     * held before it is handed over.
+     */
+    public TrackBatcher(ModelView view, int batchSize, long maxDelay) {
+        this.view = view;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Adds a track to the batch, and hands the batch over if it is due.
+     * @param track  The track.
+     */
+    public synchronized void trackPlayed(TrackItem track) {
+        batch.add(track);
+
+        if ((batch.size() >= batchSize)
+                || ((System.currentTimeMillis() - lastFlush) >= maxDelay)) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands over the tracks that have not been handed over yet.
+     */
+    public synchronized void flush() {
+        if (!batch.isEmpty()) {
+            view.tracksParsed(batch);
+            batch = new ArrayList();
+        }
+
+        lastFlush = System.currentTimeMillis();
+    }
+}
@@ -36,6 +36,12 @@ public class TrackItem implements Comparable {
     private boolean parseVariousArtists;
     private String location;
 
+    /**
+     * The path to the iTunes DB of the iPod the track was played on, or
+     * <code>null</code> if it is not known.
+     */
+    private String iTunesPath;
+
     /**
      * A set of strings that will be used to parse various artists.
      */
@@ -72,6 +78,7 @@ public class TrackItem implements Comparable {
         this.setLastplayed(trackItem.getLastplayed());
         this.setParseVariousArtists(trackItem.isParseVariousArtists());
         this.setLocation(trackItem.getLocation());
+        this.setItunesPath(trackItem.getItunesPath());
     }
 
     /**
@@ -296,6 +303,23 @@ public class TrackItem implements Comparable {
         this.location = location;
     }
 
+    /**
+     * Gets the path to the iTunes DB of the iPod the track was played on.
+     * The track's history is kept there.
+     * @return  The path, or <code>null</code> if it is not known.
+     */
+    public String getItunesPath() {
+        return iTunesPath;
+    }
+
+    /**
+     * Sets the path to the iTunes DB of the iPod the track was played on.
+     * @param iTunesPath  The path, or <code>null</code> if it is not known.
+     */
+    public void setItunesPath(String iTunesPath) {
+        this.iTunesPath = iTunesPath;
+    }
+
     /**
      * Compares the given track item to this track item.  The comparision
      * is based off of lastplayed.
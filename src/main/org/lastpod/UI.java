@@ -21,6 +21,7 @@ package org.lastpod;
 import org.lastpod.action.DeletePlayCounts;
 import org.lastpod.action.ExitApplication;
 import org.lastpod.action.OpenPreferencesEditor;
+import org.lastpod.action.SubmitCachedTracks;
 import org.lastpod.action.SubmitTracks;
 import org.lastpod.action.UnselectAll;
 import org.lastpod.action.ViewLog;
@@ -46,6 +47,7 @@ import javax.swing.JLabel;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
 import javax.swing.JTextArea;
@@ -59,7 +61,7 @@ import javax.swing.SwingUtilities;
  * @author Chris Tilden
  * @version $Id$
  */
-public class UI implements ChunkProgress {
+public class UI implements ModelView {
     private RecentPanel recentpanel;
 
     /**
@@ -93,6 +95,11 @@ public class UI implements ChunkProgress {
      */
     private final Action actionSubmitTracks;
 
+    /**
+     * The action that submits the tracks in the submission cache to Last.fm.
+     */
+    private final Action actionSubmitCachedTracks;
+
     /**
      * The action that views the log.
      */
@@ -137,6 +144,9 @@ public class UI implements ChunkProgress {
                 "Unselects All Tracks", KeyEvent.VK_A);
         actionSubmitTracks = new SubmitTracks(this, model, "Submit Tracks", iconSubmitTracks,
                 "Submits the selected tracks to Last.fm", KeyEvent.VK_S);
+        actionSubmitCachedTracks = new SubmitCachedTracks(this, model, "Submit Cached Tracks",
+                iconSubmitTracks, "Submits the tracks in the Last.fm client's cache to Last.fm",
+                KeyEvent.VK_C);
         actionViewLog = new ViewLog(this, "View Log", iconViewLog, "Views the Application Log",
                 KeyEvent.VK_L);
         actionDeletePlayCounts = new DeletePlayCounts(this, model, "Delete Play Counts",
@@ -193,6 +203,8 @@ public class UI implements ChunkProgress {
 
         editMenu.add(new JMenuItem(actionUnselectAll));
         editMenu.addSeparator();
+        editMenu.add(new JMenuItem(actionSubmitCachedTracks));
+        editMenu.addSeparator();
         editMenu.add(new JMenuItem(actionDeletePlayCounts));
 
         menuBar.add(optionsMenu);
@@ -287,8 +299,49 @@ public class UI implements ChunkProgress {
         frame.setVisible(true);
     }
 
-    public void newTrackListAvailable(List recentlyPlayed) {
-        recentpanel.newTrackListAvailable(recentlyPlayed);
+    public void newTrackListAvailable(final List recentlyPlayed) {
+        runOnEventThread(new Runnable() {
+                public void run() {
+                    recentpanel.newTrackListAvailable(recentlyPlayed);
+                }
+            });
+    }
+
+    /**
+     * Clears the recently played table, ready for the tracks of a new parse.
+     */
+    public void parseStarted() {
+        runOnEventThread(new Runnable() {
+                public void run() {
+                    recentpanel.clear();
+                }
+            });
+    }
+
+    /**
+     * Adds a batch of newly parsed tracks to the recently played table.
+     * @param tracks  The tracks parsed since the last batch.
+     */
+    public void tracksParsed(final List tracks) {
+        runOnEventThread(new Runnable() {
+                public void run() {
+                    recentpanel.addTracks(tracks);
+                }
+            });
+    }
+
+    /**
+     * Runs a task on the event dispatch thread.  The track list may be
+     * parsed on a worker or by the device monitor, so the task is queued
+     * unless this already is the event dispatch thread.
+     * @param task  The task.
+     */
+    private void runOnEventThread(Runnable task) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+        } else {
+            SwingUtilities.invokeLater(task);
+        }
     }
 
     public JTextArea getLogtextarea() {
@@ -342,6 +395,23 @@ public class UI implements ChunkProgress {
         ((ExitApplication) actionExit).setSubmissionSuccessful(completionStatus);
     }
 
+    /**
+     * Shows a message in a dialog.
+     * @param message  The message.
+     */
+    public void showMessage(String message) {
+        JOptionPane.showMessageDialog(frame, message);
+    }
+
+    /**
+     * Shows an error in a dialog.
+     * @param error  The error.
+     */
+    public void showError(Exception error) {
+        JOptionPane.showMessageDialog(null, error.getMessage(), "Error!",
+            JOptionPane.ERROR_MESSAGE);
+    }
+
     /**
      * Sets the message for the submitStatus label.
      * @param submitStatusMessage  The message for the submitStatus label.
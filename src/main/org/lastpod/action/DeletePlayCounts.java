@@ -27,8 +27,6 @@ import java.awt.event.ActionEvent;
 
 import java.io.File;
 
-import java.util.prefs.Preferences;
-
 import javax.swing.AbstractAction;
 import javax.swing.ImageIcon;
 import javax.swing.JOptionPane;
@@ -54,13 +52,6 @@ public class DeletePlayCounts extends AbstractAction {
      */
     private Model model = null;
 
-    /**
-     * Stores the file location of the "Play Counts" or "iTunesStats" file.
-     * (For non-shuffle iPods there is a "Play Counts" file, for shuffle
-     * iPods the "iTunesStats" file is used.)
-     */
-    private File playCountsFile;
-
     /**
      * Constructs this action.
      * @param userInterface  The application's user interface.
@@ -78,23 +69,31 @@ public class DeletePlayCounts extends AbstractAction {
         putValue(SHORT_DESCRIPTION, desc);
         putValue(MNEMONIC_KEY, new Integer(mnemonic));
 
-        /* Setup Playcounts file; based on either iPod shuffle or non-shuffle.
-         */
-        Preferences fPrefs = Preferences.userRoot().node("ws/afterglo/audioPod");
-        String iTunesPath = fPrefs.get("iTunes Path", "default");
+        /* If every iPod is a Shuffle, describe the shuffle delete logic. */
+        String[] iTunesPaths = model.getItunesPaths();
+        boolean allShuffles = iTunesPaths.length > 0;
 
-        if (!iTunesPath.endsWith(File.separator)) {
-            iTunesPath += File.separator;
+        for (int i = 0; i < iTunesPaths.length; i++) {
+            allShuffles &= ItunesStatsParser.isIpodShuffle(iTunesPaths[i]);
         }
 
-        /* Defaults the file for non-shuffle iPods. */
-        playCountsFile = new File(iTunesPath + "Play Counts");
+        if (allShuffles) {
+            putValue(SHORT_DESCRIPTION, "Removes the iTunesStats file from the iPod shuffle.");
+        }
+    }
 
-        /* If the iPod is a Shuffle, switch to the shuffle delete logic. */
+    /**
+     * Gets the play counts file of an iPod.  For non-shuffle iPods this is
+     * the "Play Counts" file, for shuffle iPods the "iTunesStats" file.
+     * @param iTunesPath  The path to the iPod's iTunes DB.
+     * @return  The play counts file.
+     */
+    private static File getPlayCountsFile(String iTunesPath) {
         if (ItunesStatsParser.isIpodShuffle(iTunesPath)) {
-            playCountsFile = new File(iTunesPath + "iTunesStats");
-            putValue(SHORT_DESCRIPTION, "Removes the iTunesStats file from the iPod shuffle.");
+            return new File(iTunesPath, "iTunesStats");
         }
+
+        return new File(iTunesPath, "Play Counts");
     }
 
     /**
@@ -114,32 +113,37 @@ public class DeletePlayCounts extends AbstractAction {
     }
 
     /**
-     * Deletes the play counts file from the iPod.
+     * Deletes the play counts file from each iPod.
      */
     private void deletePlayCounts() {
-        Preferences fPrefs = Preferences.userRoot().node("ws/afterglo/audioPod");
-        String iTunesPath = fPrefs.get("iTunes Path", "default");
-
-        if (!iTunesPath.endsWith(File.separator)) {
-            iTunesPath += File.separator;
+        String[] iTunesPaths = model.getItunesPaths();
+        StringBuffer failedPaths = new StringBuffer();
+        boolean deleted = false;
+
+        for (int i = 0; i < iTunesPaths.length; i++) {
+            File playCountsFile = getPlayCountsFile(iTunesPaths[i]);
+
+            if (!playCountsFile.exists()) {
+                continue;
+            }
+
+            if (playCountsFile.delete()) {
+                deleted = true;
+            } else {
+                failedPaths.append('\n').append(playCountsFile.getPath());
+            }
         }
 
-        playCountsFile = new File(iTunesPath + "Play Counts");
-
-        boolean succuss = false;
-
-        if (playCountsFile.exists()) {
-            succuss = playCountsFile.delete();
-        }
-
-        if (succuss) {
+        if (deleted) {
             /* Clear recent track list. */
             model.clearRecentlyPlayed();
 
             /* Refresh track list. */
             userInterface.newTrackListAvailable(model.getRecentlyPlayed());
-        } else {
-            String message = "The play counts file was not deleted.";
+        }
+
+        if (!deleted || (failedPaths.length() > 0)) {
+            String message = "The play counts file was not deleted." + failedPaths;
             String title = "Delete failure";
             int opt = JOptionPane.ERROR_MESSAGE;
             JOptionPane.showMessageDialog(userInterface.getFrame(), message, title, opt);
@@ -0,0 +1,61 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.action;
+
+import org.lastpod.Model;
+import org.lastpod.UI;
+
+import javax.swing.ImageIcon;
+
+/**
+ * A <code>javax.swing.Action</code> class that is used to submit the tracks
+ * waiting in the Last.fm client's submission cache to Last.fm.
+ * @author Chris Tilden
+ */
+public class SubmitCachedTracks extends SubmitTracks {
+    /**
+     * Required for serializable classes.
+     */
+    public static final long serialVersionUID = 200710180001L;
+
+    /**
+     * Constructs this action.
+     * @param userInterface  The application's user interface.
+     * @param model  The application's model.
+     * @param text  The action's text.
+     * @param icon  The action's icon.
+     * @param desc  The action's detailed description.
+     * @param mnemonic  The action's mnemonic.
+     */
+    public SubmitCachedTracks(UI userInterface, Model model, String text, ImageIcon icon,
+        String desc, int mnemonic) {
+        super(userInterface, model, text, icon, desc, mnemonic);
+    }
+
+    /**
+     * Submits the tracks in the submission cache.  This is called from the
+     * worker thread.
+     * @param userInterface  The application's user interface.
+     * @param model  The application's model.
+     * @return  A status message upon completion.
+     */
+    protected Object submit(UI userInterface, Model model) {
+        return model.submitCachedTracks(userInterface);
+    }
+}
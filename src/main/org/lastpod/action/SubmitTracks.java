@@ -138,8 +138,7 @@ public class SubmitTracks extends AbstractAction {
                         busyIconIndex = 0;
                         busyIconTimer.start();
 
-                        // TODO
-                        return model.submitTracks(userInterface, false);
+                        return submit(userInterface, model);
                     }
 
                     public void finished() {
@@ -151,4 +150,15 @@ public class SubmitTracks extends AbstractAction {
                 };
         worker.start();
     }
+
+    /**
+     * Performs the submission.  This is called from the worker thread.
+     * @param userInterface  The application's user interface.
+     * @param model  The application's model.
+     * @return  A status message upon completion.
+     */
+    protected Object submit(UI userInterface, Model model) {
+        // TODO
+        return model.submitTracks(userInterface, false);
+    }
 }
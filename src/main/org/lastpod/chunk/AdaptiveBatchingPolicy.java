@@ -0,0 +1,95 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import java.util.List;
+
+/**
+ * Adjusts the chunk size to the latency of the server.  The size is doubled
+ * after a chunk that took less than half the target time, and halved after
+ * one that took more than twice the target time, within the given bounds.
+ * @author Chris Tilden
+ */
+public class AdaptiveBatchingPolicy implements BatchingPolicy {
+    /**
+     * The smallest chunk size.
+     */
+    private int minBatchSize;
+
+    /**
+     * The largest chunk size.
+     */
+    private int maxBatchSize;
+
+    /**
+     * The time a submission should take, in milliseconds.
+     */
+    private long targetMillis;
+
+    /**
+     * The current chunk size.
+     */
+    private int batchSize;
+
+    /**
+     * Constructs the policy.
+     * @param initialBatchSize  The size of the first chunk.
+     * @param minBatchSize  The smallest chunk size.
+     * @param maxBatchSize  The largest chunk size.
+     * @param targetMillis  The time a submission should take, in
+     * milliseconds.
+     */
+    public AdaptiveBatchingPolicy(int initialBatchSize, int minBatchSize, int maxBatchSize,
+        long targetMillis) {
+        if ((minBatchSize < 1) || (maxBatchSize < minBatchSize)) {
+            throw new IllegalArgumentException("Invalid batch size bounds: " + minBatchSize
+                + " to " + maxBatchSize);
+        }
+
+        this.minBatchSize = minBatchSize;
+        this.maxBatchSize = maxBatchSize;
+        this.targetMillis = targetMillis;
+        this.batchSize = Math.max(minBatchSize, Math.min(maxBatchSize, initialBatchSize));
+    }
+
+    public synchronized int nextBatchSize(List items, int start) {
+        return Math.min(batchSize, items.size() - start);
+    }
+
+    public synchronized void batchSubmitted(int submittedSize, long elapsedMillis) {
+        /* A short last chunk says little about the server. */
+        if (submittedSize < batchSize) {
+            return;
+        }
+
+        if (elapsedMillis < (targetMillis / 2)) {
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+        } else if (elapsedMillis > (targetMillis * 2)) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+        }
+    }
+
+    /**
+     * Gets the current chunk size.
+     * @return  The current chunk size.
+     */
+    public synchronized int getBatchSize() {
+        return batchSize;
+    }
+}
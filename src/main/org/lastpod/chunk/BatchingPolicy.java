@@ -0,0 +1,44 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import java.util.List;
+
+/**
+ * Decides how many items go into each chunk of a submission.
+ * @author Chris Tilden
+ */
+public interface BatchingPolicy {
+    /**
+     * Gets the number of items in the next chunk.
+     * @param items  All of the items being submitted.
+     * @param start  The index of the first item of the next chunk.
+     * @return  The number of items in the next chunk, at least one and at
+     * most the number of items left.
+     */
+    int nextBatchSize(List items, int start);
+
+    /**
+     * Reports that a chunk was submitted successfully.  This may be called
+     * from several threads at once.
+     * @param batchSize  The number of items in the chunk.
+     * @param elapsedMillis  The time the submission took, in milliseconds.
+     */
+    void batchSubmitted(int batchSize, long elapsedMillis);
+}
@@ -0,0 +1,80 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import java.util.List;
+
+/**
+ * Limits the chunks of another policy so that the encoded items of a chunk
+ * stay within a byte budget.  A chunk always holds at least one item, even
+ * if that item alone is over the budget.
+ * @author Chris Tilden
+ */
+public class ByteBudgetBatchingPolicy implements BatchingPolicy {
+    /**
+     * The policy that decides the largest size of each chunk.
+     */
+    private BatchingPolicy sizePolicy;
+
+    /**
+     * The maximum number of bytes the items of a chunk may add.
+     */
+    private int byteBudget;
+
+    /**
+     * Measures the items.
+     */
+    private ItemSizer sizer;
+
+    /**
+     * Constructs the policy.
+     * @param sizePolicy  The policy that decides the largest size of each
+     * chunk.
+     * @param byteBudget  The maximum number of bytes the items of a chunk
+     * may add.
+     * @param sizer  Measures the items.
+     */
+    public ByteBudgetBatchingPolicy(BatchingPolicy sizePolicy, int byteBudget, ItemSizer sizer) {
+        this.sizePolicy = sizePolicy;
+        this.byteBudget = byteBudget;
+        this.sizer = sizer;
+    }
+
+    public int nextBatchSize(List items, int start) {
+        int maxBatchSize = sizePolicy.nextBatchSize(items, start);
+        int bytes = sizer.sizeOf(items.get(start), 0);
+        int batchSize = 1;
+
+        while (batchSize < maxBatchSize) {
+            bytes += sizer.sizeOf(items.get(start + batchSize), batchSize);
+
+            if (bytes > byteBudget) {
+                break;
+            }
+
+            batchSize++;
+        }
+
+        return batchSize;
+    }
+
+    public void batchSubmitted(int batchSize, long elapsedMillis) {
+        sizePolicy.batchSubmitted(batchSize, elapsedMillis);
+    }
+}
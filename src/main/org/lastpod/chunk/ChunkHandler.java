@@ -0,0 +1,41 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+/**
+ * Submits and commits the chunks of a <code>ChunkPipeline</code>.
+ * @author Chris Tilden
+ */
+public interface ChunkHandler {
+    /**
+     * Submits a chunk.  This is called from the pipeline's worker threads,
+     * so several chunks may be submitted at the same time.
+     * @param chunk  The chunk to submit.
+     * @throws Exception  Thrown if the chunk could not be submitted.
+     */
+    void submit(Chunk chunk) throws Exception;
+
+    /**
+     * Commits a chunk that was submitted successfully.  This is called from
+     * the thread running the pipeline, in chunk order, and only once every
+     * earlier chunk has been committed.
+     * @param chunk  The chunk to commit.
+     */
+    void commit(Chunk chunk);
+}
@@ -0,0 +1,371 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Submits a list of items in chunks, with several chunks in flight at once,
+ * while committing them strictly in order.  A chunk is only committed once
+ * every chunk before it was submitted and committed, so a failure leaves the
+ * committed chunks as a prefix of the sequence.  After a failure no new
+ * chunks are started.
+ *
+ * Chunks are cut from the items as they are started, using a
+ * <code>BatchingPolicy</code>, so the policy can react to how earlier chunks
+ * went.  Because of this the total number of chunks is not known in advance,
+ * and each chunk's total is reported as zero.
+ *
+ * The start of each submission is spaced at least <code>interval</code>
+ * seconds after the start of the previous one.  A chunk whose handler throws
+ * a <code>RetryableException</code> is submitted again after the delay given
+ * by the <code>RetryPolicy</code>.  While a chunk waits for its retry the
+ * other workers carry on; the chunk is only committed once it succeeds.
+ * @author Chris Tilden
+ */
+public class ChunkPipeline {
+    /**
+     * Marks a chunk that was submitted successfully.
+     */
+    private static final Object SUCCESS = new Object();
+
+    /**
+     * The items to submit.
+     */
+    private List items;
+
+    /**
+     * Decides the size of each chunk.
+     */
+    private BatchingPolicy policy;
+
+    /**
+     * The maximum number of chunks being submitted at the same time.
+     */
+    private int maxInFlight;
+
+    /**
+     * Decides how often, and after how long, a failed chunk is retried.
+     */
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+
+    /**
+     * The chunks that have been started.
+     */
+    private List chunks = new ArrayList();
+
+    /**
+     * The outcome of each started chunk: <code>null</code> while it is
+     * pending, <code>SUCCESS</code> or the <code>Exception</code> it failed
+     * with.
+     */
+    private List results = new ArrayList();
+
+    /**
+     * The index of the first item that is not in a chunk yet.
+     */
+    private int nextItem = 0;
+
+    /**
+     * <code>true</code> once no more chunks may be started.
+     */
+    private boolean stopped = false;
+
+    /**
+     * The number of seconds to wait between the starts of two submissions.
+     */
+    private int interval = 0;
+
+    /**
+     * The time the last submission was allowed to start.
+     */
+    private long lastStartTime = 0;
+
+    /**
+     * The earliest time the next submission may start.
+     */
+    private long nextStartTime = 0;
+
+    /**
+     * Constructs the pipeline.
+     * @param items  The items to submit.
+     * @param policy  Decides the size of each chunk.
+     * @param maxInFlight  The maximum number of chunks being submitted at the
+     * same time.
+     */
+    public ChunkPipeline(List items, BatchingPolicy policy, int maxInFlight) {
+        this.items = items;
+        this.policy = policy;
+        this.maxInFlight = Math.max(maxInFlight, 1);
+    }
+
+    /**
+     * Sets the policy that decides how often, and after how long, a chunk
+     * that failed with a <code>RetryableException</code> is retried.  By
+     * default chunks are not retried.
+     * @param retryPolicy  The retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Sets the number of seconds to wait between the starts of two
+     * submissions.  This may be changed while the pipeline runs, for example
+     * when the server asks for a different interval.  Submissions that are
+     * already waiting to start keep their start time.
+     * @param interval  The number of seconds to wait.
+     */
+    public synchronized void setInterval(int interval) {
+        this.interval = interval;
+        this.nextStartTime = lastStartTime + ((long) interval * 1000);
+    }
+
+    /**
+     * Submits the items, and commits the chunks in order on the calling
+     * thread.  Returns once every chunk is committed, or throws the exception
+     * of the first chunk that failed.  Chunks submitted after the failed one
+     * are not committed.
+     * @param handler  Submits and commits the chunks.
+     * @throws Exception  The exception of the first chunk that failed.
+     */
+    public void run(final ChunkHandler handler) throws Exception {
+        synchronized (this) {
+            lastStartTime = System.currentTimeMillis();
+            nextStartTime = lastStartTime + ((long) interval * 1000);
+        }
+
+        Thread[] workers = new Thread[Math.min(maxInFlight, items.size())];
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] =
+                new Thread(new Runnable() {
+                        public void run() {
+                            work(handler);
+                        }
+                    }, "ChunkPipeline-" + (i + 1));
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+
+        try {
+            Object result;
+
+            for (int i = 0; (result = awaitResult(i)) != null; i++) {
+                if (result != SUCCESS) {
+                    throw (Exception) result;
+                }
+
+                handler.commit(getChunk(i));
+            }
+        } finally {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+
+            for (int i = 0; i < workers.length; i++) {
+                try {
+                    workers[i].join();
+                } catch (InterruptedException e) {
+                    /* The worker will finish on its own; it can no longer
+                     * affect the committed chunks. */
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts chunks and submits them until there are no more items, or the
+     * pipeline is stopped.
+     * @param handler  Submits the chunks.
+     */
+    private void work(ChunkHandler handler) {
+        int index;
+
+        while ((index = startNextChunk()) != -1) {
+            Chunk chunk = getChunk(index);
+            Object result = null;
+
+            try {
+                result = submit(handler, chunk);
+            } finally {
+                if (result == null) {
+                    result = new RuntimeException("Chunk " + (index + 1) + " was not submitted");
+                }
+
+                finishChunk(index, result);
+            }
+        }
+    }
+
+    /**
+     * Submits a chunk, retrying it as the retry policy allows.
+     * @param handler  Submits the chunk.
+     * @param chunk  The chunk to submit.
+     * @return  <code>SUCCESS</code> or the <code>Exception</code> the chunk
+     * failed with.
+     */
+    private Object submit(ChunkHandler handler, Chunk chunk) {
+        for (int attempt = 1;; attempt++) {
+            try {
+                long start = System.currentTimeMillis();
+                handler.submit(chunk);
+                policy.batchSubmitted(chunk.getChunkSize(), System.currentTimeMillis() - start);
+
+                return SUCCESS;
+            } catch (RetryableException e) {
+                if ((attempt >= retryPolicy.getMaxAttempts())
+                        || !awaitRetry(retryPolicy.getDelay(attempt))) {
+                    return e.getFailure();
+                }
+            } catch (Exception e) {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Waits until a failed chunk may be submitted again.  The retry is
+     * spaced from the other submissions like a new chunk.
+     * @param delay  The number of milliseconds to wait at least.
+     * @return  <code>false</code> if the pipeline was stopped while waiting.
+     */
+    private synchronized boolean awaitRetry(long delay) {
+        return awaitStart(System.currentTimeMillis() + delay);
+    }
+
+    /**
+     * Waits until the given time and the interval since the last start have
+     * passed, and records the start.
+     * @param earliestTime  The earliest time to start.
+     * @return  <code>false</code> if the pipeline was stopped while waiting.
+     */
+    private synchronized boolean awaitStart(long earliestTime) {
+        long startTime = Math.max(earliestTime, nextStartTime);
+        lastStartTime = startTime;
+        nextStartTime = startTime + ((long) interval * 1000);
+
+        long delay;
+
+        while (!stopped && ((delay = startTime - System.currentTimeMillis()) > 0)) {
+            try {
+                wait(delay);
+            } catch (InterruptedException e) {
+                /* If interrupted it will simply submit early. */
+                break;
+            }
+        }
+
+        return !stopped;
+    }
+
+    /**
+     * Cuts the next chunk from the items, and waits until it may start.  If
+     * the batching policy fails, its exception is recorded as the outcome of
+     * the chunk.
+     * @return  The index of the chunk, or <code>-1</code> if no more chunks
+     * may be started.
+     */
+    private synchronized int startNextChunk() {
+        if (stopped || (nextItem >= items.size())) {
+            return -1;
+        }
+
+        int index = chunks.size();
+        int batchSize;
+
+        try {
+            batchSize = policy.nextBatchSize(items, nextItem);
+        } catch (RuntimeException e) {
+            /* The failure takes the place of the chunk that could not be
+             * cut, so run() stops there instead of waiting for it. */
+            chunks.add(null);
+            results.add(e);
+            stopped = true;
+            notifyAll();
+
+            return -1;
+        }
+
+        chunks.add(new Chunk(index + 1, 0, items.subList(nextItem, nextItem + batchSize)));
+        results.add(null);
+        nextItem += batchSize;
+        notifyAll();
+
+        if (!awaitStart(System.currentTimeMillis())) {
+            results.set(index, new RuntimeException("Chunk " + (index + 1) + " was not submitted"));
+            notifyAll();
+
+            return -1;
+        }
+
+        return index;
+    }
+
+    /**
+     * Gets a started chunk.
+     * @param index  The index of the chunk.
+     * @return  The chunk.
+     */
+    private synchronized Chunk getChunk(int index) {
+        return (Chunk) chunks.get(index);
+    }
+
+    /**
+     * Records the outcome of a chunk.  After a failure no new chunks are
+     * started.
+     * @param index  The index of the chunk.
+     * @param result  <code>SUCCESS</code> or the <code>Exception</code> the
+     * chunk failed with.
+     */
+    private synchronized void finishChunk(int index, Object result) {
+        results.set(index, result);
+
+        if (result != SUCCESS) {
+            stopped = true;
+        }
+
+        notifyAll();
+    }
+
+    /**
+     * Waits for the outcome of a chunk.
+     * @param index  The index of the chunk.
+     * @return  <code>SUCCESS</code>, the <code>Exception</code> the chunk
+     * failed with, or <code>null</code> if there is no such chunk because
+     * every item is in an earlier chunk.
+     * @throws InterruptedException  Thrown if the thread is interrupted.
+     */
+    private synchronized Object awaitResult(int index)
+            throws InterruptedException {
+        while (true) {
+            if (index < results.size()) {
+                if (results.get(index) != null) {
+                    return results.get(index);
+                }
+            } else if (nextItem >= items.size()) {
+                return null;
+            }
+
+            wait();
+        }
+    }
+}
@@ -74,6 +74,36 @@ public final class ChunkUtil {
         return chunkList;
     }
 
+    /**
+     * Creates a List of Chunks from a given original List, sizing each chunk
+     * with the given policy.
+     * @param orignalList  The original list.
+     * @param policy  Decides the size of each chunk.
+     * @return  A List of Chunks from a given original List.
+     */
+    public static List createChunks(final List orignalList, final BatchingPolicy policy) {
+        if ((orignalList == null) || (orignalList.size() == 0)) {
+            return Collections.EMPTY_LIST;
+        }
+
+        List contents = new ArrayList();
+        int start = 0;
+
+        while (start < orignalList.size()) {
+            int batchSize = policy.nextBatchSize(orignalList, start);
+            contents.add(orignalList.subList(start, start + batchSize));
+            start += batchSize;
+        }
+
+        List chunkList = new ArrayList();
+
+        for (int i = 0; i < contents.size(); i++) {
+            chunkList.add(new Chunk(i + 1, contents.size(), (List) contents.get(i)));
+        }
+
+        return chunkList;
+    }
+
     /**
      * Gets the next chunk in the sequence.
      * @param currentChunk  The current chunk.
@@ -0,0 +1,53 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import java.util.List;
+
+/**
+ * Puts the same number of items into each chunk.  The last chunk holds the
+ * items that are left.
+ * @author Chris Tilden
+ */
+public class FixedSizeBatchingPolicy implements BatchingPolicy {
+    /**
+     * The number of items in each chunk.
+     */
+    private int batchSize;
+
+    /**
+     * Constructs the policy.
+     * @param batchSize  The number of items in each chunk.
+     */
+    public FixedSizeBatchingPolicy(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    public int nextBatchSize(List items, int start) {
+        return Math.min(batchSize, items.size() - start);
+    }
+
+    public void batchSubmitted(int batchSize, long elapsedMillis) {
+        /* The batch size does not change. */
+    }
+}
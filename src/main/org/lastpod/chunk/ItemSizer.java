@@ -0,0 +1,33 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+/**
+ * Measures how many bytes an item adds to the body of a submission.
+ * @author Chris Tilden
+ */
+public interface ItemSizer {
+    /**
+     * Gets the number of bytes an item adds to the body of a submission.
+     * @param item  The item.
+     * @param position  The position of the item within its chunk.
+     * @return  The number of bytes the item adds.
+     */
+    int sizeOf(Object item, int position);
+}
@@ -0,0 +1,125 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import java.util.Random;
+
+/**
+ * Decides how often, and after how long, a chunk that failed with a
+ * <code>RetryableException</code> is submitted again.  The delays grow
+ * exponentially from the base delay up to the maximum delay, and each delay
+ * is picked at random from the upper half of its range, so clients that
+ * failed together do not all retry at the same moment.
+ * @author Chris Tilden
+ */
+public class RetryPolicy {
+    /**
+     * The policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+    /**
+     * The maximum number of times a chunk is submitted, including the first
+     * attempt.
+     */
+    private int maxAttempts;
+
+    /**
+     * The delay before the first retry, before jitter, in milliseconds.
+     */
+    private long baseDelayMillis;
+
+    /**
+     * The longest delay before a retry, in milliseconds.
+     */
+    private long maxDelayMillis;
+
+    /**
+     * Picks the jitter.
+     */
+    private Random random;
+
+    /**
+     * Constructs the policy.
+     * @param maxAttempts  The maximum number of times a chunk is submitted,
+     * including the first attempt.
+     * @param baseDelayMillis  The delay before the first retry, before
+     * jitter, in milliseconds.
+     * @param maxDelayMillis  The longest delay before a retry, in
+     * milliseconds.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this(maxAttempts, baseDelayMillis, maxDelayMillis, new Random());
+    }
+
+    /**
+     * Constructs the policy with the given source of jitter.
+     * @param maxAttempts  The maximum number of times a chunk is submitted,
+     * including the first attempt.
+     * @param baseDelayMillis  The delay before the first retry, before
+     * jitter, in milliseconds.
+     * @param maxDelayMillis  The longest delay before a retry, in
+     * milliseconds.
+     * @param random  Picks the jitter.
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, Random random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Attempts must be at least 1: " + maxAttempts);
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = Math.max(0, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.random = random;
+    }
+
+    /**
+     * Gets the maximum number of times a chunk is submitted, including the
+     * first attempt.
+     * @return  The maximum number of attempts.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Gets the delay before the next attempt.
+     * @param failedAttempts  The number of attempts that have failed so far.
+     * @return  The delay in milliseconds.
+     */
+    public long getDelay(int failedAttempts) {
+        long delay = baseDelayMillis;
+
+        for (int i = 1; (i < failedAttempts) && (delay < maxDelayMillis); i++) {
+            delay *= 2;
+        }
+
+        delay = Math.min(delay, maxDelayMillis);
+
+        if (delay <= 1) {
+            return delay;
+        }
+
+        long halfDelay = delay / 2;
+
+        synchronized (random) {
+            return (delay - halfDelay) + (long) (random.nextDouble() * (halfDelay + 1));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+/**
+ * Thrown by a <code>ChunkHandler</code> when a chunk failed in a way that may
+ * succeed if it is submitted again, such as a timeout or a busy server.  The
+ * <code>ChunkPipeline</code> retries the chunk as its
+ * <code>RetryPolicy</code> allows, and reports the cause if it gives up.
+ * @author Chris Tilden
+ */
+public class RetryableException extends Exception {
+    /**
+     * Required for serializable classes.
+     */
+    private static final long serialVersionUID = 200710180002L;
+
+    /**
+     * Constructs the exception.
+     * @param cause  The failure that may go away on a retry.
+     */
+    public RetryableException(Exception cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    /**
+     * Gets the failure that may go away on a retry.
+     * @return  The failure.
+     */
+    public Exception getFailure() {
+        return (Exception) getCause();
+    }
+}
@@ -28,7 +28,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -42,6 +44,67 @@ import java.util.Map;
  * @author Chris Tilden
  */
 public class ItunesDbParser implements TrackItemParser {
+    /**
+     * The "mhbd" chunk tag (database header) read as a little-endian int.
+     */
+    private static final int MHBD = chunkTag("mhbd");
+
+    /**
+     * The "mhsd" chunk tag (data set) read as a little-endian int.
+     */
+    private static final int MHSD = chunkTag("mhsd");
+
+    /**
+     * The "mhlt" chunk tag (track list) read as a little-endian int.
+     */
+    private static final int MHLT = chunkTag("mhlt");
+
+    /**
+     * The "mhit" chunk tag (track item) read as a little-endian int.
+     */
+    static final int MHIT = chunkTag("mhit");
+
+    /**
+     * The "mhod" chunk tag (data object) read as a little-endian int.
+     */
+    private static final int MHOD = chunkTag("mhod");
+
+    /**
+     * The mhsd type that contains the track list.
+     */
+    private static final int MHSD_TYPE_TRACKS = 1;
+
+    /**
+     * The smallest mhbd header: the fields up to the number of data sets.
+     */
+    private static final int MHBD_HEADER_LENGTH = 24;
+
+    /**
+     * The smallest mhsd header: the fields up to the data set type.
+     */
+    private static final int MHSD_HEADER_LENGTH = 16;
+
+    /**
+     * The smallest mhlt header: the fields up to the number of tracks.
+     */
+    private static final int MHLT_HEADER_LENGTH = 12;
+
+    /**
+     * The smallest mhit header: the fields up to the track length.  This also
+     * limits how many tracks a file of a given size can hold.
+     */
+    static final int MHIT_HEADER_LENGTH = 44;
+
+    /**
+     * The length of the mhod header.
+     */
+    private static final int MHOD_HEADER_LENGTH = 24;
+
+    /**
+     * The length of the header of a string mhod, up to the string.
+     */
+    private static final int MHOD_STRING_OFFSET = 40;
+
     /**
      * The location of the iTunes database file.
      */
@@ -67,6 +130,16 @@ public class ItunesDbParser implements TrackItemParser {
      */
     boolean isShuffle = false;
 
+    /**
+     * Holds the fixed size fields of the chunk being read from a stream.
+     */
+    private byte[] chunkHeader = new byte[40];
+
+    /**
+     * Restores and saves the track catalog, if set.
+     */
+    private TrackCatalogCache catalogCache;
+
     /**
      * Default constructor should not be used.
      */
@@ -101,17 +174,33 @@ public class ItunesDbParser implements TrackItemParser {
     /**
      * Performs parsing.
      * @return  A <code>List</code> containing <code>TrackItems</code>.  It
-     * contains all tracks from the iTunes database.
+     * contains all tracks from the iTunes database.  When the iTunesDB could
+     * be memory mapped this is a <code>TrackCatalog</code>, which decodes
+     * each track's strings only when the track is requested.
      */
     public List parse() {
-        InputStream itunesFileIn = null;
-        InputStream itunesBufferedIn = null;
-
         try {
-            itunesFileIn = new FileInputStream(iTunesFile);
-            itunesBufferedIn = new BufferedInputStream(itunesFileIn, 65535);
+            List trackList = null;
+            long[] fingerprint = null;
+
+            if (catalogCache != null) {
+                fingerprint = TrackCatalogCache.fingerprint(getItunesFile());
+                trackList = catalogCache.read(this, fingerprint);
+            }
 
-            List trackList = parseitunesdb(itunesBufferedIn);
+            if (trackList == null) {
+                trackList = parseMapped();
+
+                if (trackList != null) {
+                    ((TrackCatalog) trackList).setFingerprint(fingerprint);
+                }
+            }
+
+            /* The chunk tree was not recognised, fall back to scanning the
+             * whole file for MHIT markers. */
+            if (trackList == null) {
+                trackList = parseStream();
+            }
 
             if (!isShuffle) {
                 return trackList;
@@ -120,12 +209,401 @@ public class ItunesDbParser implements TrackItemParser {
             }
         } catch (IOException e) {
             throw new RuntimeException("Error reading iTunes Database");
+        }
+    }
+
+    /**
+     * Sets the cache that <code>parse</code> restores the track catalog from
+     * when the iTunesDB has not changed.
+     * @param catalogCache  The track catalog cache, or <code>null</code> to
+     * always parse the iTunesDB.
+     */
+    public void setCatalogCache(TrackCatalogCache catalogCache) {
+        this.catalogCache = catalogCache;
+    }
+
+    /**
+     * Saves a track list returned by <code>parse</code> to the catalog cache,
+     * including any tracks that have been decoded since it was parsed.  Does
+     * nothing if there is no cache, or the list is not a
+     * <code>TrackCatalog</code>.
+     * @param trackList  A track list returned by <code>parse</code>.
+     */
+    public void saveToCache(List trackList) {
+        if ((catalogCache == null) || !(trackList instanceof TrackCatalog)) {
+            return;
+        }
+
+        TrackCatalog catalog = (TrackCatalog) trackList;
+
+        if (catalog.isModified()) {
+            catalogCache.write(catalog);
+        }
+    }
+
+    /**
+     * Opens a cursor that walks the iTunesDB's tracks in order, without
+     * indexing or decoding the tracks that are skipped over.
+     * @return  A <code>TrackCursor</code>, or <code>null</code> if the file
+     * does not start with a recognisable mhbd &gt; mhsd &gt; mhlt chunk tree.
+     */
+    public TrackCursor openTrackCursor() {
+        try {
+            ByteBuffer itunesDb = mapItunesDb();
+            int offset = findTrackList(itunesDb);
+
+            if (offset == -1) {
+                return null;
+            }
+
+            int numTracks = getTrackCount(itunesDb, offset);
+
+            return new TrackCursor(this, itunesDb,
+                offset + chunkLength(itunesDb, offset, 4, MHLT_HEADER_LENGTH, "mhlt"), numTracks);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading iTunes Database");
+        }
+    }
+
+    /**
+     * Memory maps the iTunesDB and walks its chunk tree.
+     * @return  A <code>List</code> containing <code>TrackItems</code>, or
+     * <code>null</code> if the file does not start with a recognisable
+     * mhbd &gt; mhsd &gt; mhlt chunk tree.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private List parseMapped() throws IOException {
+        ByteBuffer itunesDb = mapItunesDb();
+        int offset = findTrackList(itunesDb);
+
+        if (offset == -1) {
+            return null;
+        }
+
+        return parseTrackList(itunesDb, offset);
+    }
+
+    /**
+     * Gets the iTunesDB file.
+     * @return  The iTunesDB file.
+     */
+    File getItunesFile() {
+        return new File(iTunesFile);
+    }
+
+    /**
+     * Memory maps the iTunesDB read-only.
+     * @return  The iTunes database, in little-endian byte order.
+     * @throws IOException  Thrown if errors occur.
+     */
+    ByteBuffer mapItunesDb() throws IOException {
+        FileInputStream itunesFileIn = null;
+
+        try {
+            itunesFileIn = new FileInputStream(iTunesFile);
+
+            FileChannel channel = itunesFileIn.getChannel();
+            ByteBuffer itunesDb = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            itunesDb.order(ByteOrder.LITTLE_ENDIAN);
+
+            return itunesDb;
+        } finally {
+            IoUtils.cleanup(itunesFileIn, null);
+        }
+    }
+
+    /**
+     * Reads the iTunesDB as a stream, searching for every MHIT marker.
+     * @return  A <code>List</code> containing <code>TrackItems</code>.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private List parseStream() throws IOException {
+        InputStream itunesFileIn = null;
+        InputStream itunesBufferedIn = null;
+
+        try {
+            itunesFileIn = new FileInputStream(iTunesFile);
+            itunesBufferedIn = new BufferedInputStream(itunesFileIn, 65535);
+
+            return parseitunesdb(itunesBufferedIn);
         } finally {
             IoUtils.cleanup(itunesFileIn, null);
             IoUtils.cleanup(itunesBufferedIn, null);
         }
     }
 
+    /**
+     * Walks the mhbd &gt; mhsd &gt; mhlt chunk tree of an iTunesDB using the
+     * header and total lengths stored in each chunk, skipping over every
+     * data set that is not the track list.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @return  The location of the MHLT chunk, or <code>-1</code> if the
+     * chunk tree is not recognised.
+     * @throws IOException  Thrown if a chunk is truncated or has an invalid
+     * length.
+     */
+    private int findTrackList(ByteBuffer itunesDb) throws IOException {
+        if (!hasChunkTag(itunesDb, 0, MHBD)) {
+            return -1;
+        }
+
+        checkHeader(itunesDb, 0, MHBD_HEADER_LENGTH, "mhbd");
+
+        int offset = chunkLength(itunesDb, 0, 4, MHBD_HEADER_LENGTH, "mhbd");
+        int numDataSets = itunesDb.getInt(20);
+
+        for (int i = 0; i < numDataSets; i++) {
+            if (!hasChunkTag(itunesDb, offset, MHSD)) {
+                return -1;
+            }
+
+            checkHeader(itunesDb, offset, MHSD_HEADER_LENGTH, "mhsd");
+
+            if (itunesDb.getInt(offset + 12) == MHSD_TYPE_TRACKS) {
+                offset += chunkLength(itunesDb, offset, 4, MHSD_HEADER_LENGTH, "mhsd");
+
+                if (!hasChunkTag(itunesDb, offset, MHLT)) {
+                    return -1;
+                }
+
+                checkHeader(itunesDb, offset, MHLT_HEADER_LENGTH, "mhlt");
+
+                return offset;
+            }
+
+            offset += chunkLength(itunesDb, offset, 8, MHSD_HEADER_LENGTH, "mhsd");
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads the number of tracks of an MHLT chunk, and checks that the file
+     * is large enough to hold them.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the MHLT chunk.
+     * @return  The number of tracks.
+     * @throws IOException  Thrown if the number of tracks is invalid.
+     */
+    private static int getTrackCount(ByteBuffer itunesDb, int offset)
+            throws IOException {
+        int numTracks = itunesDb.getInt(offset + 8);
+
+        if ((numTracks < 0) || (numTracks > (itunesDb.limit() / MHIT_HEADER_LENGTH))) {
+            throw new IOException("Invalid track count " + numTracks + " at " + offset);
+        }
+
+        return numTracks;
+    }
+
+    /**
+     * Indexes every MHIT in an MHLT (track list) chunk.  The MHODs are not
+     * read until a track is requested from the returned catalog.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the MHLT chunk.
+     * @return  A <code>TrackCatalog</code> of the tracks, or
+     * <code>null</code> if the chunk tree is not recognised.
+     * @throws IOException  Thrown if a chunk is truncated or has an invalid
+     * length.
+     */
+    private List parseTrackList(ByteBuffer itunesDb, int offset)
+            throws IOException {
+        int numTracks = getTrackCount(itunesDb, offset);
+        TrackCatalog catalog = new TrackCatalog(this, itunesDb, numTracks);
+
+        offset += chunkLength(itunesDb, offset, 4, MHLT_HEADER_LENGTH, "mhlt");
+
+        for (int i = 0; i < numTracks; i++) {
+            if (!hasChunkTag(itunesDb, offset, MHIT)) {
+                return null;
+            }
+
+            checkHeader(itunesDb, offset, MHIT_HEADER_LENGTH, "mhit");
+            catalog.addTrack(offset, IoUtils.littleEndianToLong(itunesDb, offset + 16, 4),
+                IoUtils.littleEndianToLong(itunesDb, offset + 40, 4) / 1000);
+            offset += chunkLength(itunesDb, offset, 8, MHIT_HEADER_LENGTH, "mhit");
+        }
+
+        return catalog;
+    }
+
+    /**
+     * Parses an MHIT object from the mapped iTunes Database.  The returned
+     * track does not parse "Various Artists" until
+     * <code>setupVariousArtists</code> is called on it.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the MHIT chunk.
+     * @return Returns parsed track object.
+     * @throws IOException  Thrown if errors occur.
+     */
+    TrackItem parsemhit(ByteBuffer itunesDb, int offset)
+            throws IOException {
+        checkHeader(itunesDb, offset, MHIT_HEADER_LENGTH, "mhit");
+
+        TrackItem track = new TrackItem();
+
+        int nummhods = itunesDb.getInt(offset + 12);
+        track.setTrackid(IoUtils.littleEndianToLong(itunesDb, offset + 16, 4));
+        track.setLength(IoUtils.littleEndianToLong(itunesDb, offset + 40, 4) / 1000);
+
+        int mhodOffset = offset + chunkLength(itunesDb, offset, 4, MHIT_HEADER_LENGTH, "mhit");
+
+        for (int i = 0; i < nummhods; i++) {
+            if (!hasChunkTag(itunesDb, mhodOffset, MHOD)) {
+                break;
+            }
+
+            parsemhod(track, itunesDb, mhodOffset);
+            mhodOffset += chunkLength(itunesDb, mhodOffset, 8, MHOD_HEADER_LENGTH, "mhod");
+        }
+
+        return track;
+    }
+
+    /**
+     * Parses an MHOD object from the mapped iTunes Database and sets proper
+     * fields in the track item object.
+     * @param track  Track Item.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the MHOD chunk.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void parsemhod(TrackItem track, ByteBuffer itunesDb, int offset)
+            throws IOException {
+        checkHeader(itunesDb, offset, MHOD_HEADER_LENGTH, "mhod");
+
+        int mhodtype = itunesDb.getInt(offset + 12);
+
+        if ((mhodtype < 1) || (mhodtype > 4)) {
+            return;
+        }
+
+        checkHeader(itunesDb, offset, MHOD_STRING_OFFSET, "mhod");
+
+        /* A corrupt string length is cut to what the chunk and the file
+         * hold, so one bad record can not stop the parse. */
+        int available =
+            Math.min(itunesDb.getInt(offset + 8), itunesDb.limit() - offset)
+            - MHOD_STRING_OFFSET;
+        int strlen = Math.max(0, Math.min(itunesDb.getInt(offset + 28), available));
+        byte[] data = new byte[strlen];
+
+        /* A duplicate is positioned, so the shared buffer's position is left
+         * alone and the string is copied in one call. */
+        ByteBuffer string = itunesDb.duplicate();
+        string.position(offset + MHOD_STRING_OFFSET);
+        string.get(data, 0, strlen);
+
+        String stringdata = new String(data, "UTF-16LE");
+
+        switch (mhodtype) {
+        case 1:
+            track.setTrack(stringdata);
+
+            break;
+
+        case 2:
+            track.setLocation(stringdata);
+
+            break;
+
+        case 3:
+            track.setAlbum(stringdata);
+
+            break;
+
+        case 4:
+            track.setArtist(stringdata);
+
+            break;
+        }
+    }
+
+    /**
+     * Creates an empty track that parses "Various Artists" as configured.
+     * @return  An empty <code>TrackItem</code>.
+     */
+    TrackItem createTrackItem() {
+        TrackItem track = new TrackItem();
+        setupVariousArtists(track);
+
+        return track;
+    }
+
+    /**
+     * Sets up a track to parse "Various Artists" as configured.
+     * @param track  The track to set up.
+     */
+    void setupVariousArtists(TrackItem track) {
+        track.setParseVariousArtists(parseVariousArtists);
+        track.setVariousArtistsStrings(variousArtistsStrings);
+    }
+
+    /**
+     * Returns <code>true</code> if the chunk at the given offset starts with
+     * the given tag.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the chunk.
+     * @param tag  The expected chunk tag.
+     * @return  <code>true</code> if the chunk has the given tag.
+     */
+    static boolean hasChunkTag(ByteBuffer itunesDb, int offset, int tag) {
+        return (offset >= 0) && ((offset + 4) <= itunesDb.limit())
+        && (itunesDb.getInt(offset) == tag);
+    }
+
+    /**
+     * Checks that the header of a chunk is within the file.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the chunk.
+     * @param headerLength  The length of the header fields that are read.
+     * @param name  The name of the chunk, for the error message.
+     * @throws IOException  Thrown if the header is not within the file.
+     */
+    static void checkHeader(ByteBuffer itunesDb, int offset, int headerLength, String name)
+            throws IOException {
+        if ((offset < 0) || (offset > (itunesDb.limit() - headerLength))) {
+            throw new IOException("Truncated " + name + " at " + offset);
+        }
+    }
+
+    /**
+     * Reads the header length or total length of a chunk.  The length must be
+     * at least the smallest header of the chunk, and must not reach past the
+     * end of the file, so a walk that steps by it always moves forward and
+     * stays within the file.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the chunk.
+     * @param field  The location of the length in the chunk header.
+     * @param minimum  The smallest valid length.
+     * @param name  The name of the chunk, for the error message.
+     * @return  The length.
+     * @throws IOException  Thrown if the length is invalid.
+     */
+    static int chunkLength(ByteBuffer itunesDb, int offset, int field, int minimum, String name)
+            throws IOException {
+        checkHeader(itunesDb, offset, field + 4, name);
+
+        int length = itunesDb.getInt(offset + field);
+
+        if ((length < minimum) || (length > (itunesDb.limit() - offset))) {
+            throw new IOException("Invalid " + name + " length " + length + " at " + offset);
+        }
+
+        return length;
+    }
+
+    /**
+     * Converts a four character chunk tag into the int value it has when read
+     * in little-endian byte order.
+     * @param tag  The four character chunk tag.
+     * @return  The little-endian int value of the tag.
+     */
+    private static int chunkTag(String tag) {
+        return tag.charAt(0) | (tag.charAt(1) << 8) | (tag.charAt(2) << 16)
+        | (tag.charAt(3) << 24);
+    }
+
     /**
      * Parses track information from the iTunesDB.
      * @param itunesistream  A stream that reads the iTunes database file.
@@ -135,24 +613,21 @@ public class ItunesDbParser implements TrackItemParser {
      */
     private List parseitunesdb(InputStream itunesistream)
             throws IOException {
-        byte[] buf = new byte[1];
+        byte[] buf = new byte[3];
         List trackList = new ArrayList();
 
         //we seek one at a time because the mhit marker won't always be at a multiple of four
-        while (itunesistream.read(buf) != -1) {
-            if (buf[0] == 'm') { //Search for MHIT
+        for (int b = itunesistream.read(); b != -1; b = itunesistream.read()) {
+            if (b == 'm') { //Search for MHIT
                 itunesistream.mark(1048576);
-                buf = new byte[3];
-                itunesistream.read(buf);
 
-                if (new String(buf).equals("hit")) {
+                if ((itunesistream.read(buf) == 3) && (buf[0] == 'h') && (buf[1] == 'i')
+                        && (buf[2] == 't')) {
                     trackList.add(parsemhit(itunesistream));
                 } else {
                     itunesistream.reset();
                 }
             }
-
-            buf = new byte[1];
         }
 
         return trackList;
@@ -166,28 +641,19 @@ public class ItunesDbParser implements TrackItemParser {
      */
     public TrackItem parsemhit(InputStream itunesistream)
             throws IOException {
-        byte[] dword = new byte[4];
-        TrackItem track = new TrackItem();
-        track.setParseVariousArtists(parseVariousArtists);
-        track.setVariousArtistsStrings(variousArtistsStrings);
+        TrackItem track = createTrackItem();
 
         itunesistream.mark(1048576); //mark beginning of MHIT location
 
-        itunesistream.read(dword);
-
-        long headersize = IoUtils.littleEndianToBigInt(dword).longValue();
+        /* The "mhit" tag has already been read, so offsets are 4 less than
+         * those within the chunk. */
+        IoUtils.readFully(itunesistream, chunkHeader, 0, 40);
 
-        IoUtils.skipFully(itunesistream, 4);
-        itunesistream.read(dword);
+        long headersize = IoUtils.littleEndianToLong(chunkHeader, 0, 4);
+        long nummhods = IoUtils.littleEndianToLong(chunkHeader, 8, 4);
 
-        long nummhods = IoUtils.littleEndianToBigInt(dword).longValue();
-
-        itunesistream.read(dword);
-        track.setTrackid(IoUtils.littleEndianToBigInt(dword).longValue());
-
-        IoUtils.skipFully(itunesistream, 20);
-        itunesistream.read(dword);
-        track.setLength(IoUtils.littleEndianToBigInt(dword).longValue() / 1000);
+        track.setTrackid(IoUtils.littleEndianToLong(chunkHeader, 12, 4));
+        track.setLength(IoUtils.littleEndianToLong(chunkHeader, 36, 4) / 1000);
 
         itunesistream.reset();
         IoUtils.skipFully(itunesistream, headersize - 4); //skip to end of MHIT
@@ -207,30 +673,23 @@ public class ItunesDbParser implements TrackItemParser {
      */
     public void parsemhod(TrackItem track, InputStream itunesistream)
             throws IOException {
-        byte[] dword = new byte[4];
-
         itunesistream.mark(1048576); //mark beginning of MHOD location
 
-        IoUtils.skipFully(itunesistream, 8);
-
-        itunesistream.read(dword);
+        IoUtils.readFully(itunesistream, chunkHeader, 0, 16);
 
-        long totalsize = IoUtils.littleEndianToBigInt(dword).longValue();
-
-        itunesistream.read(dword);
-
-        int mhodtype = IoUtils.littleEndianToBigInt(dword).intValue();
+        long totalsize = IoUtils.littleEndianToLong(chunkHeader, 8, 4);
+        int mhodtype = (int) IoUtils.littleEndianToLong(chunkHeader, 12, 4);
 
         if ((mhodtype == 1) || (mhodtype == 2) || (mhodtype == 3) || (mhodtype == 4)) {
-            IoUtils.skipFully(itunesistream, 12);
-            itunesistream.read(dword);
-
-            int strlen = IoUtils.littleEndianToBigInt(dword).intValue();
+            IoUtils.readFully(itunesistream, chunkHeader, 16, 24);
 
-            IoUtils.skipFully(itunesistream, 8);
+            /* A corrupt string length is cut to what the chunk holds. */
+            long available = Math.min(totalsize - 40, Integer.MAX_VALUE);
+            int strlen =
+                (int) Math.max(0, Math.min(IoUtils.littleEndianToLong(chunkHeader, 28, 4), available));
 
             byte[] data = new byte[strlen];
-            itunesistream.read(data);
+            IoUtils.readFully(itunesistream, data, 0, strlen);
 
             String stringdata = new String(data, "UTF-16LE");
 
@@ -293,7 +752,7 @@ public class ItunesDbParser implements TrackItemParser {
 
             itunesSdBufferedIn.read(threeBytes);
 
-            int numentries = (new BigInteger(threeBytes)).intValue();
+            int numentries = (int) IoUtils.bigEndianToLong(threeBytes, 0, 3);
 
             IoUtils.skipFully(itunesSdBufferedIn, 15); //skip rest of header
             assert (numentries == trackList.size());
@@ -303,7 +762,7 @@ public class ItunesDbParser implements TrackItemParser {
 
                 itunesSdBufferedIn.read(threeBytes);
 
-                int entrylen = (new BigInteger(threeBytes)).intValue();
+                int entrylen = (int) IoUtils.bigEndianToLong(threeBytes, 0, 3);
 
                 IoUtils.skipFully(itunesSdBufferedIn, 30);
 
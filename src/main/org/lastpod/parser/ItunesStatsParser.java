@@ -42,6 +42,16 @@ import java.util.List;
  * @author Chris Tilden
  */
 public class ItunesStatsParser implements TrackItemParser {
+    /**
+     * The length of the iTunesStats header.
+     */
+    private static final int HEADER_LENGTH = 6;
+
+    /**
+     * The usual length of an iTunesStats entry.
+     */
+    private static final int ENTRY_LENGTH = 18;
+
     /**
      * The location of the iTunes path.
      */
@@ -138,33 +148,31 @@ public class ItunesStatsParser implements TrackItemParser {
      */
     private List parseitunesStats(InputStream itunesStatsistream)
             throws IOException {
-        byte[] threeBytes = new byte[3];
+        byte[] entry = new byte[ENTRY_LENGTH];
         List recentPlays = new ArrayList();
 
-        itunesStatsistream.read(threeBytes);
-
-        int numentries = IoUtils.littleEndianToBigInt(threeBytes).intValue();
+        IoUtils.readFully(itunesStatsistream, entry, 0, HEADER_LENGTH);
 
-        IoUtils.skipFully(itunesStatsistream, 3); //skip rest of header
+        int numentries = (int) IoUtils.littleEndianToLong(entry, 0, 3);
 
         for (int i = 0; i < (numentries - 1); i++) {
-            itunesStatsistream.mark(1048576); //save beginning of entry location
-
-            itunesStatsistream.read(threeBytes);
+            /* The first field of each entry is the length of the entry. */
+            IoUtils.readFully(itunesStatsistream, entry, 0, 3);
 
-            int entrylen = IoUtils.littleEndianToBigInt(threeBytes).intValue();
+            int entrylen = (int) IoUtils.littleEndianToLong(entry, 0, 3);
 
-            /* Skip unused data. */
-            IoUtils.skipFully(itunesStatsistream, 9);
+            if (entrylen > entry.length) {
+                entry = new byte[entrylen];
+            }
 
-            itunesStatsistream.read(threeBytes);
+            IoUtils.readFully(itunesStatsistream, entry, 3, entrylen - 3);
 
-            long playcount = IoUtils.littleEndianToBigInt(threeBytes).longValue();
+            long playcount = IoUtils.littleEndianToLong(entry, 12, 3);
 
             if (playcount > 0) {
                 TrackItem temptrack = (TrackItem) trackList.get(i);
                 temptrack.setPlaycount(playcount);
-                recentPlays.add(trackList.get(i));
+                recentPlays.add(temptrack);
 
                 if (parseMultiPlayTracks && (playcount > 1)) {
                     long numberToManufacture = playcount - 1;
@@ -175,9 +183,6 @@ public class ItunesStatsParser implements TrackItemParser {
                     }
                 }
             }
-
-            itunesStatsistream.reset();
-            IoUtils.skipFully(itunesStatsistream, entrylen);
         }
 
         Collections.sort(recentPlays);
@@ -46,6 +46,11 @@ public class PlayCountsParser implements TrackItemParser {
      */
     public static final long SPAM_PROTECTION_OFFSET = 31;
 
+    /**
+     * The length of the Play Counts header.
+     */
+    private static final int HEADER_LENGTH = 96;
+
     /**
      * The location of the iTunes path.
      */
@@ -66,6 +71,17 @@ public class PlayCountsParser implements TrackItemParser {
      */
     private List trackList;
 
+    /**
+     * Walks the tracks of the iTunes database in step with the play counts.
+     * Used instead of <code>trackList</code> when it is set.
+     */
+    private TrackCursor trackCursor;
+
+    /**
+     * Is told about each played track as it is found, or <code>null</code>.
+     */
+    private PlayListener playListener;
+
     /**
      * Default constructor should not be used.
      */
@@ -100,13 +116,32 @@ public class PlayCountsParser implements TrackItemParser {
         this.trackList = trackList;
     }
 
+    /**
+     * Sets a cursor over the iTunes database's tracks.  When set, each played
+     * track is read from the cursor as its Play Counts entry is reached,
+     * instead of from the List of tracks.
+     * @param trackCursor  A cursor over the iTunes database's tracks.
+     */
+    public void setTrackCursor(TrackCursor trackCursor) {
+        this.trackCursor = trackCursor;
+    }
+
+    /**
+     * Sets a listener that is told about each played track as it is found,
+     * in the order of the Play Counts file rather than by play time.
+     * @param playListener  The listener, or <code>null</code> for none.
+     */
+    public void setPlayListener(PlayListener playListener) {
+        this.playListener = playListener;
+    }
+
     /**
      * Performs parsing.
      * @return A <code>List</code> of complete <code>TrackItem</code>s that
      * were in the play counts file.
      */
     public List parse() {
-        if ((trackList == null) || (trackList.size() == 0)) {
+        if ((trackCursor == null) && ((trackList == null) || (trackList.size() == 0))) {
             throw new RuntimeException("Programming error, setTrackList() was never performed!");
         }
 
@@ -140,39 +175,32 @@ public class PlayCountsParser implements TrackItemParser {
      */
     private List parseplaycounts(InputStream playcountsistream)
             throws IOException {
-        byte[] dword = new byte[4];
+        byte[] header = new byte[HEADER_LENGTH];
         List recentPlays = new ArrayList();
 
-        IoUtils.skipFully(playcountsistream, 8);
-        playcountsistream.read(dword);
-
-        long entrylen = IoUtils.littleEndianToBigInt(dword).longValue();
+        IoUtils.readFully(playcountsistream, header, 0, HEADER_LENGTH);
 
-        playcountsistream.read(dword);
+        int entrylen = (int) IoUtils.littleEndianToLong(header, 8, 4);
+        int numentries = (int) IoUtils.littleEndianToLong(header, 12, 4);
 
-        int numentries = IoUtils.littleEndianToBigInt(dword).intValue();
+        /* Only the play count and last played fields are decoded. */
+        byte[] entry = new byte[Math.max(entrylen, 8)];
 
-        IoUtils.skipFully(playcountsistream, 80); //skip rest of header
+        Calendar calendar = Calendar.getInstance();
+        long offset = calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET);
 
         for (int i = 0; i < numentries; i++) {
-            playcountsistream.mark(1048576); //save beginning of entry location
+            IoUtils.readFully(playcountsistream, entry, 0, entrylen);
 
-            playcountsistream.read(dword);
-
-            long playcount = IoUtils.littleEndianToBigInt(dword).longValue();
+            long playcount = IoUtils.littleEndianToLong(entry, 0, 4);
 
             if (playcount > 0) {
-                playcountsistream.read(dword);
-
-                long lastplayed = IoUtils.littleEndianToBigInt(dword).longValue();
+                long lastplayed = IoUtils.littleEndianToLong(entry, 4, 4);
                 lastplayed -= 2082844800; //convert to UNIX timestamp
-
-                Calendar calendar = Calendar.getInstance();
-                long offset =
-                    calendar.get(Calendar.ZONE_OFFSET) + calendar.get(Calendar.DST_OFFSET);
                 lastplayed -= (offset / 1000);
 
-                TrackItem temptrack = (TrackItem) trackList.get(i);
+                TrackItem temptrack =
+                    (trackCursor != null) ? trackCursor.getTrack(i) : (TrackItem) trackList.get(i);
                 temptrack.setPlaycount(playcount);
                 temptrack.setLastplayed(lastplayed - temptrack.getLength());
 
@@ -180,20 +208,17 @@ public class PlayCountsParser implements TrackItemParser {
                     temptrack.setActive(Boolean.FALSE);
                 }
 
-                recentPlays.add(trackList.get(i));
+                addPlay(recentPlays, temptrack);
 
                 if (parseMultiPlayTracks && (playcount > 1)) {
                     long numberToManufacture = playcount - 1;
 
                     for (long j = 0; j < numberToManufacture; j++) {
                         temptrack = manufactureTrack(temptrack);
-                        recentPlays.add(temptrack);
+                        addPlay(recentPlays, temptrack);
                     }
                 }
             }
-
-            playcountsistream.reset();
-            IoUtils.skipFully(playcountsistream, entrylen);
         }
 
         Collections.sort(recentPlays);
@@ -201,6 +226,19 @@ public class PlayCountsParser implements TrackItemParser {
         return recentPlays;
     }
 
+    /**
+     * Adds a played track to the recent plays, and tells the listener.
+     * @param recentPlays  The recent plays.
+     * @param track  The played track.
+     */
+    private void addPlay(List recentPlays, TrackItem track) {
+        recentPlays.add(track);
+
+        if (playListener != null) {
+            playListener.trackPlayed(track);
+        }
+    }
+
     /**
      * Manufactures a Track based on the given Track.
      * @param temptrack  The track to manufacture (if needed).
@@ -0,0 +1,35 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.parser;
+
+import org.lastpod.TrackItem;
+
+/**
+ * Is told about each recently played track as soon as a parser finds it,
+ * before the parser has finished and sorted the complete list.
+ * @author Chris Tilden
+ */
+public interface PlayListener {
+    /**
+     * Called when a played track has been found.  This is called on the
+     * thread doing the parsing.
+     * @param track  The track.
+     */
+    void trackPlayed(TrackItem track);
+}
@@ -0,0 +1,319 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.parser;
+
+import org.lastpod.TrackItem;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A compact, read-only index of the tracks in a memory-mapped iTunesDB.  Only
+ * the MHIT offset, track id and length of each track are kept.  The track's
+ * strings are decoded from the MHODs the first time the track is requested,
+ * so a Play Counts parser only pays for the tracks that were played.
+ * The index and the decoded tracks can be saved to, and restored from, a
+ * <code>TrackCatalogCache</code>.
+ * @author Chris Tilden
+ */
+public class TrackCatalog extends AbstractList {
+    /**
+     * The parser that decodes the MHIT and its MHODs.
+     */
+    private ItunesDbParser parser;
+
+    /**
+     * The iTunes database, in little-endian byte order.  This is
+     * <code>null</code> until a track needs decoding if the catalog was read
+     * from a cache.
+     */
+    private ByteBuffer itunesDb;
+
+    /**
+     * The location of each track's MHIT chunk.
+     */
+    private int[] mhitOffsets;
+
+    /**
+     * The id of each track.
+     */
+    private int[] trackIds;
+
+    /**
+     * The length of each track, in seconds.
+     */
+    private int[] lengths;
+
+    /**
+     * The number of tracks in the catalog.
+     */
+    private int size = 0;
+
+    /**
+     * The tracks that have already been decoded, keyed by index.
+     */
+    private Map decodedTracks = new HashMap();
+
+    /**
+     * The track, album, artist and location of each decoded track, before
+     * any "Various Artists" parsing, keyed by index.
+     */
+    private Map decodedStrings = new HashMap();
+
+    /**
+     * <code>true</code> if tracks have been decoded since the catalog was
+     * created or restored.
+     */
+    private boolean modified = false;
+
+    /**
+     * The fingerprint the iTunesDB had before the catalog was parsed from
+     * it, or <code>null</code> if it was not taken.
+     */
+    private long[] fingerprint = null;
+
+    /**
+     * Constructs an empty catalog.
+     * @param parser  The parser that decodes the MHIT and its MHODs.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param capacity  The number of tracks in the database.  The caller
+     * checks that the database is large enough to hold them.
+     */
+    TrackCatalog(ItunesDbParser parser, ByteBuffer itunesDb, int capacity) {
+        this.parser = parser;
+        this.itunesDb = itunesDb;
+        this.mhitOffsets = new int[capacity];
+        this.trackIds = new int[capacity];
+        this.lengths = new int[capacity];
+    }
+
+    /**
+     * Adds a track to the catalog.
+     * @param mhitOffset  The location of the track's MHIT chunk.
+     * @param trackId  The id of the track.
+     * @param length  The length of the track, in seconds.
+     */
+    void addTrack(int mhitOffset, long trackId, long length) {
+        mhitOffsets[size] = mhitOffset;
+        trackIds[size] = (int) trackId;
+        lengths[size] = (int) length;
+        size++;
+    }
+
+    /**
+     * Gets the id of a track without decoding it.
+     * @param index  The index of the track.
+     * @return  The id of the track.
+     */
+    public long getTrackid(int index) {
+        return trackIds[index] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Gets the length of a track, in seconds, without decoding it.
+     * @param index  The index of the track.
+     * @return  The length of the track, in seconds.
+     */
+    public long getLength(int index) {
+        return lengths[index] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Gets the track at the given index, decoding it if this is the first
+     * time it has been requested.  The same <code>TrackItem</code> is
+     * returned each time.
+     * @param index  The index of the track.
+     * @return  The <code>TrackItem</code> at the given index.
+     */
+    public Object get(int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        Integer key = new Integer(index);
+        TrackItem track = (TrackItem) decodedTracks.get(key);
+
+        if (track == null) {
+            try {
+                if (itunesDb == null) {
+                    itunesDb = parser.mapItunesDb();
+                }
+
+                track = parser.parsemhit(itunesDb, mhitOffsets[index]);
+            } catch (IOException e) {
+                throw new RuntimeException("Error reading iTunes Database");
+            }
+
+            decodedStrings.put(key,
+                new String[] {
+                    track.getTrack(), track.getAlbum(), track.getArtist(), track.getLocation()
+                });
+            parser.setupVariousArtists(track);
+            decodedTracks.put(key, track);
+            modified = true;
+        }
+
+        return track;
+    }
+
+    /**
+     * Gets the number of tracks in the catalog.
+     * @return  The number of tracks in the catalog.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the parser that decodes the MHIT and its MHODs.
+     * @return  The parser.
+     */
+    ItunesDbParser getParser() {
+        return parser;
+    }
+
+    /**
+     * Gets the fingerprint the iTunesDB had before the catalog was parsed
+     * from it.
+     * @return  The fingerprint, or <code>null</code> if it was not taken.
+     */
+    long[] getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Sets the fingerprint the iTunesDB had before the catalog was parsed
+     * from it.  The catalog is cached under this fingerprint.
+     * @param fingerprint  The fingerprint.
+     */
+    void setFingerprint(long[] fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns <code>true</code> if tracks have been decoded since the
+     * catalog was created or restored.
+     * @return  <code>true</code> if the catalog should be saved again.
+     */
+    boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Writes the index and the decoded tracks' strings.
+     * @param out  The stream to write to.
+     * @throws IOException  Thrown if errors occur.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+
+        for (int i = 0; i < size; i++) {
+            out.writeInt(mhitOffsets[i]);
+            out.writeInt(trackIds[i]);
+            out.writeInt(lengths[i]);
+        }
+
+        out.writeInt(decodedStrings.size());
+
+        Iterator entries = decodedStrings.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            Map.Entry entry = (Map.Entry) entries.next();
+            String[] strings = (String[]) entry.getValue();
+
+            out.writeInt(((Integer) entry.getKey()).intValue());
+
+            for (int i = 0; i < strings.length; i++) {
+                out.writeBoolean(strings[i] != null);
+
+                if (strings[i] != null) {
+                    out.writeUTF(strings[i]);
+                }
+            }
+        }
+
+        modified = false;
+    }
+
+    /**
+     * Reads a catalog written by <code>write</code>.  The iTunesDB is only
+     * mapped if a track that was not saved is requested.
+     * @param parser  The parser that decodes the MHIT and its MHODs.
+     * @param in  The stream to read from.
+     * @return  The restored catalog.
+     * @throws IOException  Thrown if errors occur.
+     */
+    static TrackCatalog read(ItunesDbParser parser, DataInputStream in)
+            throws IOException {
+        int capacity = in.readInt();
+        long maxTracks = parser.getItunesFile().length() / ItunesDbParser.MHIT_HEADER_LENGTH;
+
+        if ((capacity < 0) || (capacity > maxTracks)) {
+            throw new IOException("Invalid track count " + capacity);
+        }
+
+        TrackCatalog catalog = new TrackCatalog(parser, null, capacity);
+
+        for (int i = 0; i < capacity; i++) {
+            catalog.mhitOffsets[i] = in.readInt();
+            catalog.trackIds[i] = in.readInt();
+            catalog.lengths[i] = in.readInt();
+        }
+
+        catalog.size = capacity;
+
+        int numDecoded = in.readInt();
+
+        for (int i = 0; i < numDecoded; i++) {
+            int index = in.readInt();
+
+            if ((index < 0) || (index >= capacity)) {
+                throw new IOException("Invalid track index " + index);
+            }
+
+            String[] strings = new String[4];
+
+            for (int j = 0; j < strings.length; j++) {
+                strings[j] = in.readBoolean() ? in.readUTF() : null;
+            }
+
+            TrackItem track = parser.createTrackItem();
+            track.setTrackid(catalog.getTrackid(index));
+            track.setLength(catalog.getLength(index));
+            track.setTrack(strings[0]);
+            track.setAlbum(strings[1]);
+            track.setArtist(strings[2]);
+            track.setLocation(strings[3]);
+
+            Integer key = new Integer(index);
+            catalog.decodedStrings.put(key, strings);
+            catalog.decodedTracks.put(key, track);
+        }
+
+        return catalog;
+    }
+}
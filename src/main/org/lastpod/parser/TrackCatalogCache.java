@@ -0,0 +1,213 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.parser;
+
+import org.lastpod.util.IoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Stores a <code>TrackCatalog</code> in a compact binary file next to the
+ * history file, so the iTunesDB does not have to be parsed again until it
+ * changes.  The cache is keyed by the iTunesDB's size, modification time and a
+ * checksum of its first few kilobytes.
+ * @author Chris Tilden
+ */
+public class TrackCatalogCache {
+    /**
+     * The name of the cache file.
+     */
+    private static final String CACHE_FILE = "tracks.cache";
+
+    /**
+     * The suffix of the file the cache is written to before it replaces the
+     * cache file.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Identifies a track catalog cache file ("LPTC").
+     */
+    private static final int MAGIC = 0x4C505443;
+
+    /**
+     * The version of the cache file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The number of bytes at the start of the iTunesDB that are checksummed.
+     */
+    private static final int CHECKSUM_LENGTH = 4096;
+
+    /**
+     * The logger.
+     */
+    private Logger logger = Logger.getLogger(getClass().getPackage().getName());
+
+    /**
+     * The cache file.
+     */
+    private File cacheFile;
+
+    /**
+     * Constructs the cache for the given iTunes path.
+     * @param iTunesPath  The path to the iPod's iTunes DB.  The cache is
+     * stored there.
+     */
+    public TrackCatalogCache(String iTunesPath) {
+        this.cacheFile = new File(iTunesPath, CACHE_FILE);
+    }
+
+    /**
+     * Reads the cached catalog, if it was written for the parser's iTunesDB
+     * as it is now.
+     * @param parser  The parser for the iTunesDB.
+     * @param fingerprint  The fingerprint of the iTunesDB, taken before it
+     * is parsed.
+     * @return  The cached catalog, or <code>null</code> if there is no cache
+     * or the iTunesDB has changed.
+     */
+    TrackCatalog read(ItunesDbParser parser, long[] fingerprint) {
+        InputStream in = null;
+
+        try {
+            in = new BufferedInputStream(new FileInputStream(cacheFile), 65535);
+
+            DataInputStream dataIn = new DataInputStream(in);
+
+            if ((dataIn.readInt() != MAGIC) || (dataIn.readInt() != VERSION)) {
+                return null;
+            }
+
+            for (int i = 0; i < fingerprint.length; i++) {
+                if (dataIn.readLong() != fingerprint[i]) {
+                    return null;
+                }
+            }
+
+            TrackCatalog catalog = TrackCatalog.read(parser, dataIn);
+            catalog.setFingerprint(fingerprint);
+
+            return catalog;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warning("Ignoring unreadable track cache: " + e);
+
+            return null;
+        } finally {
+            IoUtils.cleanup(in, null);
+        }
+    }
+
+    /**
+     * Writes the catalog to the cache, keyed by the fingerprint the iTunesDB
+     * had before the catalog was parsed from it.  If the iTunesDB changed
+     * during the parse, the cache is therefore ignored the next time.  The
+     * catalog is written to a new file, which then replaces the cache, so a
+     * write that is interrupted never leaves a truncated cache behind.
+     * @param catalog  The catalog to write.
+     */
+    void write(TrackCatalog catalog) {
+        long[] fingerprint = catalog.getFingerprint();
+
+        if (fingerprint == null) {
+            return;
+        }
+
+        File tempFile = new File(cacheFile.getPath() + TEMP_SUFFIX);
+        FileOutputStream fileOut = null;
+        DataOutputStream out = null;
+        boolean written = false;
+
+        try {
+            fileOut = new FileOutputStream(tempFile);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            for (int i = 0; i < fingerprint.length; i++) {
+                out.writeLong(fingerprint[i]);
+            }
+
+            catalog.write(out);
+            out.flush();
+            fileOut.getFD().sync();
+            written = true;
+        } catch (IOException e) {
+            logger.warning("Error while writing the track cache");
+        } finally {
+            IoUtils.cleanup(null, out);
+        }
+
+        if (!written) {
+            tempFile.delete();
+
+            return;
+        }
+
+        /* Some platforms cannot rename over an existing file.  If the
+         * application stops between the delete and the second rename, the
+         * track list is only parsed again. */
+        if (!tempFile.renameTo(cacheFile)) {
+            cacheFile.delete();
+
+            if (!tempFile.renameTo(cacheFile)) {
+                logger.warning("Cannot rename " + tempFile);
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Computes the fingerprint of the iTunesDB.
+     * @param itunesFile  The iTunesDB file.
+     * @return  The size, modification time and header checksum of the file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    static long[] fingerprint(File itunesFile) throws IOException {
+        byte[] header = new byte[(int) Math.min(CHECKSUM_LENGTH, itunesFile.length())];
+        InputStream in = null;
+
+        try {
+            in = new FileInputStream(itunesFile);
+            IoUtils.readFully(in, header, 0, header.length);
+        } finally {
+            IoUtils.cleanup(in, null);
+        }
+
+        CRC32 checksum = new CRC32();
+        checksum.update(header);
+
+        return new long[] { itunesFile.length(), itunesFile.lastModified(), checksum.getValue() };
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.parser;
+
+import org.lastpod.TrackItem;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Walks forward through the MHITs of a memory-mapped iTunesDB.  Tracks that
+ * are skipped over are neither decoded nor remembered, so a Play Counts file
+ * can be joined against the iTunesDB in a single pass without holding the
+ * library in memory.  Tracks must be requested in increasing index order.
+ * @author Chris Tilden
+ */
+public class TrackCursor {
+    /**
+     * The parser that decodes the MHIT and its MHODs.
+     */
+    private ItunesDbParser parser;
+
+    /**
+     * The iTunes database, in little-endian byte order.
+     */
+    private ByteBuffer itunesDb;
+
+    /**
+     * The number of tracks in the track list.
+     */
+    private int numTracks;
+
+    /**
+     * The index of the track the cursor is on.
+     */
+    private int index = 0;
+
+    /**
+     * The location of the MHIT chunk of the track the cursor is on.
+     */
+    private int offset;
+
+    /**
+     * Constructs a cursor positioned on the first track.
+     * @param parser  The parser that decodes the MHIT and its MHODs.
+     * @param itunesDb  The iTunes database, in little-endian byte order.
+     * @param offset  The location of the first MHIT chunk.
+     * @param numTracks  The number of tracks in the track list.
+     */
+    TrackCursor(ItunesDbParser parser, ByteBuffer itunesDb, int offset, int numTracks) {
+        this.parser = parser;
+        this.itunesDb = itunesDb;
+        this.offset = offset;
+        this.numTracks = numTracks;
+    }
+
+    /**
+     * Moves the cursor forward to the given track and decodes it.
+     * @param trackIndex  The index of the track, which may not be less than
+     * the index of the previously requested track.
+     * @return  The decoded <code>TrackItem</code>.
+     */
+    public TrackItem getTrack(int trackIndex) {
+        if ((trackIndex < index) || (trackIndex >= numTracks)) {
+            throw new IndexOutOfBoundsException("Index: " + trackIndex + ", Cursor: " + index
+                + ", Size: " + numTracks);
+        }
+
+        TrackItem track = null;
+
+        try {
+            while (index < trackIndex) {
+                offset +=
+                    ItunesDbParser.chunkLength(itunesDb, offset, 8,
+                        ItunesDbParser.MHIT_HEADER_LENGTH, "mhit");
+                index++;
+            }
+
+            if (!ItunesDbParser.hasChunkTag(itunesDb, offset, ItunesDbParser.MHIT)) {
+                throw new RuntimeException("Error reading iTunes Database");
+            }
+
+            track = parser.parsemhit(itunesDb, offset);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading iTunes Database");
+        }
+
+        parser.setupVariousArtists(track);
+
+        return track;
+    }
+
+    /**
+     * Gets the number of tracks in the track list.
+     * @return  The number of tracks in the track list.
+     */
+    public int size() {
+        return numTracks;
+    }
+}
@@ -18,13 +18,15 @@
  */
 package org.lastpod.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Writer;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
 /**
  * Contains various I/O utility functions.
@@ -91,25 +93,93 @@ public final class IoUtils {
     }
 
     /**
-     * This converts any size byte array to a BigInteger.
-     * @param num  Little-Endian byte array.
-     * @return A BigInt.
+     * Given a <code>RandomAccessFile</code> object attempt to close the
+     * resource.  This method is null safe.
+     * @param file  The resource to attempt to close.
      */
-    public static BigInteger littleEndianToBigInt(byte[] num) {
-        byte temp;
-
-        int upperBound = num.length - 1;
-        int lowerBound = 0;
-
-        while (lowerBound < upperBound) {
-            temp = num[lowerBound];
-            num[lowerBound] = num[upperBound];
-            num[upperBound] = temp;
-            lowerBound++;
-            upperBound--;
+    public static void cleanup(RandomAccessFile file) {
+        try {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        } catch (IOException e) {
+            /* Cannot close, just give up. */
+        }
+    }
+
+    /**
+     * Decodes an unsigned little-endian value of up to eight bytes.  The array
+     * is not modified.
+     * @param data  The bytes to read from.
+     * @param offset  The location of the first (least significant) byte.
+     * @param length  The number of bytes in the value.
+     * @return  The decoded value.
+     */
+    public static long littleEndianToLong(byte[] data, int offset, int length) {
+        long value = 0;
+
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    /**
+     * Decodes an unsigned little-endian value of up to eight bytes, using
+     * absolute reads so the buffer's position is left untouched.
+     * @param data  The buffer to read from.
+     * @param offset  The location of the first (least significant) byte.
+     * @param length  The number of bytes in the value.
+     * @return  The decoded value.
+     */
+    public static long littleEndianToLong(ByteBuffer data, int offset, int length) {
+        long value = 0;
+
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (data.get(offset + i) & 0xFF);
         }
 
-        return new BigInteger(1, num);
+        return value;
+    }
+
+    /**
+     * Decodes an unsigned big-endian value of up to eight bytes.
+     * @param data  The bytes to read from.
+     * @param offset  The location of the first (most significant) byte.
+     * @param length  The number of bytes in the value.
+     * @return  The decoded value.
+     */
+    public static long bigEndianToLong(byte[] data, int offset, int length) {
+        long value = 0;
+
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads exactly <code>length</code> bytes from the stream.
+     * @param stream  Input Stream.
+     * @param data  The array to read into.
+     * @param offset  The location in the array to start storing bytes at.
+     * @param length  Number of bytes to read.
+     * @throws IOException  Thrown if errors occur, or the stream ends early.
+     */
+    public static void readFully(InputStream stream, byte[] data, int offset, int length)
+            throws IOException {
+        for (int read = 0; read < length;) {
+            int count = stream.read(data, offset + read, length - read);
+
+            if (count == -1) {
+                throw new EOFException();
+            }
+
+            read += count;
+        }
     }
 
     /**
@@ -0,0 +1,206 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive <code>long</code> values, stored in a single open
+ * addressing table with linear probing.  Adding and looking up values does
+ * not allocate any objects.
+ * @author Chris Tilden
+ */
+public class LongHashSet {
+    /**
+     * Marks an empty slot in the table.  The value itself is tracked by
+     * <code>containsEmptyValue</code>.
+     */
+    private static final long EMPTY = 0L;
+
+    /**
+     * The table is grown once it is more than this fraction full.
+     */
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /**
+     * The slots of the table.  The length is always a power of two.
+     */
+    private long[] table;
+
+    /**
+     * The number of values in the table.
+     */
+    private int size = 0;
+
+    /**
+     * <code>true</code> if the set contains the <code>EMPTY</code> value.
+     */
+    private boolean containsEmptyValue = false;
+
+    /**
+     * Constructs an empty set.
+     */
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty set that can hold the given number of values
+     * without growing.
+     * @param expectedSize  The expected number of values.
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = 16;
+
+        while ((capacity * LOAD_FACTOR) < expectedSize) {
+            capacity <<= 1;
+        }
+
+        table = new long[capacity];
+    }
+
+    /**
+     * Adds a value to the set.
+     * @param value  The value to add.
+     * @return  <code>true</code> if the value was not already in the set.
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (containsEmptyValue) {
+                return false;
+            }
+
+            containsEmptyValue = true;
+            size++;
+
+            return true;
+        }
+
+        int slot = findSlot(table, value);
+
+        if (table[slot] == value) {
+            return false;
+        }
+
+        table[slot] = value;
+        size++;
+
+        if (size > (table.length * LOAD_FACTOR)) {
+            grow();
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the value is in the set.
+     * @param value  The value to look up.
+     * @return  <code>true</code> if the value is in the set.
+     */
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return containsEmptyValue;
+        }
+
+        return table[findSlot(table, value)] == value;
+    }
+
+    /**
+     * Gets the number of values in the set.
+     * @return  The number of values in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all of the values from the set.
+     */
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        containsEmptyValue = false;
+        size = 0;
+    }
+
+    /**
+     * Copies the values of the set into a new array, in no particular order.
+     * @return  The values of the set.
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int index = 0;
+
+        if (containsEmptyValue) {
+            values[index++] = EMPTY;
+        }
+
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != EMPTY) {
+                values[index++] = table[i];
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Doubles the size of the table and re-inserts the values.
+     */
+    private void grow() {
+        long[] newTable = new long[table.length << 1];
+
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] != EMPTY) {
+                newTable[findSlot(newTable, table[i])] = table[i];
+            }
+        }
+
+        table = newTable;
+    }
+
+    /**
+     * Finds the slot that holds the value, or the empty slot where it would
+     * be added.
+     * @param slots  The table to search.
+     * @param value  The value to search for.
+     * @return  The index of the slot.
+     */
+    private static int findSlot(long[] slots, long value) {
+        int mask = slots.length - 1;
+        int slot = hash(value) & mask;
+
+        while ((slots[slot] != EMPTY) && (slots[slot] != value)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Spreads the bits of the value, so that timestamps which only differ in
+     * their low bits do not cluster together.
+     * @param value  The value to hash.
+     * @return  The hash code of the value.
+     */
+    private static int hash(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>ConsoleView</code>.
+ * @author Chris Tilden
+ */
+public class ConsoleViewTest extends TestCase {
+    /**
+     * Collects the output of the view.
+     */
+    private ByteArrayOutputStream output;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(ConsoleViewTest.class);
+    }
+
+    /**
+     * Creates the output buffer.
+     */
+    protected void setUp() {
+        output = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Tests quoting strings for JSON.
+     */
+    public void testQuote() {
+        assertEquals("null", ConsoleView.quote(null));
+        assertEquals("\"AC/DC\"", ConsoleView.quote("AC/DC"));
+        assertEquals("\"say \\\"hi\\\" \\\\ bye\"", ConsoleView.quote("say \"hi\" \\ bye"));
+        assertEquals("\"a\\nb\\u0001\"", ConsoleView.quote("a\nb\u0001"));
+        assertEquals("\"Bj\\u00f6rk\"", ConsoleView.quote("Bj\u00F6rk"));
+    }
+
+    /**
+     * Tests the JSON progress of a submission.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testJsonProgress() throws IOException {
+        ConsoleView view = new ConsoleView(new PrintStream(output, true), true);
+        view.newTrackListAvailable(createTracks());
+        view.setNumberOfChunks(3);
+        view.updateCurrentChunk(2);
+        view.setSubmitStatusMessage("Done.");
+        view.setCompletionStatus(true);
+
+        String[] lines = output.toString("US-ASCII").split("\r?\n");
+        assertEquals(4, lines.length);
+        assertEquals("{\"event\":\"tracks\",\"total\":2,\"active\":1}", lines[0]);
+        assertEquals("{\"event\":\"progress\",\"current\":2,\"total\":3}", lines[1]);
+        assertEquals("{\"event\":\"status\",\"message\":\"Done.\"}", lines[2]);
+        assertEquals("{\"event\":\"complete\",\"success\":true}", lines[3]);
+        assertTrue(view.isCompleted());
+        assertNull(view.getError());
+    }
+
+    /**
+     * Tests that an error is reported and kept.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testError() throws IOException {
+        ConsoleView view = new ConsoleView(new PrintStream(output, true), false);
+        IOException error = new IOException("Connection refused");
+        view.showError(error);
+
+        assertSame(error, view.getError());
+        assertFalse(view.isCompleted());
+        assertEquals("Error: Connection refused", output.toString("US-ASCII").trim());
+    }
+
+    /**
+     * Tests the exit status of a command line that is not understood.
+     */
+    public void testUsage() {
+        PrintStream out = new PrintStream(output, true);
+        assertEquals(HeadlessLastPod.EXIT_USAGE,
+            HeadlessLastPod.run(new String[] { "--bogus" }, out, out));
+        assertEquals(HeadlessLastPod.EXIT_USAGE,
+            HeadlessLastPod.run(new String[] { "-o", "-c" }, out, out));
+        assertEquals(HeadlessLastPod.EXIT_SUCCESS,
+            HeadlessLastPod.run(new String[] { "--help" }, out, out));
+    }
+
+    /**
+     * Creates a track list with one active and one inactive track.
+     * @return  The track list.
+     */
+    private List createTracks() {
+        List tracks = new ArrayList();
+        TrackItem track = new TrackItem();
+        tracks.add(track);
+
+        track = new TrackItem();
+        track.setActive(Boolean.FALSE);
+        tracks.add(track);
+
+        return tracks;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>DeviceIngest</code>.
+ * @author Chris Tilden
+ */
+public class DeviceIngestTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(DeviceIngestTest.class);
+    }
+
+    /**
+     * Tests that the tracks of several iPods are merged in the order they
+     * were played.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testMerge() throws Exception {
+        DeviceIngest ingest = new DeviceIngest(new StubParser(), 2);
+        List tracks = ingest.ingest(new String[] { "100,400,700", "200,500", "300,600,800" });
+
+        assertEquals(8, tracks.size());
+
+        for (int i = 0; i < tracks.size(); i++) {
+            assertEquals((i + 1) * 100, ((TrackItem) tracks.get(i)).getLastplayed());
+        }
+
+        assertEquals("200,500", ((TrackItem) tracks.get(1)).getItunesPath());
+    }
+
+    /**
+     * Tests that the iPods are parsed at the same time.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testParallel() throws Exception {
+        StubParser parser = new StubParser();
+        parser.delayMillis = 200;
+
+        long start = System.currentTimeMillis();
+        new DeviceIngest(parser, 4).ingest(new String[] { "1", "2", "3", "4" });
+
+        assertTrue(System.currentTimeMillis() - start < 700);
+        assertEquals(4, parser.maxConcurrent);
+    }
+
+    /**
+     * Tests that an iPod that can not be parsed is left out, and that the
+     * error is thrown if no iPod could be parsed.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testFailure() throws Exception {
+        DeviceIngest ingest = new DeviceIngest(new StubParser(), 2);
+        List tracks = ingest.ingest(new String[] { "fail", "100,200" });
+        assertEquals(2, tracks.size());
+
+        try {
+            ingest.ingest(new String[] { "fail" });
+            fail("Expected the parse error");
+        } catch (IllegalStateException e) {
+            assertEquals("fail", e.getMessage());
+        }
+    }
+
+    /**
+     * Creates tracks from a comma separated list of play times given as the
+     * path.  The path "fail" fails.
+     */
+    private static class StubParser implements DeviceParser {
+        /**
+         * How long each parse takes.
+         */
+        private long delayMillis = 0;
+
+        /**
+         * The number of parses running.
+         */
+        private int concurrent = 0;
+
+        /**
+         * The largest number of parses that ran at the same time.
+         */
+        private int maxConcurrent = 0;
+
+        /**
+         * Parses the play times in the path.
+         * @param iTunesPath  The play times.
+         * @return  The tracks.
+         * @throws Exception  Thrown if the path is "fail".
+         */
+        public List parse(String iTunesPath) throws Exception {
+            synchronized (this) {
+                concurrent++;
+                maxConcurrent = Math.max(maxConcurrent, concurrent);
+            }
+
+            try {
+                Thread.sleep(delayMillis);
+
+                if (iTunesPath.equals("fail")) {
+                    throw new IllegalStateException("fail");
+                }
+
+                String[] times = iTunesPath.split(",");
+                List tracks = new ArrayList();
+
+                for (int i = 0; i < times.length; i++) {
+                    TrackItem track = new TrackItem();
+                    track.setLastplayed(Long.parseLong(times[i]));
+                    track.setItunesPath(iTunesPath);
+                    tracks.add(track);
+                }
+
+                return tracks;
+            } finally {
+                synchronized (this) {
+                    concurrent--;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>DeviceMonitor</code>.
+ * @author Chris Tilden
+ */
+public class DeviceMonitorTest extends TestCase {
+    /**
+     * The iTunes folder of the simulated iPod.
+     */
+    private File iTunesDir;
+
+    /**
+     * The paths reported by the monitor, one list per report.
+     */
+    private List reports;
+
+    /**
+     * The monitor under test.
+     */
+    private DeviceMonitor monitor;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(DeviceMonitorTest.class);
+    }
+
+    /**
+     * Creates an empty iTunes folder and the monitor.
+     * @throws Exception  Thrown if errors occur.
+     */
+    protected void setUp() throws Exception {
+        iTunesDir = File.createTempFile("lastpod", "");
+        iTunesDir.delete();
+        iTunesDir.mkdir();
+        reports = new ArrayList();
+
+        Model model =
+            new MockModel() {
+                public String[] getItunesPaths() {
+                    return new String[] { iTunesDir.getPath() };
+                }
+            };
+
+        monitor =
+            new DeviceMonitor(model, 1000,
+                new DeviceListener() {
+                    public void devicesChanged(String[] iTunesPaths) {
+                        reports.add(iTunesPaths[0]);
+                    }
+                });
+    }
+
+    /**
+     * Removes the iTunes folder.
+     */
+    protected void tearDown() {
+        History.release(iTunesDir.getPath());
+
+        File[] files = iTunesDir.listFiles();
+
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+
+        iTunesDir.delete();
+    }
+
+    /**
+     * Tests that an iPod that is docked when the monitor starts is reported
+     * straight away, and only once.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testDockedAtStart() throws IOException {
+        writeFile("iTunesDB", 10);
+
+        monitor.poll();
+        assertEquals(1, reports.size());
+        assertEquals(iTunesDir.getPath(), reports.get(0));
+
+        monitor.poll();
+        assertEquals(1, reports.size());
+    }
+
+    /**
+     * Tests that a change to the play counts is reported once it has stopped
+     * changing.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testPlayCountsChanged() throws IOException {
+        writeFile("iTunesDB", 10);
+        monitor.poll();
+
+        writeFile("Play Counts", 20);
+        monitor.poll();
+        assertEquals(1, reports.size());
+
+        writeFile("Play Counts", 30);
+        monitor.poll();
+        assertEquals(1, reports.size());
+
+        monitor.poll();
+        assertEquals(2, reports.size());
+    }
+
+    /**
+     * Tests that an iPod is reported when it is docked, and again when it is
+     * docked a second time.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testDocking() throws IOException {
+        monitor.poll();
+        assertEquals(0, reports.size());
+
+        writeFile("iTunesDB", 10);
+        monitor.poll();
+        assertEquals(0, reports.size());
+        monitor.poll();
+        assertEquals(1, reports.size());
+
+        new File(iTunesDir, "iTunesDB").delete();
+        monitor.poll();
+
+        writeFile("iTunesDB", 10);
+        monitor.poll();
+        monitor.poll();
+        assertEquals(2, reports.size());
+    }
+
+    /**
+     * Tests that an iPod docked in place of another one uses its own
+     * history, not the history of the iPod that was docked before.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testHistorySwapped() throws IOException {
+        writeFile("iTunesDB", 10);
+        writeHistory(1180000000L);
+        monitor.poll();
+        assertEquals(1, reports.size());
+        assertTrue(History.getInstance(iTunesDir.getPath()).isInHistory(1180000000L));
+
+        new File(iTunesDir, "iTunesDB").delete();
+        new File(iTunesDir, "history.dat").delete();
+        monitor.poll();
+
+        writeFile("iTunesDB", 20);
+        writeHistory(1190000000L);
+        monitor.poll();
+        monitor.poll();
+        assertEquals(2, reports.size());
+
+        History history = History.getInstance(iTunesDir.getPath());
+        assertTrue(history.isInHistory(1190000000L));
+        assertFalse(history.isInHistory(1180000000L));
+    }
+
+    /**
+     * Tests that the history of an iPod that was read before the iPod was
+     * docked is read again once it is reported.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testHistoryReadBeforeDocking() throws IOException {
+        assertFalse(History.getInstance(iTunesDir.getPath()).isInHistory(1180000000L));
+
+        writeFile("iTunesDB", 10);
+        writeHistory(1180000000L);
+        monitor.poll();
+        assertEquals(1, reports.size());
+        assertTrue(History.getInstance(iTunesDir.getPath()).isInHistory(1180000000L));
+    }
+
+    /**
+     * Writes a history file holding one timestamp to the iTunes folder.
+     * @param historyTime  The timestamp.
+     */
+    private void writeHistory(long historyTime) {
+        History history = new History(iTunesDir);
+        history.addhistory(historyTime);
+        history.write();
+    }
+
+    /**
+     * Writes a file of the given length to the iTunes folder.
+     * @param name  The name of the file.
+     * @param length  The length of the file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void writeFile(String name, int length) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(iTunesDir, name));
+
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+}
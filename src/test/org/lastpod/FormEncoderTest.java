@@ -0,0 +1,111 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.UnsupportedEncodingException;
+
+import java.net.URLEncoder;
+
+import java.text.SimpleDateFormat;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Tests that the <code>FormEncoder</code> produces the same bytes as
+ * <code>URLEncoder</code> and <code>SimpleDateFormat</code>.
+ * @author Chris Tilden
+ */
+public class FormEncoderTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(FormEncoderTest.class);
+    }
+
+    /**
+     * Tests encoding values with ASCII, accented, CJK and supplementary
+     * characters.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     */
+    public void testValues() throws UnsupportedEncodingException {
+        String[] values =
+            new String[] {
+                "", "Bob Marley & The Wailers", "No Woman, No Cry (live)", "a.b-c*d_e+f~g/h",
+                "Sigur R\u00F3s", "\u00C6gis\u00ED\u00F0a", "\u6771\u4EAC\u4E8B\u5909",
+                "\uD834\uDD1E clef", "100% \"pure\"", "broken \uD834 surrogate"
+            };
+        FormEncoder encoder = new FormEncoder(16);
+
+        for (int i = 0; i < values.length; i++) {
+            encoder.reset();
+            encoder.appendValue(values[i]);
+            assertEquals(URLEncoder.encode(values[i], "UTF-8"), encoder.toString());
+        }
+    }
+
+    /**
+     * Tests formatting dates against <code>SimpleDateFormat</code>.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     */
+    public void testDates() throws UnsupportedEncodingException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        Random random = new Random(7);
+        FormEncoder encoder = new FormEncoder();
+
+        for (int i = 0; i < 1000; i++) {
+            long seconds = (i < 3) ? new long[] { 0, 951782400, 4107542399L }[i]
+                                   : (random.nextLong() & 0xFFFFFFFFL);
+            encoder.reset();
+            encoder.appendDate(seconds);
+
+            String expected = URLEncoder.encode(format.format(new Date(seconds * 1000)), "UTF-8");
+            assertEquals(expected, encoder.toString());
+        }
+    }
+
+    /**
+     * Tests the parameters of an encoded track.
+     */
+    public void testEncodeTrack() {
+        TrackItem track = new TrackItem();
+        track.setArtist("Korn");
+        track.setAlbum("Issues");
+        track.setTrack("Beg for Me");
+        track.setLength(233);
+        track.setLastplayed(1170000000);
+
+        FormEncoder encoder = new FormEncoder();
+        encoder.appendEncoded("u=test&s=abc");
+        Scrobbler.encodeTrack(encoder, track, 12);
+
+        assertEquals("u=test&s=abc&a[12]=Korn&t[12]=Beg+for+Me&b[12]=Issues&m[12]="
+            + "&l[12]=233&i[12]=2007-01-28+16%3A00%3A00", encoder.toString());
+        assertEquals(encoder.length(), encoder.toByteArray().length);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Tests the <code>History</code> index.
+ * @author Chris Tilden
+ */
+public class HistoryTest extends TestCase {
+    /**
+     * The directory the history is stored in.
+     */
+    private File historyDir;
+
+    /**
+     * The binary history index.
+     */
+    private File indexFile;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(HistoryTest.class);
+    }
+
+    /**
+     * Creates a temporary history directory.
+     * @throws Exception  Thrown if errors occur.
+     */
+    protected void setUp() throws Exception {
+        historyDir = File.createTempFile("lastpod", "");
+        historyDir.delete();
+        historyDir.mkdir();
+        indexFile = new File(historyDir, "history.dat");
+    }
+
+    /**
+     * Removes the temporary history directory.
+     */
+    protected void tearDown() {
+        File[] files = historyDir.listFiles();
+
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+
+        historyDir.delete();
+    }
+
+    /**
+     * Tests that each iPod gets its own history.
+     */
+    public void testInstancePerDevice() {
+        File otherDir = new File(historyDir, "other");
+        otherDir.mkdir();
+
+        try {
+            History history = History.getInstance(historyDir.getPath());
+            History otherHistory = History.getInstance(otherDir.getPath());
+            assertNotSame(history, otherHistory);
+            assertSame(history, History.getInstance(historyDir.getPath() + File.separator));
+
+            history.addhistory(1180000000L);
+            assertTrue(history.isInHistory(1180000000L));
+            assertFalse(otherHistory.isInHistory(1180000000L));
+        } finally {
+            otherDir.delete();
+        }
+    }
+
+    /**
+     * Tests that each write appends only the new histories.
+     */
+    public void testAppend() {
+        History history = createHistory();
+        history.addhistory(1180000000L);
+        history.addhistory(1180000300L);
+        history.write();
+        assertEquals(16 + 16, indexFile.length());
+
+        history.addhistory(1180000300L);
+        history.addhistory(1180000600L);
+        history.write();
+        assertEquals(16 + 24, indexFile.length());
+
+        history = createHistory();
+        assertTrue(history.isInHistory(1180000000L));
+        assertTrue(history.isInHistory(1180000300L));
+        assertTrue(history.isInHistory(1180000600L));
+        assertFalse(history.isInHistory(1180000900L));
+    }
+
+    /**
+     * Tests migrating a text history file to the history index.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testMigration() throws IOException {
+        writeTextHistory("1180000600\n1180000000\n\n1180000300\n11800");
+
+        History history = createHistory();
+        assertTrue(history.isInHistory(1180000000L));
+        assertTrue(history.isInHistory(1180000300L));
+        assertTrue(history.isInHistory(1180000600L));
+        assertFalse(history.isInHistory(11800L));
+        assertFalse(new File(historyDir, "history.txt").exists());
+        assertEquals(16 + 24, indexFile.length());
+    }
+
+    /**
+     * Tests that a journal entry cut short by a crash is ignored.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testIncompleteEntry() throws IOException {
+        History history = createHistory();
+        history.addhistory(1180000000L);
+        history.write();
+
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        file.seek(file.length());
+        file.write(new byte[] { 1, 2, 3 });
+        file.close();
+
+        history = createHistory();
+        assertTrue(history.isInHistory(1180000000L));
+        assertEquals(16 + 8, indexFile.length());
+    }
+
+    /**
+     * Tests that a large journal is merged into the sorted timestamps.
+     */
+    public void testCompaction() {
+        History history = createHistory();
+
+        for (int i = 1200; i >= 0; i--) {
+            history.addhistory(1170000000L + (i * 60));
+        }
+
+        history.write();
+
+        history = createHistory();
+        assertTrue(history.isInHistory(1170000000L));
+        assertTrue(history.isInHistory(1170000000L + (600 * 60)));
+        assertTrue(history.isInHistory(1170000000L + (1200 * 60)));
+        assertFalse(history.isInHistory(1170000001L));
+
+        history.addhistory(1180000000L);
+        history.write();
+
+        history = createHistory();
+        assertTrue(history.isInHistory(1180000000L));
+        assertTrue(history.isInHistory(1170000000L + (1200 * 60)));
+    }
+
+    /**
+     * Creates a <code>History</code> and reads the history index.
+     * @return  The <code>History</code>.
+     */
+    private History createHistory() {
+        History history = new History(historyDir);
+        history.read();
+
+        return history;
+    }
+
+    /**
+     * Writes a text history file.
+     * @param content  The content of the history file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void writeTextHistory(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(historyDir, "history.txt"));
+
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+}
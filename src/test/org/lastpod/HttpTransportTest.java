@@ -0,0 +1,103 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.net.URL;
+
+/**
+ * Tests the <code>HttpTransport</code> against a local stub server.
+ * @author Chris Tilden
+ */
+public class HttpTransportTest extends TestCase {
+    /**
+     * The stub server.
+     */
+    private StubHttpServer server;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(HttpTransportTest.class);
+    }
+
+    /**
+     * Starts the stub server.
+     * @throws Exception  Thrown if errors occur.
+     */
+    protected void setUp() throws Exception {
+        server = new StubHttpServer(new String[] { "UPTODATE\nchallenge\n", "OK\nINTERVAL 0\n" });
+    }
+
+    /**
+     * Stops the stub server.
+     */
+    protected void tearDown() {
+        server.close();
+    }
+
+    /**
+     * Tests that the handshake and the submissions share one connection.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testConnectionReuse() throws Exception {
+        HttpTransport transport = new HttpTransport();
+
+        assertEquals("UPTODATE\nchallenge\n",
+            transport.get(new URL(server.getUrl() + "/?hs=true")).toString());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("OK\nINTERVAL 0\n",
+                transport.post(new URL(server.getUrl() + "/protocol_1.1"), "u=test&s=" + i)
+                         .toString());
+        }
+
+        assertEquals(4, transport.getRequestCount());
+        assertEquals(1, server.getConnectionCount());
+        assertEquals("POST /protocol_1.1 HTTP/1.1\nu=test&s=2", server.getRequests().get(3));
+    }
+
+    /**
+     * Tests that a status other than 200 is reported with its code, and
+     * that the connection is still reused afterwards.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testStatusCode() throws Exception {
+        server.setStatusCodes(new int[] { 503, 200 });
+
+        HttpTransport transport = new HttpTransport();
+
+        try {
+            transport.get(new URL(server.getUrl() + "/?hs=true"));
+            fail("Expected an HttpStatusException");
+        } catch (HttpStatusException e) {
+            assertEquals(503, e.getResponseCode());
+            assertTrue(e.isServerError());
+        }
+
+        assertEquals("OK\nINTERVAL 0\n",
+            transport.post(new URL(server.getUrl() + "/protocol_1.1"), "u=test").toString());
+        assertEquals(1, server.getConnectionCount());
+    }
+}
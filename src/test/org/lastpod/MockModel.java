@@ -69,14 +69,26 @@ public class MockModel implements Model {
         }
     }
 
-    public Object submitTracks(UI userInterface, boolean online) {
+    public Object submitTracks(ModelView userInterface, boolean online) {
         return LastPod.NO_PREFS_ERROR;
     }
 
+    public Object submitCachedTracks(ModelView userInterface) {
+        return LastPod.NO_PREFS_ERROR;
+    }
+
+    public String[] getItunesPaths() {
+        return new String[] { "." };
+    }
+
+    public int queueRecentlyPlayed() {
+        return 0;
+    }
+
     /**
      * Parses the play counts and track information from the iPod.
      */
-    public void parsePlayCounts(UI userInterface) {
+    public void parsePlayCounts(ModelView userInterface) {
         Calendar cal = Calendar.getInstance();
         cal.set(Calendar.YEAR, 2007);
         cal.set(Calendar.MONTH, Calendar.MAY);
@@ -22,6 +22,19 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.prefs.Preferences;
+
 /**
  * Tests the <code>DbReader</code> object.
  * @author Chris Tilden
@@ -76,4 +89,218 @@ public class ModelImplTest extends TestCase {
         assertEquals("__Soundtracks", splitVariousArtistsStrings[1]);
         assertEquals("__Compilations", splitVariousArtistsStrings[2]);
     }
+
+    /**
+     * Tests that the fingerprint of the source files changes when one of
+     * them is modified.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testFingerprint() throws IOException {
+        File iTunesDir = File.createTempFile("lastpod", "");
+        iTunesDir.delete();
+        iTunesDir.mkdir();
+
+        File playCounts = new File(iTunesDir, "Play Counts");
+
+        try {
+            String before = ModelImpl.fingerprint(iTunesDir.getPath());
+            assertEquals(before, ModelImpl.fingerprint(iTunesDir.getPath()));
+
+            FileOutputStream out = new FileOutputStream(playCounts);
+            out.write(new byte[96]);
+            out.close();
+
+            assertFalse(before.equals(ModelImpl.fingerprint(iTunesDir.getPath())));
+        } finally {
+            playCounts.delete();
+            iTunesDir.delete();
+        }
+    }
+
+    /**
+     * Tests draining the submission cache through the model, against a stub
+     * server.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testSubmitCachedTracks() throws Exception {
+        StubHttpServer server = new StubHttpServer(new String[] { "OK\nINTERVAL 0\n" });
+
+        try {
+            assertNull(drainCache(server).getError());
+
+            List requests = server.getRequests();
+            assertEquals(1, requests.size());
+            assertTrue(((String) requests.get(0)).indexOf("Track+2") != -1);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Tests that a chunk answered with a server error is submitted again.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testRetryServerError() throws Exception {
+        StubHttpServer server =
+            new StubHttpServer(new String[] { "Unavailable\n", "OK\nINTERVAL 0\n" });
+        server.setStatusCodes(new int[] { 503, 200 });
+
+        try {
+            assertNull(drainCache(server).getError());
+            assertEquals(2, server.getRequests().size());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Tests that a chunk answered with an empty reply is submitted again.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testRetryEmptyReply() throws Exception {
+        StubHttpServer server = new StubHttpServer(new String[] { "", "OK\nINTERVAL 0\n" });
+
+        try {
+            assertNull(drainCache(server).getError());
+            assertEquals(2, server.getRequests().size());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Tests that a chunk refused by the server is not submitted again, and
+     * stays in the cache.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testClientErrorIsFatal() throws Exception {
+        StubHttpServer server = new StubHttpServer(new String[] { "Not Found\n" });
+        server.setStatusCodes(new int[] { 404 });
+
+        try {
+            assertNotNull(drainCache(server).getError());
+            assertEquals(1, server.getRequests().size());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Tests that the chunks are not held up by a slow backup server, and
+     * that every chunk is still sent to it.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testSlowBackup() throws Exception {
+        StubHttpServer server = new StubHttpServer(new String[] { "OK\nINTERVAL 0\n" });
+        StubHttpServer backup = new StubHttpServer(new String[] { "OK\nINTERVAL 0\n" });
+        backup.setDelay(1500);
+
+        try {
+            long start = System.currentTimeMillis();
+            Map backupPrefs = new HashMap();
+            backupPrefs.put("backupUrl", backup.getUrl() + "/protocol_1.1");
+            backupPrefs.put("batchSize", "1");
+            assertNull(drainCache(server, backupPrefs, 3).getError());
+            assertTrue(System.currentTimeMillis() - start < 3000);
+            assertEquals(3, server.getRequests().size());
+            assertEquals(3, backup.getRequests().size());
+        } finally {
+            server.close();
+            backup.close();
+        }
+    }
+
+    /**
+     * Tests that the adaptive batching policy grows the chunks past the
+     * fixed chunk size when the server is fast.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testAdaptiveBatching() throws Exception {
+        StubHttpServer server = new StubHttpServer(new String[] { "OK\nINTERVAL 0\n" });
+
+        try {
+            Map adaptivePrefs = new HashMap();
+            adaptivePrefs.put("batchingPolicy", "adaptive");
+            assertNull(drainCache(server, adaptivePrefs, 30).getError());
+            assertEquals(2, server.getRequests().size());
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Writes three tracks to a submission cache, and drains it through the
+     * model.  The session is stored in the preferences, so the handshake
+     * does not contact Last.fm.  The cache must be empty afterwards if the
+     * drain succeeded.
+     * @param server  The stub server the tracks are submitted to.
+     * @return  The view the model reported to.
+     * @throws Exception  Thrown if errors occur.
+     */
+    private ConsoleView drainCache(StubHttpServer server) throws Exception {
+        return drainCache(server, new HashMap(), 3);
+    }
+
+    /**
+     * Writes tracks to a submission cache, and drains it through the model
+     * with the given preferences.
+     * @param server  The stub server the tracks are submitted to.
+     * @param extraPrefs  Preferences to set, keyed by name.
+     * @param trackCount  The number of tracks to write.
+     * @return  The view the model reported to.
+     * @throws Exception  Thrown if errors occur.
+     */
+    private ConsoleView drainCache(StubHttpServer server, Map extraPrefs, int trackCount)
+            throws Exception {
+        Preferences prefs = Preferences.userRoot().node("org/lastpod/test/model");
+        File cacheFile = File.createTempFile("submissions", ".xml");
+        cacheFile.delete();
+
+        try {
+            prefs.put("Username", "test");
+            prefs.put("encryptedPassword", "0123456789abcdef0123456789abcdef");
+            prefs.put("submitCachePath", cacheFile.getPath());
+            prefs.put("retryDelayMillis", "0");
+
+            Iterator entries = extraPrefs.entrySet().iterator();
+
+            while (entries.hasNext()) {
+                Map.Entry entry = (Map.Entry) entries.next();
+                prefs.put((String) entry.getKey(), (String) entry.getValue());
+            }
+
+            new SessionStore(prefs).save(new Session("test", "challenge",
+                    server.getUrl() + "/protocol_1.1", System.currentTimeMillis() + 600000));
+
+            List tracks = new ArrayList();
+
+            for (int i = 0; i < trackCount; i++) {
+                TrackItem track = new TrackItem();
+                track.setArtist("Artist " + i);
+                track.setAlbum("Album");
+                track.setTrack("Track " + i);
+                track.setLength(200);
+                track.setLastplayed(1000 + (i * 200));
+                tracks.add(track);
+            }
+
+            new SubmissionCache(cacheFile).append(tracks);
+
+            ConsoleView view = new ConsoleView(new PrintStream(new ByteArrayOutputStream()), false);
+            new ModelImpl(prefs).submitCachedTracks(view);
+
+            SubmissionCacheReader reader = new SubmissionCacheReader(cacheFile);
+
+            try {
+                assertEquals(view.getError() != null, reader.next() != null);
+            } finally {
+                reader.close();
+            }
+
+            return view;
+        } finally {
+            cacheFile.delete();
+            prefs.removeNode();
+        }
+    }
 }
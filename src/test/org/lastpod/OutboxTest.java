@@ -0,0 +1,313 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>Outbox</code>.
+ * @author Chris Tilden
+ */
+public class OutboxTest extends TestCase {
+    /**
+     * The outbox file.
+     */
+    private File outboxFile;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(OutboxTest.class);
+    }
+
+    /**
+     * Creates a temporary outbox file name.
+     * @throws Exception  Thrown if errors occur.
+     */
+    protected void setUp() throws Exception {
+        outboxFile = File.createTempFile("outbox", ".dat");
+        outboxFile.delete();
+    }
+
+    /**
+     * Removes the temporary outbox file.
+     */
+    protected void tearDown() {
+        outboxFile.delete();
+    }
+
+    /**
+     * Tests that pending tracks survive a restart, and that acknowledged
+     * tracks do not come back.
+     */
+    public void testResume() {
+        Outbox outbox = new Outbox(outboxFile);
+        assertEquals(3, outbox.enqueue(createTracks(1000, 3)));
+        outbox.acknowledge(1);
+
+        outbox = new Outbox(outboxFile);
+        List pending = outbox.getPending();
+        assertEquals(2, pending.size());
+
+        TrackItem track = (TrackItem) pending.get(0);
+        assertEquals(1001, track.getLastplayed());
+        assertEquals("Artist 1", track.getArtist());
+        assertEquals("Track 1", track.getTrack());
+        assertEquals(240, track.getLength());
+        assertNull(track.getLocation());
+    }
+
+    /**
+     * Tests that tracks left in the outbox after their history was written
+     * are acknowledged instead of being submitted again.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testAlreadySubmitted() throws IOException {
+        File historyDir = File.createTempFile("lastpod", "");
+        historyDir.delete();
+        historyDir.mkdir();
+
+        try {
+            List tracks = createTracks(1000, 3);
+
+            for (int i = 0; i < tracks.size(); i++) {
+                ((TrackItem) tracks.get(i)).setItunesPath(historyDir.getPath());
+            }
+
+            /* The first two tracks were submitted, but the run stopped
+             * before they were acknowledged. */
+            new Outbox(outboxFile).enqueue(tracks);
+
+            History history = History.getInstance(historyDir.getPath());
+            history.addhistory(1000);
+            history.addhistory(1001);
+            history.write();
+
+            Outbox outbox = new Outbox(outboxFile);
+            Scrobbler scrobbler = new Scrobbler("test", "", "", "");
+            scrobbler.setChunkProgress(new ConsoleView(new PrintStream(
+                        new ByteArrayOutputStream()), false));
+            scrobbler.setOutbox(outbox);
+            scrobbler.setTracksToSubmit(new ArrayList());
+
+            List pending = new Outbox(outboxFile).getPending();
+            assertEquals(1, pending.size());
+            assertEquals(1002, ((TrackItem) pending.get(0)).getLastplayed());
+        } finally {
+            File[] files = historyDir.listFiles();
+
+            for (int i = 0; i < files.length; i++) {
+                files[i].delete();
+            }
+
+            historyDir.delete();
+        }
+    }
+
+    /**
+     * Tests that tracks of an unknown or unmounted iPod are left pending.
+     */
+    public void testDeviceAbsent() {
+        File absentDir = new File(outboxFile.getPath() + ".absent");
+        List tracks = createTracks(1000, 2);
+        ((TrackItem) tracks.get(1)).setItunesPath(absentDir.getPath());
+        new Outbox(outboxFile).enqueue(tracks);
+
+        Outbox outbox = new Outbox(outboxFile);
+        Scrobbler scrobbler = new Scrobbler("test", "", "", "");
+        scrobbler.setChunkProgress(new ConsoleView(new PrintStream(new ByteArrayOutputStream()),
+                false));
+        scrobbler.setOutbox(outbox);
+        scrobbler.setTracksToSubmit(new ArrayList());
+
+        assertEquals(2, new Outbox(outboxFile).size());
+        assertNull(History.getMountedInstance(absentDir.getPath()));
+        assertFalse(absentDir.exists());
+    }
+
+    /**
+     * Tests that submitted tracks whose history can not be written stay in
+     * the outbox without being submitted again, and are written to the
+     * history once their iPod is back.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testHistoryNotWritten() throws IOException {
+        File historyDir = new File(outboxFile.getPath() + ".ipod");
+        File cacheFile = new File(outboxFile.getPath() + ".cache");
+        List tracks = createTracks(1000, 2);
+
+        for (int i = 0; i < tracks.size(); i++) {
+            ((TrackItem) tracks.get(i)).setItunesPath(historyDir.getPath());
+        }
+
+        try {
+            Scrobbler scrobbler = createScrobbler(new Outbox(outboxFile), cacheFile);
+            scrobbler.setTracksToSubmit(tracks);
+            scrobbler.submitTracksToCache();
+
+            Outbox outbox = new Outbox(outboxFile);
+            assertEquals(2, outbox.size());
+            assertEquals(0, outbox.getUnsubmitted().size());
+
+            historyDir.mkdir();
+
+            try {
+                createScrobbler(outbox, cacheFile).setTracksToSubmit(new ArrayList());
+                fail("Submitted tracks were submitted again");
+            } catch (RuntimeException e) {
+                assertEquals(LastPod.NO_TRACKS_ERROR, e.getMessage());
+            }
+
+            assertEquals(0, new Outbox(outboxFile).size());
+
+            History history = new History(historyDir);
+            history.read();
+            assertTrue(history.isInHistory(1000));
+            assertTrue(history.isInHistory(1001));
+        } finally {
+            History.release(historyDir.getPath());
+
+            File[] files = historyDir.listFiles();
+
+            for (int i = 0; (files != null) && (i < files.length); i++) {
+                files[i].delete();
+            }
+
+            historyDir.delete();
+            cacheFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the submitted flag of a track survives a restart.
+     */
+    public void testMarkSubmitted() {
+        Outbox outbox = new Outbox(outboxFile);
+        outbox.enqueue(createTracks(1000, 3));
+        outbox.markSubmitted(createTracks(1001, 1));
+
+        outbox = new Outbox(outboxFile);
+        assertEquals(3, outbox.size());
+        assertEquals(1, outbox.getSubmitted().size());
+        assertEquals(1001, ((TrackItem) outbox.getSubmitted().get(0)).getLastplayed());
+        assertEquals(2, outbox.getUnsubmitted().size());
+    }
+
+    /**
+     * Creates a scrobbler that submits from the given outbox.
+     * @param outbox  The outbox.
+     * @param cacheFile  The submission cache the tracks are written to.
+     * @return  The scrobbler.
+     */
+    private Scrobbler createScrobbler(Outbox outbox, File cacheFile) {
+        Scrobbler scrobbler = new Scrobbler("test", "", "", cacheFile.getPath());
+        scrobbler.setChunkProgress(new ConsoleView(new PrintStream(new ByteArrayOutputStream()),
+                false));
+        scrobbler.setOutbox(outbox);
+
+        return scrobbler;
+    }
+
+    /**
+     * Tests that tracks which are already pending are not added twice.
+     */
+    public void testDuplicates() {
+        Outbox outbox = new Outbox(outboxFile);
+        outbox.enqueue(createTracks(1000, 3));
+
+        assertEquals(2, outbox.enqueue(createTracks(1002, 3)));
+        assertEquals(5, outbox.size());
+        assertEquals(0, outbox.enqueue(createTracks(1000, 2)));
+    }
+
+    /**
+     * Tests that the outbox file is emptied once every track is
+     * acknowledged.
+     */
+    public void testDrain() {
+        Outbox outbox = new Outbox(outboxFile);
+        outbox.enqueue(createTracks(1000, 3));
+        outbox.acknowledge(3);
+
+        assertEquals(16, outboxFile.length());
+        assertEquals(0, new Outbox(outboxFile).size());
+
+        outbox.enqueue(createTracks(2000, 1));
+        assertEquals(1, new Outbox(outboxFile).size());
+    }
+
+    /**
+     * Tests that a record that was only partly written is ignored.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testIncompleteRecord() throws IOException {
+        Outbox outbox = new Outbox(outboxFile);
+        outbox.enqueue(createTracks(1000, 2));
+
+        RandomAccessFile file = new RandomAccessFile(outboxFile, "rw");
+
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        outbox = new Outbox(outboxFile);
+        assertEquals(1, outbox.size());
+
+        outbox.enqueue(createTracks(1001, 1));
+        assertEquals(2, new Outbox(outboxFile).size());
+    }
+
+    /**
+     * Creates tracks with consecutive play times.
+     * @param firstPlayed  The play time of the first track.
+     * @param count  The number of tracks.
+     * @return  The tracks.
+     */
+    private List createTracks(long firstPlayed, int count) {
+        List tracks = new ArrayList();
+
+        for (int i = 0; i < count; i++) {
+            long played = firstPlayed + i;
+            TrackItem track = new TrackItem();
+            track.setLastplayed(played);
+            track.setArtist("Artist " + (played - 1000));
+            track.setAlbum("Album");
+            track.setTrack("Track " + (played - 1000));
+            track.setLength(240);
+            tracks.add(track);
+        }
+
+        return tracks;
+    }
+}
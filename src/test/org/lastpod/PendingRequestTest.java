@@ -0,0 +1,113 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.net.URL;
+
+/**
+ * Tests the <code>PendingRequest</code> against local stub servers.
+ * @author Chris Tilden
+ */
+public class PendingRequestTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(PendingRequestTest.class);
+    }
+
+    /**
+     * Tests that a slow server times out without holding up a fast one
+     * that was started at the same time.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testConcurrentRequests() throws Exception {
+        StubHttpServer primary = new StubHttpServer(new String[] { "OK\n" });
+        StubHttpServer backup = new StubHttpServer(new String[] { "OK\n" });
+        backup.setDelay(2000);
+
+        try {
+            HttpTransport transport = new HttpTransport();
+            long start = System.currentTimeMillis();
+
+            PendingRequest backupRequest =
+                PendingRequest.post(transport, new URL(backup.getUrl() + "/"), "u=test");
+            PendingRequest primaryRequest =
+                PendingRequest.post(transport, new URL(primary.getUrl() + "/"), "u=test");
+
+            assertEquals("OK", primaryRequest.await(5000).getStatus());
+            assertTrue((System.currentTimeMillis() - start) < 1500);
+
+            try {
+                backupRequest.await(500);
+                fail("Expected the backup request to time out");
+            } catch (InterruptedIOException e) {
+                /* Expected, the backup server is too slow. */
+            }
+
+            assertTrue((System.currentTimeMillis() - start) < 1500);
+        } finally {
+            primary.close();
+            backup.close();
+        }
+    }
+
+    /**
+     * Tests that a request that timed out is disconnected, rather than left
+     * waiting for the server's reply.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testTimeoutDisconnects() throws Exception {
+        StubHttpServer server = new StubHttpServer(new String[] { "OK\n" });
+        server.setDelay(3000);
+
+        try {
+            long start = System.currentTimeMillis();
+            PendingRequest request =
+                PendingRequest.post(new HttpTransport(), new URL(server.getUrl() + "/"),
+                    "u=test");
+
+            try {
+                request.await(300);
+                fail("Expected the request to time out");
+            } catch (InterruptedIOException e) {
+                /* Expected, the server is too slow. */
+            }
+
+            try {
+                request.await(10000);
+                fail("Expected the request to fail once disconnected");
+            } catch (IOException e) {
+                /* Expected, the connection was closed. */
+            }
+
+            assertTrue((System.currentTimeMillis() - start) < 2000);
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Tests reading replies with <code>ProtocolResponse</code>.
+ * @author Chris Tilden
+ */
+public class ProtocolResponseTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(ProtocolResponseTest.class);
+    }
+
+    /**
+     * Tests reading a handshake reply.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testHandshake() throws IOException {
+        ProtocolResponse response =
+            read("UPTODATE\r\nabc123\r\nhttp://host:80/protocol_1.1\r\nINTERVAL 5");
+
+        assertTrue(response.hasStatus("UPTODATE"));
+        assertEquals("abc123", response.getLine(1));
+        assertEquals("http://host:80/protocol_1.1", response.getLine(2));
+        assertEquals(5, response.getInterval());
+        assertNull(response.getLine(4));
+        assertFalse(response.isTruncated());
+    }
+
+    /**
+     * Tests reading submission replies.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testSubmission() throws IOException {
+        ProtocolResponse response = read("OK\nINTERVAL x\n");
+        assertTrue(response.hasStatus("OK"));
+        assertEquals(-1, response.getInterval());
+
+        response = read("FAILED Plugin bug: Not all request variables are set\n");
+        assertTrue(response.hasStatus("FAILED"));
+        assertEquals("Plugin bug: Not all request variables are set", response.getStatusMessage());
+
+        response = read("");
+        assertTrue(response.isEmpty());
+        assertEquals("", response.getStatus());
+        assertEquals("", response.getStatusMessage());
+    }
+
+    /**
+     * Tests that a large garbage body is cut to a few short lines, and that
+     * reading stops once too much has been thrown away.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testGarbage() throws IOException {
+        StringBuffer body = new StringBuffer();
+
+        for (int i = 0; i < 200000; i++) {
+            body.append((char) ('a' + (i % 26)));
+
+            if ((i % 5000) == 4999) {
+                body.append('\n');
+            }
+        }
+
+        ProtocolResponse response = read(body.toString());
+        assertEquals(ProtocolResponse.MAX_LINES, response.getLineCount());
+        assertEquals(ProtocolResponse.MAX_LINE_LENGTH, response.getStatus().length());
+        assertTrue(response.isTruncated());
+    }
+
+    /**
+     * Reads a reply.
+     * @param content  The content of the reply.
+     * @return  The reply.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private ProtocolResponse read(String content) throws IOException {
+        return ProtocolResponse.read(new ByteArrayInputStream(content.getBytes("US-ASCII")));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.UnsupportedEncodingException;
+
+import java.lang.reflect.Method;
+
+import java.net.URLEncoder;
+
+import java.text.SimpleDateFormat;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Compares the per-track cost of building a submission body with string
+ * concatenation, <code>URLEncoder</code> and a new
+ * <code>SimpleDateFormat</code> per track (the previous approach) against
+ * the <code>FormEncoder</code>.  The time and, where the JVM can measure it,
+ * the bytes allocated per track are printed.  Run the <code>main</code>
+ * method by hand; this is not a unit test.
+ * @author Chris Tilden
+ */
+public final class RequestBodyBenchmark {
+    /**
+     * The number of tracks encoded per measurement.
+     */
+    private static final int TRACKS = 200000;
+
+    /**
+     * The number of tracks in each submission body.
+     */
+    private static final int TRACKS_PER_BODY = 10;
+
+    /**
+     * The number of measurements, the first of which warms up the JIT.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Cannot construct this benchmark.
+     */
+    private RequestBodyBenchmark() {
+        /* Default constructor. */
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args  Not used.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public static void main(String[] args) throws Exception {
+        TrackItem[] tracks = new TrackItem[TRACKS_PER_BODY];
+
+        for (int i = 0; i < tracks.length; i++) {
+            tracks[i] = new TrackItem();
+            tracks[i].setArtist("Sigur R\u00F3s");
+            tracks[i].setAlbum("( ) & Takk...");
+            tracks[i].setTrack("Track " + i + ": Hopp\u00EDpolla");
+            tracks[i].setLength(240 + i);
+            tracks[i].setLastplayed(1170000000L + (i * 300));
+        }
+
+        FormEncoder encoder = new FormEncoder();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long start = System.currentTimeMillis();
+            long stringLength = encodeWithStrings(tracks);
+            long stringMillis = System.currentTimeMillis() - start;
+            long stringBytes = allocatedBytes() - bytes;
+
+            bytes = allocatedBytes();
+            start = System.currentTimeMillis();
+
+            long encoderLength = encodeWithEncoder(encoder, tracks);
+            long encoderMillis = System.currentTimeMillis() - start;
+            long encoderBytes = allocatedBytes() - bytes;
+
+            if (stringLength != encoderLength) {
+                throw new RuntimeException("Encoders disagree.");
+            }
+
+            System.out.println("Round " + round + ": strings "
+                + ((stringMillis * 1000000) / TRACKS) + " ns/track, "
+                + perTrack(stringBytes) + "; encoder "
+                + ((encoderMillis * 1000000) / TRACKS) + " ns/track, "
+                + perTrack(encoderBytes));
+        }
+    }
+
+    /**
+     * Builds the bodies the way <code>Scrobbler</code> used to.
+     * @param tracks  The tracks of a body.
+     * @return  The total length of the bodies.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     */
+    private static long encodeWithStrings(TrackItem[] tracks)
+            throws UnsupportedEncodingException {
+        long totalLength = 0;
+
+        for (int body = 0; body < (TRACKS / tracks.length); body++) {
+            String queryString = "u=test&s=0123456789abcdef";
+
+            for (int i = 0; i < tracks.length; i++) {
+                queryString += buildTrackQueryString(tracks[i], i);
+            }
+
+            totalLength += queryString.getBytes("US-ASCII").length;
+        }
+
+        return totalLength;
+    }
+
+    /**
+     * Builds the bodies with a reused <code>FormEncoder</code>.
+     * @param encoder  The encoder.
+     * @param tracks  The tracks of a body.
+     * @return  The total length of the bodies.
+     */
+    private static long encodeWithEncoder(FormEncoder encoder, TrackItem[] tracks) {
+        long totalLength = 0;
+
+        for (int body = 0; body < (TRACKS / tracks.length); body++) {
+            encoder.reset();
+            encoder.appendEncoded("u=test&s=0123456789abcdef");
+
+            for (int i = 0; i < tracks.length; i++) {
+                Scrobbler.encodeTrack(encoder, tracks[i], i);
+            }
+
+            totalLength += encoder.toByteArray().length;
+        }
+
+        return totalLength;
+    }
+
+    /**
+     * The track encoder previously used by <code>Scrobbler</code>.
+     * @param track  The track to build a query string of.
+     * @param trackNum  The number of the track in the submission.
+     * @return  The query string for the given track.
+     * @throws UnsupportedEncodingException  Thrown if errors occur.
+     */
+    private static String buildTrackQueryString(TrackItem track, int trackNum)
+            throws UnsupportedEncodingException {
+        StringBuffer trackQueryString = new StringBuffer();
+
+        String artistutf8 = new String(track.getArtist().getBytes("UTF-8"), "UTF-8");
+        String trackutf8 = new String(track.getTrack().getBytes("UTF-8"), "UTF-8");
+        String albumutf8 = new String(track.getAlbum().getBytes("UTF-8"), "UTF-8");
+        String trackString = Long.toString(track.getLength());
+        Date date = new Date(track.getLastplayed() * 1000);
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        format.setTimeZone(TimeZone.getTimeZone("GMT:00"));
+
+        String dateString = format.format(date);
+
+        trackQueryString.append("&a[" + trackNum + "]=" + URLEncoder.encode(artistutf8, "UTF-8"));
+        trackQueryString.append("&t[" + trackNum + "]=" + URLEncoder.encode(trackutf8, "UTF-8"));
+        trackQueryString.append("&b[" + trackNum + "]=" + URLEncoder.encode(albumutf8, "UTF-8"));
+        trackQueryString.append("&m[" + trackNum + "]=");
+        trackQueryString.append("&l[" + trackNum + "]=" + URLEncoder.encode(trackString, "UTF-8"));
+        trackQueryString.append("&i[" + trackNum + "]=" + URLEncoder.encode(dateString, "UTF-8"));
+
+        return trackQueryString.toString();
+    }
+
+    /**
+     * Formats a number of allocated bytes per track.
+     * @param bytes  The bytes allocated for all tracks, or a negative number
+     * if they could not be measured.
+     * @return  The bytes per track.
+     */
+    private static String perTrack(long bytes) {
+        return (bytes < 0) ? "allocation n/a" : ((bytes / TRACKS) + " bytes/track");
+    }
+
+    /**
+     * Gets the number of bytes allocated by the current thread so far.  This
+     * uses the HotSpot thread MXBean through reflection, since it is not
+     * available on every JVM.
+     * @return  The number of bytes, or <code>-1</code> if it can not be
+     * measured.
+     */
+    private static long allocatedBytes() {
+        try {
+            Class factory = Class.forName("java.lang.management.ManagementFactory");
+            Object threadBean = factory.getMethod("getThreadMXBean", null).invoke(null, null);
+            Class beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            Method method =
+                beanClass.getMethod("getThreadAllocatedBytes", new Class[] { long.class });
+            Object threadId =
+                Thread.class.getMethod("getId", null).invoke(Thread.currentThread(), null);
+
+            return ((Long) method.invoke(threadBean, new Object[] { threadId })).longValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.prefs.Preferences;
+
+/**
+ * Tests the <code>SessionStore</code>.
+ * @author Chris Tilden
+ */
+public class SessionStoreTest extends TestCase {
+    /**
+     * The preferences the session is stored in.
+     */
+    private Preferences prefs;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(SessionStoreTest.class);
+    }
+
+    /**
+     * Creates a preferences node for the test.
+     */
+    protected void setUp() {
+        prefs = Preferences.userRoot().node("org/lastpod/test/session");
+    }
+
+    /**
+     * Removes the test's preferences node.
+     * @throws Exception  Thrown if errors occur.
+     */
+    protected void tearDown() throws Exception {
+        prefs.removeNode();
+    }
+
+    /**
+     * Tests that a stored session is loaded until it expires, and only for
+     * the user it was opened for.
+     */
+    public void testLoad() {
+        SessionStore store = new SessionStore(prefs);
+        assertNull(store.load("user"));
+
+        long expires = System.currentTimeMillis() + 60000;
+        store.save(new Session("user", "abc123", "http://host:80/submit", expires));
+
+        Session session = new SessionStore(prefs).load("user");
+        assertEquals("abc123", session.getChallenge());
+        assertEquals("http://host:80/submit", session.getSubmitUrl());
+        assertEquals(expires, session.getExpires());
+        assertNull(store.load("other"));
+
+        store.save(new Session("user", "abc123", "http://host:80/submit", 1000));
+        assertNull(store.load("user"));
+    }
+
+    /**
+     * Tests that a cleared session is not loaded.
+     */
+    public void testClear() {
+        SessionStore store = new SessionStore(prefs);
+        store.save(new Session("user", "abc123", "http://host:80/submit",
+                System.currentTimeMillis() + 60000));
+        store.clear();
+
+        assertNull(store.load("user"));
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal HTTP/1.1 server for tests.  It answers every request on a
+ * connection with the next of its canned responses, keeps connections alive,
+ * and records the request lines and bodies it receives.
+ * @author Chris Tilden
+ */
+public class StubHttpServer implements Runnable {
+    /**
+     * The listening socket.
+     */
+    private ServerSocket serverSocket;
+
+    /**
+     * The bodies of the responses, used in turn.  The last one is repeated.
+     */
+    private String[] responses;
+
+    /**
+     * The HTTP status codes of the responses, used in turn.  The last one is
+     * repeated.
+     */
+    private int[] statusCodes = new int[] { 200 };
+
+    /**
+     * The number of responses sent.
+     */
+    private int responseCount = 0;
+
+    /**
+     * The number of connections accepted.
+     */
+    private int connectionCount = 0;
+
+    /**
+     * The number of milliseconds to wait before answering a request.
+     */
+    private long delay = 0;
+
+    /**
+     * The request line and body of each request received.
+     */
+    private List requests = new ArrayList();
+
+    /**
+     * Starts the server on a free local port.
+     * @param responses  The bodies of the responses, used in turn.  The last
+     * one is repeated.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public StubHttpServer(String[] responses) throws IOException {
+        this.responses = responses;
+        this.serverSocket = new ServerSocket(0);
+
+        Thread thread = new Thread(this, "StubHttpServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Gets the base URL of the server.
+     * @return  The base URL of the server, without a trailing slash.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sets the number of milliseconds to wait before answering a request.
+     * @param delay  The number of milliseconds to wait.
+     */
+    public synchronized void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Sets the HTTP status codes of the responses.
+     * @param statusCodes  The status codes, used in turn.  The last one is
+     * repeated.
+     */
+    public synchronized void setStatusCodes(int[] statusCodes) {
+        this.statusCodes = statusCodes;
+    }
+
+    /**
+     * Gets the number of connections accepted.
+     * @return  The number of connections accepted.
+     */
+    public synchronized int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Gets the requests received.
+     * @return  The request line followed by a new line and the body, for each
+     * request.
+     */
+    public synchronized List getRequests() {
+        return new ArrayList(requests);
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            /* Cannot close, just give up. */
+        }
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    public void run() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+
+                synchronized (this) {
+                    connectionCount++;
+                }
+
+                Thread thread =
+                    new Thread(new Runnable() {
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "StubHttpConnection");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            /* The server was closed. */
+        }
+    }
+
+    /**
+     * Answers the requests on a connection until the client closes it.
+     * @param socket  The connection.
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String requestLine;
+
+            while ((requestLine = readLine(in)) != null) {
+                int contentLength = 0;
+                String header;
+
+                while ((header = readLine(in)) != null && (header.length() > 0)) {
+                    if (header.toLowerCase().startsWith("content-length:")) {
+                        contentLength = Integer.parseInt(header.substring(15).trim());
+                    }
+                }
+
+                byte[] body = new byte[contentLength];
+                int read = 0;
+
+                while (read < contentLength) {
+                    int count = in.read(body, read, contentLength - read);
+
+                    if (count == -1) {
+                        return;
+                    }
+
+                    read += count;
+                }
+
+                int statusCode;
+                byte[] response;
+                long wait;
+
+                synchronized (this) {
+                    statusCode = statusCodes[Math.min(responseCount, statusCodes.length - 1)];
+                    response = nextResponse(requestLine, new String(body, "US-ASCII"));
+                    wait = delay;
+                }
+
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait);
+                    } catch (InterruptedException e) {
+                        /* Answer early. */
+                    }
+                }
+
+                String head =
+                    "HTTP/1.1 " + statusCode + ((statusCode == 200) ? " OK" : " Error")
+                    + "\r\nContent-Type: text/plain\r\nContent-Length: "
+                    + response.length + "\r\n\r\n";
+                out.write(head.getBytes("US-ASCII"));
+                out.write(response);
+                out.flush();
+            }
+        } catch (IOException e) {
+            /* The connection was closed. */
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                /* Cannot close, just give up. */
+            }
+        }
+    }
+
+    /**
+     * Records a request and picks the response to it.
+     * @param requestLine  The request line.
+     * @param body  The request body.
+     * @return  The response body.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private synchronized byte[] nextResponse(String requestLine, String body)
+            throws IOException {
+        requests.add(requestLine + "\n" + body);
+
+        String response = responses[Math.min(responseCount, responses.length - 1)];
+        responseCount++;
+
+        return response.getBytes("US-ASCII");
+    }
+
+    /**
+     * Reads a CRLF terminated line.
+     * @param in  The stream to read from.
+     * @return  The line, or <code>null</code> at the end of the stream.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                return line.toString("US-ASCII");
+            }
+
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+
+        return (line.size() > 0) ? line.toString("US-ASCII") : null;
+    }
+}
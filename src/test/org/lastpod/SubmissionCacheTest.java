@@ -0,0 +1,297 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.lastpod.util.IoUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>SubmissionCache</code> and the
+ * <code>SubmissionCacheReader</code>.
+ * @author Chris Tilden
+ */
+public class SubmissionCacheTest extends TestCase {
+    /**
+     * The cache file.
+     */
+    private File cacheFile;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(SubmissionCacheTest.class);
+    }
+
+    /**
+     * Creates a temporary cache file name.
+     * @throws Exception  Thrown if errors occur.
+     */
+    protected void setUp() throws Exception {
+        cacheFile = File.createTempFile("submissions", ".xml");
+        cacheFile.delete();
+    }
+
+    /**
+     * Removes the temporary cache file.
+     */
+    protected void tearDown() {
+        cacheFile.delete();
+    }
+
+    /**
+     * Tests that appended tracks are read back in order, across appends.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testAppend() throws IOException {
+        SubmissionCache cache = new SubmissionCache(cacheFile);
+        cache.append(createTracks(1000, 2));
+        cache.append(createTracks(2000, 1));
+
+        List tracks = readAll();
+        assertEquals(3, tracks.size());
+        assertEquals(1000, ((TrackItem) tracks.get(0)).getLastplayed());
+        assertEquals(1001, ((TrackItem) tracks.get(1)).getLastplayed());
+        assertEquals(2000, ((TrackItem) tracks.get(2)).getLastplayed());
+        assertEquals("Artist 2000", ((TrackItem) tracks.get(2)).getArtist());
+        assertEquals(200, ((TrackItem) tracks.get(2)).getLength());
+    }
+
+    /**
+     * Tests that markup and non-ASCII characters survive a round trip.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testEscaping() throws IOException {
+        List tracks = createTracks(1000, 1);
+        TrackItem track = (TrackItem) tracks.get(0);
+        track.setArtist("Bob Marley & The Wailers");
+        track.setAlbum("<Legend>");
+        track.setTrack("Bj\u00F6rk \u65E5\u672C");
+
+        new SubmissionCache(cacheFile).append(tracks);
+
+        track = (TrackItem) readAll().get(0);
+        assertEquals("Bob Marley & The Wailers", track.getArtist());
+        assertEquals("<Legend>", track.getAlbum());
+        assertEquals("Bj\u00F6rk \u65E5\u672C", track.getTrack());
+    }
+
+    /**
+     * Tests appending to a cache that was written by another client, with an
+     * empty root element, CDATA sections and entity references.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testForeignCache() throws IOException {
+        writeCache("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!-- written elsewhere -->\n"
+            + "<submissions product=\"Audioscrobbler\" version=\"1.2\">"
+            + "<item><artist><![CDATA[A & B]]></artist><album>&lt;x&gt;</album>"
+            + "<track>T&#233;&#x41;</track><duration>100</duration>"
+            + "<timestamp>500</timestamp></item></submissions>\n");
+
+        new SubmissionCache(cacheFile).append(createTracks(1000, 1));
+
+        List tracks = readAll();
+        assertEquals(2, tracks.size());
+
+        TrackItem track = (TrackItem) tracks.get(0);
+        assertEquals("A & B", track.getArtist());
+        assertEquals("<x>", track.getAlbum());
+        assertEquals("T\u00E9A", track.getTrack());
+        assertEquals(100, track.getLength());
+        assertEquals(500, track.getLastplayed());
+        assertEquals(1000, ((TrackItem) tracks.get(1)).getLastplayed());
+
+        writeCache("<?xml version=\"1.0\"?><submissions product=\"Audioscrobbler\" version=\"1.2\"/>");
+        new SubmissionCache(cacheFile).append(createTracks(1000, 2));
+        assertEquals(2, readAll().size());
+    }
+
+    /**
+     * Tests that an item cut off by a crash is ignored, and that the next
+     * append replaces it.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testTruncatedCache() throws IOException {
+        new SubmissionCache(cacheFile).append(createTracks(1000, 1));
+
+        List tracks = createTracks(2000, 1);
+        new SubmissionCache(cacheFile).append(tracks);
+
+        String contents = readCache();
+        writeCache(contents.substring(0, contents.lastIndexOf("<timestamp>")));
+        assertEquals(1, readAll().size());
+
+        new SubmissionCache(cacheFile).append(tracks);
+        tracks = readAll();
+        assertEquals(2, tracks.size());
+        assertEquals(2000, ((TrackItem) tracks.get(1)).getLastplayed());
+    }
+
+    /**
+     * Tests that the reader's offset points just past each returned item.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testOffset() throws IOException {
+        new SubmissionCache(cacheFile).append(createTracks(1000, 2));
+
+        String contents = readCache();
+        SubmissionCacheReader reader = new SubmissionCacheReader(cacheFile);
+
+        try {
+            reader.next();
+            assertEquals(contents.indexOf("</item>") + "</item>".length(), reader.getOffset());
+            reader.next();
+            assertEquals(contents.lastIndexOf("</item>") + "</item>".length(),
+                reader.getOffset());
+            assertNull(reader.next());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Tests that removed items are no longer read, before and after the cache
+     * is compacted, and that the cache can still be added to.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testRemove() throws IOException {
+        SubmissionCache cache = new SubmissionCache(cacheFile);
+        cache.append(createTracks(1000, 3));
+
+        long length = cacheFile.length();
+        SubmissionCacheReader reader = new SubmissionCacheReader(cacheFile);
+        long start;
+        long end;
+
+        try {
+            start = reader.getOffset();
+            reader.next();
+            reader.next();
+            end = reader.getOffset();
+        } finally {
+            reader.close();
+        }
+
+        cache.remove(start, end);
+        assertEquals(length, cacheFile.length());
+
+        List tracks = readAll();
+        assertEquals(1, tracks.size());
+        assertEquals(1002, ((TrackItem) tracks.get(0)).getLastplayed());
+
+        cache.compact(start, end);
+        assertEquals(length - (end - start), cacheFile.length());
+
+        cache.append(createTracks(2000, 1));
+        tracks = readAll();
+        assertEquals(2, tracks.size());
+        assertEquals(1002, ((TrackItem) tracks.get(0)).getLastplayed());
+        assertEquals(2000, ((TrackItem) tracks.get(1)).getLastplayed());
+    }
+
+    /**
+     * Reads every track in the cache.
+     * @return  The cached tracks.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private List readAll() throws IOException {
+        List tracks = new ArrayList();
+        SubmissionCacheReader reader = new SubmissionCacheReader(cacheFile);
+
+        try {
+            TrackItem track;
+
+            while ((track = reader.next()) != null) {
+                tracks.add(track);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return tracks;
+    }
+
+    /**
+     * Reads the cache file as ISO-8859-1, so string offsets are byte offsets.
+     * @return  The contents of the cache file.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private String readCache() throws IOException {
+        byte[] data = new byte[(int) cacheFile.length()];
+        FileInputStream in = new FileInputStream(cacheFile);
+
+        try {
+            IoUtils.readFully(in, data, 0, data.length);
+        } finally {
+            in.close();
+        }
+
+        return new String(data, "ISO-8859-1");
+    }
+
+    /**
+     * Replaces the contents of the cache file.
+     * @param contents  The new contents, as ISO-8859-1.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void writeCache(String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(cacheFile);
+
+        try {
+            out.write(contents.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates tracks with consecutive play times.
+     * @param firstPlayed  The play time of the first track.
+     * @param count  The number of tracks.
+     * @return  The tracks.
+     */
+    private List createTracks(long firstPlayed, int count) {
+        List tracks = new ArrayList();
+
+        for (int i = 0; i < count; i++) {
+            TrackItem track = new TrackItem();
+            track.setArtist("Artist " + (firstPlayed + i));
+            track.setAlbum("Album");
+            track.setTrack("Track " + i);
+            track.setLength(200);
+            track.setLastplayed(firstPlayed + i);
+            tracks.add(track);
+        }
+
+        return tracks;
+    }
+}
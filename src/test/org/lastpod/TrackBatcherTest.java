@@ -0,0 +1,116 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>TrackBatcher</code>.
+ * @author Chris Tilden
+ */
+public class TrackBatcherTest extends TestCase {
+    /**
+     * The batches handed to the view.
+     */
+    private List batches;
+
+    /**
+     * A view that records the batches it is handed.
+     */
+    private ModelView view;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(TrackBatcherTest.class);
+    }
+
+    /**
+     * Creates the recording view.
+     */
+    protected void setUp() {
+        batches = new ArrayList();
+        view =
+            new ConsoleView(new PrintStream(new ByteArrayOutputStream()), false) {
+                    public void tracksParsed(List tracks) {
+                        batches.add(tracks);
+                    }
+                };
+    }
+
+    /**
+     * Tests that full batches are handed over, and that the rest are handed
+     * over by <code>flush</code>.
+     */
+    public void testBatchSize() {
+        TrackBatcher batcher = new TrackBatcher(view, 2, Long.MAX_VALUE);
+
+        for (int i = 0; i < 5; i++) {
+            batcher.trackPlayed(createTrack(i));
+        }
+
+        assertEquals(2, batches.size());
+        assertEquals(2, ((List) batches.get(0)).size());
+        assertEquals(2, ((List) batches.get(1)).size());
+        assertEquals(3, ((TrackItem) ((List) batches.get(1)).get(1)).getTrackid());
+
+        batcher.flush();
+        assertEquals(3, batches.size());
+        assertEquals(1, ((List) batches.get(2)).size());
+
+        batcher.flush();
+        assertEquals(3, batches.size());
+    }
+
+    /**
+     * Tests that a track is handed over straight away once the delay has
+     * passed.
+     */
+    public void testDelay() {
+        TrackBatcher batcher = new TrackBatcher(view, 100, 0);
+
+        batcher.trackPlayed(createTrack(1));
+        batcher.trackPlayed(createTrack(2));
+
+        assertEquals(2, batches.size());
+        assertEquals(1, ((List) batches.get(0)).size());
+    }
+
+    /**
+     * Creates a track.
+     * @param trackId  The id of the track.
+     * @return  The track.
+     */
+    private TrackItem createTrack(long trackId) {
+        TrackItem track = new TrackItem();
+        track.setTrackid(trackId);
+
+        return track;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>BatchingPolicy</code> implementations.
+ * @author Chris Tilden
+ */
+public class BatchingPolicyTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(BatchingPolicyTest.class);
+    }
+
+    /**
+     * Tests chunking with a fixed size policy.
+     */
+    public void testFixedSize() {
+        List chunks = ChunkUtil.createChunks(createItems(new int[23]), new FixedSizeBatchingPolicy(10));
+
+        assertEquals(3, chunks.size());
+        assertEquals(10, ((Chunk) chunks.get(0)).getChunkSize());
+        assertEquals(3, ((Chunk) chunks.get(2)).getChunkSize());
+        assertTrue(((Chunk) chunks.get(2)).isLastChunk());
+    }
+
+    /**
+     * Tests that chunks are cut to the byte budget, and that an item over the
+     * budget still gets a chunk of its own.
+     */
+    public void testByteBudget() {
+        ItemSizer sizer =
+            new ItemSizer() {
+                public int sizeOf(Object item, int position) {
+                    return ((Integer) item).intValue();
+                }
+            };
+
+        List items = createItems(new int[] { 40, 40, 30, 90, 200, 10, 10 });
+        BatchingPolicy policy =
+            new ByteBudgetBatchingPolicy(new FixedSizeBatchingPolicy(10), 100, sizer);
+        List chunks = ChunkUtil.createChunks(items, policy);
+
+        assertEquals(5, chunks.size());
+        assertEquals(2, ((Chunk) chunks.get(0)).getChunkSize());
+        assertEquals(1, ((Chunk) chunks.get(1)).getChunkSize());
+        assertEquals(1, ((Chunk) chunks.get(2)).getChunkSize());
+        assertEquals(1, ((Chunk) chunks.get(3)).getChunkSize());
+        assertEquals(2, ((Chunk) chunks.get(4)).getChunkSize());
+    }
+
+    /**
+     * Tests that the adaptive policy grows on a fast server and shrinks on a
+     * slow one, within its bounds.
+     */
+    public void testAdaptive() {
+        AdaptiveBatchingPolicy policy = new AdaptiveBatchingPolicy(10, 5, 50, 1000);
+        List items = createItems(new int[100]);
+
+        assertEquals(10, policy.nextBatchSize(items, 0));
+
+        policy.batchSubmitted(10, 200);
+        assertEquals(20, policy.getBatchSize());
+
+        policy.batchSubmitted(20, 200);
+        policy.batchSubmitted(40, 200);
+        assertEquals(50, policy.getBatchSize());
+        assertEquals(10, policy.nextBatchSize(items, 90));
+
+        policy.batchSubmitted(50, 1000);
+        assertEquals(50, policy.getBatchSize());
+
+        policy.batchSubmitted(50, 5000);
+        policy.batchSubmitted(25, 5000);
+        policy.batchSubmitted(12, 5000);
+        assertEquals(6, policy.getBatchSize());
+
+        policy.batchSubmitted(6, 5000);
+        assertEquals(5, policy.getBatchSize());
+    }
+
+    /**
+     * Creates a list of <code>Integer</code> items.
+     * @param values  The values of the items.
+     * @return  The items.
+     */
+    private List createItems(int[] values) {
+        List items = new ArrayList();
+
+        for (int i = 0; i < values.length; i++) {
+            items.add(new Integer(values[i]));
+        }
+
+        return items;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the <code>ChunkPipeline</code>.
+ * @author Chris Tilden
+ */
+public class ChunkPipelineTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(ChunkPipelineTest.class);
+    }
+
+    /**
+     * Tests that chunks finishing out of order are committed in order.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testCommitOrder() throws Exception {
+        List items = createItems(6);
+        RecordingHandler handler = new RecordingHandler(-1);
+
+        new ChunkPipeline(items, new FixedSizeBatchingPolicy(1), 3).run(handler);
+
+        assertEquals(6, handler.committed.size());
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i + 1, ((Chunk) handler.committed.get(i)).getChunkNumber());
+        }
+
+        assertTrue(handler.maxConcurrent > 1);
+        assertTrue(handler.maxConcurrent <= 3);
+    }
+
+    /**
+     * Tests that a failed chunk stops the commits at the chunk before it.
+     */
+    public void testFailure() {
+        List items = createItems(8);
+        RecordingHandler handler = new RecordingHandler(3);
+
+        try {
+            new ChunkPipeline(items, new FixedSizeBatchingPolicy(1), 2).run(handler);
+            fail("Expected the failure of chunk 4");
+        } catch (Exception e) {
+            assertEquals("Chunk 4 failed", e.getMessage());
+        }
+
+        assertEquals(3, handler.committed.size());
+    }
+
+    /**
+     * Tests that a batching policy that fails stops the pipeline with its
+     * exception, after committing the chunks cut before it.
+     */
+    public void testBatchingPolicyFailure() {
+        List items = createItems(6);
+        RecordingHandler handler = new RecordingHandler(-1);
+        BatchingPolicy policy =
+            new FixedSizeBatchingPolicy(2) {
+                public int nextBatchSize(List items, int start) {
+                    if (start >= 4) {
+                        throw new IllegalStateException("Can't size the batch");
+                    }
+
+                    return super.nextBatchSize(items, start);
+                }
+            };
+
+        try {
+            new ChunkPipeline(items, policy, 2).run(handler);
+            fail("Expected the failure of the batching policy");
+        } catch (Exception e) {
+            assertEquals("Can't size the batch", e.getMessage());
+        }
+
+        assertEquals(2, handler.committed.size());
+    }
+
+    /**
+     * Tests that the starts of the submissions are spaced by the interval.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testInterval() throws Exception {
+        List items = createItems(3);
+        RecordingHandler handler = new RecordingHandler(-1);
+        ChunkPipeline pipeline = new ChunkPipeline(items, new FixedSizeBatchingPolicy(1), 3);
+        pipeline.setInterval(1);
+
+        long start = System.currentTimeMillis();
+        pipeline.run(handler);
+
+        assertTrue((System.currentTimeMillis() - start) >= 3000);
+        assertEquals(3, handler.committed.size());
+    }
+
+    /**
+     * Tests that the chunks are cut by the batching policy.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testBatchingPolicy() throws Exception {
+        List items = createItems(25);
+        RecordingHandler handler = new RecordingHandler(-1);
+
+        new ChunkPipeline(items, new FixedSizeBatchingPolicy(10), 2).run(handler);
+
+        assertEquals(3, handler.committed.size());
+        assertEquals(10, ((Chunk) handler.committed.get(0)).getChunkSize());
+        assertEquals(5, ((Chunk) handler.committed.get(2)).getChunkSize());
+    }
+
+    /**
+     * Tests that a chunk failing with a <code>RetryableException</code> is
+     * submitted again, and is still committed in order.
+     * @throws Exception  Thrown if errors occur.
+     */
+    public void testRetry() throws Exception {
+        List items = createItems(4);
+        FlakyHandler handler = new FlakyHandler(2);
+        ChunkPipeline pipeline = new ChunkPipeline(items, new FixedSizeBatchingPolicy(1), 2);
+        pipeline.setRetryPolicy(new RetryPolicy(3, 10, 100));
+        pipeline.run(handler);
+
+        assertEquals(6, handler.attempts);
+        assertEquals(4, handler.committed.size());
+        assertEquals(2, ((Chunk) handler.committed.get(1)).getChunkNumber());
+    }
+
+    /**
+     * Tests that the failure is reported once the retries are used up.
+     */
+    public void testRetriesExhausted() {
+        List items = createItems(4);
+        FlakyHandler handler = new FlakyHandler(5);
+        ChunkPipeline pipeline = new ChunkPipeline(items, new FixedSizeBatchingPolicy(1), 1);
+        pipeline.setRetryPolicy(new RetryPolicy(3, 10, 100));
+
+        try {
+            pipeline.run(handler);
+            fail("Expected the failure of chunk 2");
+        } catch (Exception e) {
+            assertEquals("Chunk 2 failed", e.getMessage());
+        }
+
+        assertEquals(1, handler.committed.size());
+    }
+
+    /**
+     * Creates the items to submit.
+     * @param numberOfItems  The number of items.
+     * @return  The items.
+     */
+    private List createItems(int numberOfItems) {
+        List items = new ArrayList();
+
+        for (int i = 0; i < numberOfItems; i++) {
+            items.add("Test");
+        }
+
+        return items;
+    }
+
+    /**
+     * Records the committed chunks.  Earlier chunks take longer to submit, so
+     * they finish after later ones.
+     */
+    private static class RecordingHandler implements ChunkHandler {
+        /**
+         * The committed chunks.
+         */
+        private List committed = new ArrayList();
+
+        /**
+         * The index of the chunk that fails, or <code>-1</code>.
+         */
+        private int failingIndex;
+
+        /**
+         * The number of chunks being submitted.
+         */
+        private int concurrent = 0;
+
+        /**
+         * The largest number of chunks submitted at the same time.
+         */
+        private int maxConcurrent = 0;
+
+        /**
+         * Constructs the handler.
+         * @param failingIndex  The index of the chunk that fails, or
+         * <code>-1</code>.
+         */
+        RecordingHandler(int failingIndex) {
+            this.failingIndex = failingIndex;
+        }
+
+        public void submit(Chunk chunk) throws Exception {
+            synchronized (this) {
+                concurrent++;
+                maxConcurrent = Math.max(maxConcurrent, concurrent);
+            }
+
+            try {
+                Thread.sleep(100 - (chunk.getChunkNumber() * 10));
+            } finally {
+                synchronized (this) {
+                    concurrent--;
+                }
+            }
+
+            if ((chunk.getChunkNumber() - 1) == failingIndex) {
+                throw new Exception("Chunk " + chunk.getChunkNumber() + " failed");
+            }
+        }
+
+        public void commit(Chunk chunk) {
+            committed.add(chunk);
+        }
+    }
+
+    /**
+     * Fails the second chunk with a <code>RetryableException</code> a given
+     * number of times.
+     */
+    private static class FlakyHandler implements ChunkHandler {
+        /**
+         * The committed chunks.
+         */
+        private List committed = new ArrayList();
+
+        /**
+         * The number of times the second chunk still has to fail.
+         */
+        private int failures;
+
+        /**
+         * The number of submissions.
+         */
+        private int attempts = 0;
+
+        /**
+         * Constructs the handler.
+         * @param failures  The number of times the second chunk fails.
+         */
+        FlakyHandler(int failures) {
+            this.failures = failures;
+        }
+
+        public synchronized void submit(Chunk chunk) throws Exception {
+            attempts++;
+
+            if ((chunk.getChunkNumber() == 2) && (failures > 0)) {
+                failures--;
+                throw new RetryableException(new Exception("Chunk 2 failed"));
+            }
+        }
+
+        public void commit(Chunk chunk) {
+            committed.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.chunk;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Tests the <code>RetryPolicy</code>.
+ * @author Chris Tilden
+ */
+public class RetryPolicyTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(RetryPolicyTest.class);
+    }
+
+    /**
+     * Tests that the delays double up to the maximum, with jitter in the
+     * upper half of each delay.
+     */
+    public void testDelays() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 30000, new Random(42));
+        long[] limits = new long[] { 1000, 2000, 4000, 8000, 16000, 30000, 30000 };
+
+        for (int i = 0; i < limits.length; i++) {
+            for (int j = 0; j < 20; j++) {
+                long delay = policy.getDelay(i + 1);
+                assertTrue(delay >= (limits[i] / 2));
+                assertTrue(delay <= limits[i]);
+            }
+        }
+    }
+
+    /**
+     * Tests the policy that never retries.
+     */
+    public void testNone() {
+        assertEquals(1, RetryPolicy.NONE.getMaxAttempts());
+        assertEquals(0, RetryPolicy.NONE.getDelay(1));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.parser;
+
+import org.lastpod.util.IoUtils;
+
+import java.math.BigInteger;
+
+/**
+ * Compares the per-track cost of decoding the iTunesDB and Play Counts
+ * fields with <code>BigInteger</code> (the previous approach) against the
+ * primitive decoders in <code>IoUtils</code>.  Run the <code>main</code>
+ * method by hand; this is not a unit test.
+ * @author Chris Tilden
+ */
+public final class FieldDecodingBenchmark {
+    /**
+     * The number of tracks decoded per measurement.
+     */
+    private static final int TRACKS = 1000000;
+
+    /**
+     * The number of measurements, the first of which warms up the JIT.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * Offsets of the fields decoded for each track: headersize, nummhods,
+     * trackid and length from the MHIT; totalsize, type and strlen from each
+     * of four MHODs; playcount and lastplayed from Play Counts.
+     */
+    private static final int[] FIELD_OFFSETS =
+        { 0, 8, 12, 36, 8, 12, 28, 8, 12, 28, 8, 12, 28, 8, 12, 28, 0, 4 };
+
+    /**
+     * Cannot construct this benchmark.
+     */
+    private FieldDecodingBenchmark() {
+        /* Default constructor. */
+    }
+
+    /**
+     * Runs the benchmark.
+     * @param args  Not used.
+     */
+    public static void main(String[] args) {
+        byte[] data = new byte[40];
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.currentTimeMillis();
+            long bigIntegerSum = decodeWithBigInteger(data);
+            long bigIntegerMillis = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+
+            long primitiveSum = decodeWithPrimitives(data);
+            long primitiveMillis = System.currentTimeMillis() - start;
+
+            if (bigIntegerSum != primitiveSum) {
+                throw new RuntimeException("Decoders disagree.");
+            }
+
+            System.out.println("Round " + round + ": BigInteger "
+                + ((bigIntegerMillis * 1000000) / TRACKS) + " ns/track, primitive "
+                + ((primitiveMillis * 1000000) / TRACKS) + " ns/track");
+        }
+    }
+
+    /**
+     * Decodes the fields the way the parsers used to.
+     * @param data  The bytes to decode.
+     * @return  The sum of the decoded fields.
+     */
+    private static long decodeWithBigInteger(byte[] data) {
+        long sum = 0;
+        byte[] dword = null;
+
+        for (int track = 0; track < TRACKS; track++) {
+            for (int i = 0; i < FIELD_OFFSETS.length; i++) {
+                dword = new byte[4];
+                System.arraycopy(data, FIELD_OFFSETS[i], dword, 0, 4);
+                sum += littleEndianToBigInt(dword).longValue();
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Decodes the fields using <code>IoUtils</code>.
+     * @param data  The bytes to decode.
+     * @return  The sum of the decoded fields.
+     */
+    private static long decodeWithPrimitives(byte[] data) {
+        long sum = 0;
+
+        for (int track = 0; track < TRACKS; track++) {
+            for (int i = 0; i < FIELD_OFFSETS.length; i++) {
+                sum += IoUtils.littleEndianToLong(data, FIELD_OFFSETS[i], 4);
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * The decoder previously used by the parsers.
+     * @param num  Little-Endian byte array.
+     * @return A BigInt.
+     */
+    private static BigInteger littleEndianToBigInt(byte[] num) {
+        byte temp;
+
+        int upperBound = num.length - 1;
+        int lowerBound = 0;
+
+        while (lowerBound < upperBound) {
+            temp = num[lowerBound];
+            num[lowerBound] = num[upperBound];
+            num[upperBound] = temp;
+            lowerBound++;
+            upperBound--;
+        }
+
+        return new BigInteger(1, num);
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.parser;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.lastpod.TrackItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.util.List;
+
+/**
+ * Tests the ItunesDbParser against a small iTunesDB that is generated by the
+ * test itself.  The generated database contains a data set that is not a
+ * track list, followed by a track list containing two tracks.
+ * @author Chris Tilden
+ */
+public class ItunesDbParserTest extends TestCase {
+    /**
+     * The directory the generated iTunesDB is written to.
+     */
+    private File iTunesDir;
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(ItunesDbParserTest.class);
+    }
+
+    /**
+     * Creates a temporary directory to hold the generated iTunesDB.
+     * @throws Exception  Thrown if errors occur.
+     */
+    protected void setUp() throws Exception {
+        iTunesDir = File.createTempFile("lastpod", "");
+        iTunesDir.delete();
+        iTunesDir.mkdir();
+    }
+
+    /**
+     * Removes the temporary directory.
+     */
+    protected void tearDown() {
+        File[] files = iTunesDir.listFiles();
+
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+
+        iTunesDir.delete();
+    }
+
+    /**
+     * Tests parsing a well formed chunk tree.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testParseChunkTree() throws IOException {
+        writeItunesDb(createItunesDb(new byte[0]));
+
+        assertTracks(parse());
+    }
+
+    /**
+     * Tests that the chunk tree is indexed, and tracks are only decoded when
+     * they are requested.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testTrackCatalog() throws IOException {
+        writeItunesDb(createItunesDb(new byte[0]));
+
+        List trackList = parse();
+        assertTrue(trackList instanceof TrackCatalog);
+
+        TrackCatalog catalog = (TrackCatalog) trackList;
+        assertEquals(20599, catalog.getTrackid(1));
+        assertEquals(233, catalog.getLength(1));
+        assertSame(catalog.get(1), catalog.get(1));
+    }
+
+    /**
+     * Tests walking the tracks with a cursor.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testTrackCursor() throws IOException {
+        writeItunesDb(createItunesDb(new byte[0]));
+
+        ItunesDbParser parser =
+            new ItunesDbParser(iTunesDir.getPath(), false, new String[0], false);
+        TrackCursor cursor = parser.openTrackCursor();
+        assertEquals(2, cursor.size());
+
+        TrackItem track = cursor.getTrack(1);
+        assertEquals(20599, track.getTrackid());
+        assertEquals("Beg for Me", track.getTrack());
+
+        try {
+            cursor.getTrack(0);
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            /* Expected, the cursor only moves forward. */
+        }
+    }
+
+    /**
+     * Tests that the catalog and the decoded tracks are restored from the
+     * cache, and that the cache is ignored once the iTunesDB changes.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testTrackCatalogCache() throws IOException {
+        writeItunesDb(createItunesDb(new byte[0]));
+
+        ItunesDbParser parser =
+            new ItunesDbParser(iTunesDir.getPath(), false, new String[0], false);
+        parser.setCatalogCache(new TrackCatalogCache(iTunesDir.getPath()));
+
+        List trackList = parser.parse();
+        trackList.get(0);
+        assertTrue(((TrackCatalog) trackList).isModified());
+        parser.saveToCache(trackList);
+        assertFalse(((TrackCatalog) trackList).isModified());
+        assertTrue(new File(iTunesDir, "tracks.cache").exists());
+        assertFalse(new File(iTunesDir, "tracks.cache.tmp").exists());
+
+        trackList = parser.parse();
+        trackList.get(0);
+        assertFalse(((TrackCatalog) trackList).isModified());
+        assertTracks(trackList);
+
+        writeItunesDb(createItunesDb(new byte[] { 'x', 'x', 'x' }));
+        trackList = parser.parse();
+        assertTracks(trackList);
+    }
+
+    /**
+     * Tests that a catalog is cached under the fingerprint the iTunesDB had
+     * when it was parsed, so it is not used for an iTunesDB that changed
+     * before the catalog was saved.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testTrackCatalogCacheChangedDuringParse() throws IOException {
+        writeItunesDb(createItunesDb(new byte[0]));
+
+        ItunesDbParser parser =
+            new ItunesDbParser(iTunesDir.getPath(), false, new String[0], false);
+        parser.setCatalogCache(new TrackCatalogCache(iTunesDir.getPath()));
+
+        List trackList = parser.parse();
+        trackList.get(0);
+
+        writeItunesDb(createItunesDb(new byte[] { 'x', 'x', 'x' }));
+        parser.saveToCache(trackList);
+
+        trackList = parser.parse();
+        assertFalse(trackList instanceof TrackCatalog);
+        assertTracks(trackList);
+    }
+
+    /**
+     * Tests that a file without an mhbd header is still scanned for tracks.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testParseUnrecognisedHeader() throws IOException {
+        writeItunesDb(createItunesDb(new byte[] { 'x', 'x', 'x' }));
+
+        assertTracks(parse());
+    }
+
+    /**
+     * Tests that an mhod whose string length runs past its chunk is cut to
+     * the chunk, and that a negative length gives an empty string, without
+     * stopping the parse.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testCorruptStringLength() throws IOException {
+        byte[] itunesDb = createItunesDb(new byte[0]);
+        writeInt(itunesDb, indexOf(itunesDb, "Legend".getBytes("UTF-16LE")) - 12, 0x7FFFFFF0);
+        writeInt(itunesDb, indexOf(itunesDb, "Korn".getBytes("UTF-16LE")) - 12, -4);
+        writeItunesDb(itunesDb);
+
+        List trackList = parse();
+        assertEquals("Legend", ((TrackItem) trackList.get(0)).getAlbum());
+        assertEquals("No Woman, No Cry (live)", ((TrackItem) trackList.get(0)).getTrack());
+        assertEquals("", ((TrackItem) trackList.get(1)).getArtist());
+        assertEquals("Beg for Me", ((TrackItem) trackList.get(1)).getTrack());
+    }
+
+    /**
+     * Tests that a truncated iTunesDB is reported as an error, wherever it
+     * is cut off.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testTruncated() throws IOException {
+        byte[] itunesDb = createItunesDb(new byte[0]);
+        int[] lengths = {
+                22, 110, 214, 230, 250, 306, 350, indexOf(itunesDb, "Legend".getBytes("UTF-16LE"))
+            };
+
+        for (int i = 0; i < lengths.length; i++) {
+            byte[] truncated = new byte[lengths[i]];
+            System.arraycopy(itunesDb, 0, truncated, 0, truncated.length);
+            writeItunesDb(truncated);
+
+            try {
+                List trackList = parse();
+
+                for (int j = 0; j < trackList.size(); j++) {
+                    trackList.get(j);
+                }
+
+                fail("Parsed an iTunesDB truncated to " + lengths[i] + " bytes");
+            } catch (RuntimeException e) {
+                assertEquals("Error reading iTunes Database", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tests that invalid chunk lengths and track counts are reported as
+     * errors.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testInvalidLengths() throws IOException {
+        int mhsd = indexOf(createItunesDb(new byte[0]), "mhsd".getBytes("US-ASCII"));
+        int mhlt = indexOf(createItunesDb(new byte[0]), "mhlt".getBytes("US-ASCII"));
+        int mhit = indexOf(createItunesDb(new byte[0]), "mhit".getBytes("US-ASCII"));
+        int[][] corruptions = {
+                { 4, -8 }, { mhsd + 8, 0 }, { mhlt + 8, -1 }, { mhlt + 8, 0x7FFFFFFF },
+                { mhit + 8, 0 }, { mhit + 8, 0x7FFFFFFF }, { mhit + 4, 2 }
+            };
+
+        for (int i = 0; i < corruptions.length; i++) {
+            byte[] itunesDb = createItunesDb(new byte[0]);
+            writeInt(itunesDb, corruptions[i][0], corruptions[i][1]);
+            writeItunesDb(itunesDb);
+
+            try {
+                List trackList = parse();
+
+                for (int j = 0; j < trackList.size(); j++) {
+                    trackList.get(j);
+                }
+
+                fail("Parsed an iTunesDB with " + corruptions[i][1] + " at "
+                    + corruptions[i][0]);
+            } catch (RuntimeException e) {
+                assertEquals("Error reading iTunes Database", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Parses the generated iTunesDB.
+     * @return  The parsed tracks.
+     */
+    private List parse() {
+        ItunesDbParser parser =
+            new ItunesDbParser(iTunesDir.getPath(), false, new String[0], false);
+
+        return parser.parse();
+    }
+
+    /**
+     * Checks the tracks parsed from the generated iTunesDB.
+     * @param trackList  The parsed tracks.
+     */
+    private void assertTracks(List trackList) {
+        assertEquals(2, trackList.size());
+
+        TrackItem track = (TrackItem) trackList.get(0);
+        assertEquals(20598, track.getTrackid());
+        assertEquals(427, track.getLength());
+        assertEquals("Bob Marley & The Wailers", track.getArtist());
+        assertEquals("Legend", track.getAlbum());
+        assertEquals("No Woman, No Cry (live)", track.getTrack());
+        assertEquals(":iPod_Control:Music:F00:ABCD.mp3", track.getLocation());
+
+        track = (TrackItem) trackList.get(1);
+        assertEquals(20599, track.getTrackid());
+        assertEquals(233, track.getLength());
+        assertEquals("Korn", track.getArtist());
+        assertEquals("Issues", track.getAlbum());
+        assertEquals("Beg for Me", track.getTrack());
+    }
+
+    /**
+     * Writes the iTunesDB to the temporary directory.
+     * @param itunesDb  The contents of the iTunesDB.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private void writeItunesDb(byte[] itunesDb) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(iTunesDir, "iTunesDB"));
+
+        try {
+            out.write(itunesDb);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Creates an iTunesDB containing two tracks.
+     * @param prefix  Bytes written before the mhbd chunk.
+     * @return  The contents of the iTunesDB.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private byte[] createItunesDb(byte[] prefix) throws IOException {
+        byte[] mhit1 =
+            createMhit(20598, 427000,
+                new byte[][] {
+                    createMhod(1, "No Woman, No Cry (live)"),
+                    createMhod(2, ":iPod_Control:Music:F00:ABCD.mp3"), createMhod(3, "Legend"),
+                    createMhod(4, "Bob Marley & The Wailers")
+                });
+        byte[] mhit2 =
+            createMhit(20599, 233500,
+                new byte[][] {
+                    createMhod(1, "Beg for Me"), createMhod(100, "Ignored"),
+                    createMhod(3, "Issues"), createMhod(4, "Korn")
+                });
+
+        byte[] mhlt = createChunk("mhlt", 92, 2, 0, concat(mhit1, mhit2));
+        byte[] playlists = createChunk("mhsd", 96, -1, 2, new byte[16]);
+        byte[] tracks = createChunk("mhsd", 96, -1, 1, mhlt);
+        byte[] mhbd = createChunk("mhbd", 104, -1, 0, concat(playlists, tracks));
+        writeInt(mhbd, 20, 2);
+
+        return concat(prefix, mhbd);
+    }
+
+    /**
+     * Creates an MHIT chunk.
+     * @param trackId  The track id.
+     * @param lengthMillis  The length of the track in milliseconds.
+     * @param mhods  The MHOD chunks of the track.
+     * @return  The MHIT chunk.
+     */
+    private byte[] createMhit(int trackId, int lengthMillis, byte[][] mhods) {
+        byte[] children = new byte[0];
+
+        for (int i = 0; i < mhods.length; i++) {
+            children = concat(children, mhods[i]);
+        }
+
+        byte[] mhit = createChunk("mhit", 156, -1, mhods.length, children);
+        writeInt(mhit, 16, trackId);
+        writeInt(mhit, 40, lengthMillis);
+
+        return mhit;
+    }
+
+    /**
+     * Creates a string MHOD chunk.
+     * @param type  The MHOD type.
+     * @param value  The string value.
+     * @return  The MHOD chunk.
+     * @throws IOException  Thrown if errors occur.
+     */
+    private byte[] createMhod(int type, String value) throws IOException {
+        byte[] data = value.getBytes("UTF-16LE");
+        byte[] mhod = createChunk("mhod", 24, -1, type, concat(new byte[16], data));
+        writeInt(mhod, 28, data.length);
+
+        return mhod;
+    }
+
+    /**
+     * Creates a chunk with the common chunk header.
+     * @param tag  The four character chunk tag.
+     * @param headerLength  The length of the chunk header.
+     * @param thirdField  The value at offset 8, or <code>-1</code> to store
+     * the total length of the chunk.
+     * @param fourthField  The value at offset 12.
+     * @param children  The data that follows the header.
+     * @return  The chunk.
+     */
+    private byte[] createChunk(String tag, int headerLength, int thirdField, int fourthField,
+        byte[] children) {
+        byte[] chunk = concat(new byte[headerLength], children);
+
+        for (int i = 0; i < 4; i++) {
+            chunk[i] = (byte) tag.charAt(i);
+        }
+
+        writeInt(chunk, 4, headerLength);
+        writeInt(chunk, 8, (thirdField == -1) ? chunk.length : thirdField);
+        writeInt(chunk, 12, fourthField);
+
+        return chunk;
+    }
+
+    /**
+     * Writes a little-endian int into a byte array.
+     * @param data  The byte array.
+     * @param offset  The location to write to.
+     * @param value  The value to write.
+     */
+    private void writeInt(byte[] data, int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            data[offset + i] = (byte) (value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Finds the first occurrence of a byte sequence.
+     * @param data  The bytes to search.
+     * @param pattern  The bytes to search for.
+     * @return  The location of the sequence, or <code>-1</code>.
+     */
+    private int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i <= (data.length - pattern.length); i++) {
+            int j = 0;
+
+            while ((j < pattern.length) && (data[i + j] == pattern[j])) {
+                j++;
+            }
+
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Concatenates two byte arrays.
+     * @param first  The first byte array.
+     * @param second  The second byte array.
+     * @return  The concatenated byte array.
+     */
+    private byte[] concat(byte[] first, byte[] second) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first, 0, first.length);
+        out.write(second, 0, second.length);
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tests the field decoding functions of <code>IoUtils</code>.
+ * @author Chris Tilden
+ */
+public class IoUtilsTest extends TestCase {
+    /**
+     * Sample data: a three byte field followed by a four byte field whose
+     * high bit is set.
+     */
+    private static final byte[] DATA =
+        { (byte) 0x83, 0x01, 0x00, (byte) 0xC1, (byte) 0xF4, (byte) 0xEF, (byte) 0xC1 };
+
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(IoUtilsTest.class);
+    }
+
+    /**
+     * Tests decoding little-endian fields from a byte array.
+     */
+    public void testLittleEndianToLong() {
+        assertEquals(0x0183, IoUtils.littleEndianToLong(DATA, 0, 3));
+        assertEquals(0xC1EFF4C1L, IoUtils.littleEndianToLong(DATA, 3, 4));
+        assertEquals((byte) 0x83, DATA[0]);
+    }
+
+    /**
+     * Tests decoding little-endian fields from a buffer.
+     */
+    public void testLittleEndianToLongBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(DATA);
+
+        assertEquals(0x0183, IoUtils.littleEndianToLong(buffer, 0, 3));
+        assertEquals(0xC1EFF4C1L, IoUtils.littleEndianToLong(buffer, 3, 4));
+        assertEquals(0, buffer.position());
+    }
+
+    /**
+     * Tests decoding big-endian fields from a byte array.
+     */
+    public void testBigEndianToLong() {
+        assertEquals(0x830100, IoUtils.bigEndianToLong(DATA, 0, 3));
+    }
+
+    /**
+     * Tests that reading past the end of a stream fails.
+     * @throws IOException  Thrown if errors occur.
+     */
+    public void testReadFully() throws IOException {
+        byte[] data = new byte[DATA.length + 1];
+        IoUtils.readFully(new ByteArrayInputStream(DATA), data, 1, DATA.length - 1);
+        assertEquals(DATA[0], data[1]);
+
+        try {
+            IoUtils.readFully(new ByteArrayInputStream(DATA), data, 0, DATA.length + 1);
+            fail("Expected an EOFException");
+        } catch (EOFException e) {
+            /* Expected. */
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * LastPod is an application used to publish one's iPod play counts to Last.fm.
+ * Copyright (C) 2007  Chris Tilden
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package org.lastpod.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+
+/**
+ * Tests the <code>LongHashSet</code> object.
+ * @author Chris Tilden
+ */
+public class LongHashSetTest extends TestCase {
+    /**
+     * Returns a JUnit TestSuite for this test case.
+     * @return  A JUnit TestSuite for this test case.
+     */
+    public static Test suite() {
+        return new TestSuite(LongHashSetTest.class);
+    }
+
+    /**
+     * Tests adding and looking up timestamps while the table grows.
+     */
+    public void testAddAndContains() {
+        LongHashSet set = new LongHashSet();
+        long start = 1180000000L;
+
+        for (long i = 0; i < 10000; i++) {
+            assertTrue(set.add(start + (i * 60)));
+        }
+
+        assertFalse(set.add(start));
+        assertEquals(10000, set.size());
+        assertTrue(set.contains(start + (9999 * 60)));
+        assertFalse(set.contains(start + 1));
+    }
+
+    /**
+     * Tests that zero, which marks an empty slot, can be stored.
+     */
+    public void testZero() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+
+        set.clear();
+        assertFalse(set.contains(0));
+        assertEquals(0, set.size());
+    }
+
+    /**
+     * Tests copying the values into an array.
+     */
+    public void testToArray() {
+        LongHashSet set = new LongHashSet(2);
+        set.add(3);
+        set.add(0);
+        set.add(-7);
+
+        long[] values = set.toArray();
+        Arrays.sort(values);
+        assertEquals(3, values.length);
+        assertEquals(-7, values[0]);
+        assertEquals(0, values[1]);
+        assertEquals(3, values[2]);
+    }
+}